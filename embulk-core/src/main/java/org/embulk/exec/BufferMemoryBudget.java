@@ -0,0 +1,111 @@
+package org.embulk.exec;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BufferMemoryBudget bounds the bytes of buffers allocated at the same time.
+ *
+ * The total bytes are bounded by the global limit, and the bytes allocated by each thread are bounded by the
+ * per-thread limit. Usage is counted by the thread which allocated a buffer because allocators don't know the task,
+ * and a task may allocate buffers in more than one thread (e.g. with the pipeline or scatter executor) so the limit
+ * is not a per-task quota. Allocations wait until other buffers are released if they exceed a limit.
+ * A thread which holds no buffers can always allocate so that a task can make progress with a buffer larger than
+ * the limit. Allocations go over the limit after waiting for maxWaitMillis not to deadlock tasks waiting for each
+ * other, since a task holds some buffers while allocating another.
+ */
+class BufferMemoryBudget {
+    static final class Usage {
+        private long bytes;
+    }
+
+    private final long limit;
+    private final long limitPerThread;
+    private final long maxWaitMillis;
+    private final ThreadLocal<Usage> threadUsage = new ThreadLocal<Usage>() {
+        @Override
+        protected Usage initialValue() {
+            return new Usage();
+        }
+    };
+
+    private long currentBytes;
+    private long peakBytes;
+    private long waitingBytes;
+    private long waitCount;
+    private long overLimitCount;
+
+    /**
+     * @param limit  the maximum total bytes, or Long.MAX_VALUE for unlimited
+     * @param limitPerThread  the maximum bytes of each thread, or Long.MAX_VALUE for unlimited
+     * @param maxWaitMillis  the maximum time to wait for an allocation before going over the limits
+     */
+    BufferMemoryBudget(long limit, long limitPerThread, long maxWaitMillis) {
+        this.limit = limit;
+        this.limitPerThread = limitPerThread;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    boolean isLimited() {
+        return limit != Long.MAX_VALUE || limitPerThread != Long.MAX_VALUE;
+    }
+
+    /**
+     * Reserves bytes for a buffer allocated by the current thread, waiting for other buffers released if needed.
+     *
+     * @return the usage of the current thread to be passed to release
+     */
+    synchronized Usage acquire(int bytes) {
+        Usage usage = threadUsage.get();
+        if (!fits(usage, bytes)) {
+            waitCount++;
+            waitingBytes += bytes;
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+                while (!fits(usage, bytes)) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMillis <= 0) {
+                        overLimitCount++;
+                        logger.warn("Allocating a buffer of {} bytes over the buffer memory limit after waiting for {} ms: {}",
+                                    bytes, maxWaitMillis, getStats());
+                        break;
+                    }
+                    wait(remainingMillis);
+                }
+            } catch (InterruptedException ex) {
+                throw new ExecutionInterruptedException(ex);
+            } finally {
+                waitingBytes -= bytes;
+            }
+        }
+
+        currentBytes += bytes;
+        usage.bytes += bytes;
+        if (peakBytes < currentBytes) {
+            peakBytes = currentBytes;
+        }
+        return usage;
+    }
+
+    synchronized void release(Usage usage, int bytes) {
+        currentBytes -= bytes;
+        usage.bytes -= bytes;
+        if (waitingBytes > 0) {
+            notifyAll();
+        }
+    }
+
+    private boolean fits(Usage usage, int bytes) {
+        if (usage.bytes == 0) {
+            return true;
+        }
+        return currentBytes + bytes <= limit && usage.bytes + bytes <= limitPerThread;
+    }
+
+    synchronized BufferMemoryStats getStats() {
+        return new BufferMemoryStats(currentBytes, peakBytes, waitingBytes, waitCount, overLimitCount);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferMemoryBudget.class);
+}
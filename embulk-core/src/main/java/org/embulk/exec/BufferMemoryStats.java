@@ -0,0 +1,61 @@
+package org.embulk.exec;
+
+/**
+ * BufferMemoryStats is a snapshot of the bytes of buffers allocated by PooledBufferAllocator.
+ */
+public final class BufferMemoryStats {
+    private final long currentBytes;
+    private final long peakBytes;
+    private final long waitingBytes;
+    private final long waitCount;
+    private final long overLimitCount;
+
+    BufferMemoryStats(long currentBytes, long peakBytes, long waitingBytes, long waitCount, long overLimitCount) {
+        this.currentBytes = currentBytes;
+        this.peakBytes = peakBytes;
+        this.waitingBytes = waitingBytes;
+        this.waitCount = waitCount;
+        this.overLimitCount = overLimitCount;
+    }
+
+    /**
+     * Returns the bytes of buffers allocated and not released yet.
+     */
+    public long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the maximum of the current bytes so far.
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Returns the bytes of allocations waiting for buffers to be released.
+     */
+    public long getWaitingBytes() {
+        return waitingBytes;
+    }
+
+    /**
+     * Returns the number of allocations which have waited for buffers to be released.
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * Returns the number of allocations which have gone over the limits after waiting.
+     */
+    public long getOverLimitCount() {
+        return overLimitCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{current: %d bytes, peak: %d bytes, waiting: %d bytes, waits: %d, over limit: %d}",
+                             currentBytes, peakBytes, waitingBytes, waitCount, overLimitCount);
+    }
+}
@@ -0,0 +1,180 @@
+package org.embulk.exec;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.embulk.spi.Page;
+
+/**
+ * GatherPageQueue is a bounded queue of pages from multiple producer threads to one consumer thread.
+ *
+ * The number of producers is given when the queue is created, and producers can be added while another producer is
+ * not done. The consumer takes pages until every producer has called done(). Either side may close() the queue to
+ * stop the other side, for example when a producer or the consumer fails. Producers which put a page into a closed
+ * queue get an exception so that they stop early.
+ */
+final class GatherPageQueue {
+    private final int capacity;
+    private final ArrayDeque<Page> pages;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    // guarded by lock
+    private int producerCount;
+    private int doneCount;
+    private boolean closed;
+    private Throwable cause;
+    private long putCount;
+    private long fullCount;
+    private long emptyCount;
+    private long occupancySum;
+    private int peakOccupancy;
+
+    GatherPageQueue(int capacity, int producerCount) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of a page queue must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.producerCount = producerCount;
+        this.pages = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Puts a page, waiting until the queue has a space. Throws IllegalStateException if the queue is closed, after
+     * releasing the page.
+     */
+    void put(Page page) throws InterruptedException {
+        lock.lock();
+        try {
+            if (pages.size() >= capacity && !closed) {
+                fullCount++;
+                while (pages.size() >= capacity && !closed) {
+                    notFull.await();
+                }
+            }
+            if (closed) {
+                page.release();
+                throw new IllegalStateException("The output of gathered pages has stopped");
+            }
+            pages.addLast(page);
+            putCount++;
+            occupancySum += pages.size();
+            peakOccupancy = Math.max(peakOccupancy, pages.size());
+            notEmpty.signal();
+        } catch (InterruptedException ex) {
+            page.release();
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a producer. It must be called while another producer is not done so that the consumer doesn't finish
+     * before the added producer puts its pages.
+     */
+    void addProducer() {
+        lock.lock();
+        try {
+            producerCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the consumer that a producer has put all of its pages.
+     */
+    void done() {
+        lock.lock();
+        try {
+            doneCount++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a page, waiting until a page is put. Returns null if all producers are done and all pages are taken.
+     * Throws IllegalStateException if the queue is closed before that.
+     */
+    Page take() throws InterruptedException {
+        lock.lock();
+        try {
+            if (pages.isEmpty() && doneCount < producerCount && !closed) {
+                emptyCount++;
+                while (pages.isEmpty() && doneCount < producerCount && !closed) {
+                    notEmpty.await();
+                }
+            }
+            if (closed) {
+                throw new IllegalStateException("Gathering pages has been aborted because an input has failed", cause);
+            }
+            Page page = pages.pollFirst();
+            notFull.signal();
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue if some producers are not done. Called when no more producers will run.
+     */
+    void closeIfIncomplete() {
+        lock.lock();
+        try {
+            if (doneCount < producerCount) {
+                close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops both sides as close() does, and keeps the cause to be thrown from take().
+     */
+    void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (!closed) {
+                this.cause = cause;
+            }
+            close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops both sides, and releases pages which are not taken.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (!pages.isEmpty()) {
+                pages.pollFirst().release();
+            }
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the statistics of this queue. Called after the consumer has stopped.
+     */
+    void addStatsTo(PageQueueStats stats) {
+        lock.lock();
+        try {
+            stats.add(capacity, putCount, fullCount, emptyCount, occupancySum, peakOccupancy);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
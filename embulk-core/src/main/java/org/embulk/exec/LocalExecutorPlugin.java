@@ -3,16 +3,27 @@ package org.embulk.exec;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.plugin.compat.PluginWrappers;
 import org.embulk.spi.AbortTransactionResource;
+import org.embulk.spi.BufferAllocator;
 import org.embulk.spi.CloseResource;
 import org.embulk.spi.Exec;
 import org.embulk.spi.ExecSession;
@@ -25,6 +36,7 @@ import org.embulk.spi.PageOutput;
 import org.embulk.spi.ProcessState;
 import org.embulk.spi.ProcessTask;
 import org.embulk.spi.Schema;
+import org.embulk.spi.TaskState;
 import org.embulk.spi.TransactionalPageOutput;
 import org.embulk.spi.util.Executors;
 import org.embulk.spi.util.Executors.ProcessStateCallback;
@@ -33,14 +45,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class LocalExecutorPlugin implements ExecutorPlugin {
+    static final int DEFAULT_PAGE_QUEUE_SIZE = 4;
+    static final double DEFAULT_SPECULATION_MULTIPLIER = 1.5;
+
     private int defaultMaxThreads;
     private int defaultMinThreads;
+    private int defaultScatterQueueSize;
+    private String defaultScatterRouting;
 
     @Inject
     public LocalExecutorPlugin(@ForSystemConfig ConfigSource systemConfig) {
         int cores = Runtime.getRuntime().availableProcessors();
         this.defaultMaxThreads = systemConfig.get(Integer.class, "max_threads", cores * 2);
         this.defaultMinThreads = systemConfig.get(Integer.class, "min_output_tasks", cores);
+        this.defaultScatterQueueSize = systemConfig.get(Integer.class, "scatter_queue_size", DEFAULT_PAGE_QUEUE_SIZE);
+        this.defaultScatterRouting = systemConfig.get(String.class, "scatter_routing", "round_robin");
     }
 
     @Override
@@ -54,17 +73,135 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
     private AbstractLocalExecutor newExecutor(ConfigSource config, int inputTaskCount) {
         int maxThreads = config.get(Integer.class, "max_threads", defaultMaxThreads);
         int minThreads = config.get(Integer.class, "min_output_tasks", defaultMinThreads);
-        if (inputTaskCount > 0 && inputTaskCount < minThreads) {
+        PipelineMode pipeline = PipelineMode.of(config.get(String.class, "pipeline", "none"));
+        int gatherCount = config.get(Integer.class, "gather_output_tasks", 0);
+        boolean workStealing = config.get(Boolean.class, "work_stealing", false);
+        boolean speculative = config.get(Boolean.class, "speculative_execution", false);
+
+        // pipeline, gathering, work stealing and speculative execution replace the executor with their own, and can't be combined
+        List<String> exclusiveOptions = new ArrayList<>();
+        if (pipeline != PipelineMode.NONE) {
+            exclusiveOptions.add("pipeline");
+        }
+        if (gatherCount > 0) {
+            exclusiveOptions.add("gather_output_tasks");
+        }
+        if (workStealing) {
+            exclusiveOptions.add("work_stealing");
+        }
+        if (speculative) {
+            exclusiveOptions.add("speculative_execution");
+        }
+        if (exclusiveOptions.size() > 1) {
+            throw new ConfigException("Local executor options " + exclusiveOptions + " can't be used together");
+        }
+        if (!exclusiveOptions.isEmpty() && config.has("scatter_partition_keys")) {
+            logger.warn("scatter_partition_keys is ignored because page scattering is not used with {}", exclusiveOptions.get(0));
+        }
+
+        if (pipeline != PipelineMode.NONE) {
+            int queueSize = config.get(Integer.class, "pipeline_queue_size", DEFAULT_PAGE_QUEUE_SIZE);
+            logger.info("Using local thread executor with max_threads={} / tasks={} / pipeline={}",
+                        maxThreads, inputTaskCount, pipeline.name().toLowerCase(Locale.ENGLISH));
+            return new PipelineExecutor(maxThreads, inputTaskCount, pipeline, queueSize);
+        } else if (gatherCount > 0 && gatherCount < inputTaskCount) {
+            int queueSize = config.get(Integer.class, "gather_queue_size", DEFAULT_PAGE_QUEUE_SIZE);
+            logger.info("Using local thread executor with max_threads={} / input tasks {} gathered into output tasks {}",
+                        maxThreads, inputTaskCount, gatherCount);
+            return new GatherExecutor(maxThreads, inputTaskCount, gatherCount, queueSize);
+        } else if (workStealing) {
+            int queueSize = config.get(Integer.class, "work_stealing_queue_size", DEFAULT_PAGE_QUEUE_SIZE);
+            logger.info("Using local thread executor with max_threads={} / tasks={} / work_stealing", maxThreads, inputTaskCount);
+            return new WorkStealingExecutor(maxThreads, inputTaskCount, queueSize);
+        } else if (speculative) {
+            double multiplier = config.get(Double.class, "speculation_multiplier", DEFAULT_SPECULATION_MULTIPLIER);
+            if (multiplier < 1.0) {
+                throw new ConfigException("speculation_multiplier must be 1.0 or larger: " + multiplier);
+            }
+            logger.info("Using local thread executor with max_threads={} / tasks={} / speculative_execution", maxThreads, inputTaskCount);
+            return new SpeculativeExecutor(maxThreads, inputTaskCount, multiplier);
+        } else if (inputTaskCount > 0 && inputTaskCount < minThreads) {
             int scatterCount = (minThreads + inputTaskCount - 1) / inputTaskCount;
             logger.info("Using local thread executor with max_threads={} / output tasks {} = input tasks {} * {}",
                         maxThreads, inputTaskCount * scatterCount, inputTaskCount, scatterCount);
-            return new ScatterExecutor(maxThreads, inputTaskCount, scatterCount);
+            int queueSize = config.get(Integer.class, "scatter_queue_size", defaultScatterQueueSize);
+            ScatterRouting routing = ScatterRouting.of(config.get(String.class, "scatter_routing", defaultScatterRouting));
+            List<String> partitionKeys = Arrays.asList(config.get(String[].class, "scatter_partition_keys", new String[0]));
+            if (!partitionKeys.isEmpty()) {
+                logger.info("Partitioning records to output tasks by {}", partitionKeys);
+            }
+            return new ScatterExecutor(maxThreads, inputTaskCount, scatterCount, queueSize, routing, partitionKeys);
         } else {
             logger.info("Using local thread executor with max_threads={} / tasks={}", maxThreads, inputTaskCount);
             return new DirectExecutor(maxThreads, inputTaskCount);
         }
     }
 
+    /**
+     * ScatterRouting specifies how an input task of ScatterExecutor chooses the output thread for each page.
+     */
+    public enum ScatterRouting {
+        /**
+         * Pages go to output threads in turn. Each output task receives the same pages in every run.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * A page goes to the output thread with the fewest pages queued, so that a slow output doesn't block the others.
+         * Each output task may receive different pages in every run, and so an input task whose output tasks have
+         * partly committed uses ROUND_ROBIN on resume.
+         */
+        LEAST_LOADED;
+
+        static ScatterRouting of(String name) {
+            switch (name) {
+                case "round_robin":
+                    return ROUND_ROBIN;
+                case "least_loaded":
+                    return LEAST_LOADED;
+                default:
+                    throw new ConfigException("Unknown scatter_routing: " + name + ". Expected round_robin or least_loaded");
+            }
+        }
+    }
+
+    /**
+     * PipelineMode specifies the boundaries of stages of a task which PipelineExecutor runs on separate threads.
+     */
+    public enum PipelineMode {
+        NONE,
+
+        /**
+         * The input plugin runs on the task thread, and filters and the output plugin run on another thread.
+         */
+        INPUT,
+
+        /**
+         * The output plugin runs on its own thread.
+         */
+        OUTPUT,
+
+        /**
+         * The input plugin, each filter plugin and the output plugin run on their own threads.
+         */
+        ALL;
+
+        static PipelineMode of(String name) {
+            switch (name) {
+                case "none":
+                    return NONE;
+                case "input":
+                    return INPUT;
+                case "output":
+                    return OUTPUT;
+                case "all":
+                    return ALL;
+                default:
+                    throw new ConfigException("Unknown pipeline: " + name + ". Expected none, input, output or all");
+            }
+        }
+    }
+
     private abstract static class AbstractLocalExecutor implements Executor, AutoCloseable {
         protected final int inputTaskCount;
         protected final int outputTaskCount;
@@ -82,10 +219,10 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         public void execute(ProcessTask task, ProcessState state) {
             state.initialize(inputTaskCount, outputTaskCount);
 
-            List<Future<Throwable>> futures = new ArrayList<>(inputTaskCount);
+            List<Future<Throwable>> futures = new ArrayList<>(Collections.nCopies(inputTaskCount, (Future<Throwable>) null));
             try {
-                for (int i = 0; i < inputTaskCount; i++) {
-                    futures.add(startInputTask(task, state, i));
+                for (int taskIndex : getStartOrder(task)) {
+                    futures.set(taskIndex, startInputTask(task, state, taskIndex));
                 }
                 showProgress(state, inputTaskCount);
 
@@ -109,6 +246,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                     }
                     showProgress(state, inputTaskCount);
                 }
+                joinOutputTasks(state);
             } finally {
                 for (Future<Throwable> future : futures) {
                     if (future != null && !future.isDone()) {
@@ -117,19 +255,32 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                     }
                 }
             }
+            showBufferMemoryStats();
+            showExecutorStats();
         }
 
         @Override
         public abstract void close();
 
+        private int[] getStartOrder(ProcessTask task) {
+            InputPlugin inputPlugin = Exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+            Optional<long[]> costs = inputPlugin.hintOfTaskCosts(task.getInputTaskSource(), inputTaskCount);
+            if (costs.isPresent() && costs.get().length != inputTaskCount) {
+                logger.warn("Ignoring hints of task costs because the number of hints {} is not the number of tasks {}",
+                            costs.get().length, inputTaskCount);
+                costs = Optional.empty();
+            }
+            return orderByCosts(costs, inputTaskCount);
+        }
+
         private void showProgress(ProcessState state, int taskCount) {
             int started = 0;
             int finished = 0;
             for (int i = 0; i < taskCount; i++) {
-                if (state.getOutputTaskState(i).isStarted()) {
+                if (state.getInputTaskState(i).isStarted()) {
                     started++;
                 }
-                if (state.getOutputTaskState(i).isFinished()) {
+                if (state.getInputTaskState(i).isFinished()) {
                     finished++;
                 }
             }
@@ -137,9 +288,48 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             logger.info(String.format("{done:%3d / %d, running: %d}", finished, taskCount, started - finished));
         }
 
+        private void showBufferMemoryStats() {
+            BufferAllocator allocator = Exec.getBufferAllocator();
+            if (allocator instanceof PooledBufferAllocator && ((PooledBufferAllocator) allocator).isBufferMemoryLimited()) {
+                logger.info("Buffer memory: {}", ((PooledBufferAllocator) allocator).getStats());
+            }
+        }
+
+        protected void showExecutorStats() {}
+
+        /**
+         * Waits until output tasks which don't finish with input tasks finish. Called after all input tasks finish.
+         */
+        protected void joinOutputTasks(ProcessState state) {}
+
         protected abstract Future<Throwable> startInputTask(ProcessTask task, ProcessState state, int taskIndex);
     }
 
+    /**
+     * Returns task indexes in the order to start tasks. Costly tasks start first so that a large task which starts
+     * late doesn't stretch the whole execution. Tasks of the same cost, or all tasks without costs, start in the
+     * order of task indexes.
+     */
+    static int[] orderByCosts(Optional<long[]> costs, int taskCount) {
+        Integer[] order = new Integer[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            order[i] = i;
+        }
+        if (costs.isPresent()) {
+            final long[] taskCosts = costs.get();
+            Arrays.sort(order, new Comparator<Integer>() {  // stable
+                    public int compare(Integer a, Integer b) {
+                        return Long.compare(taskCosts[b], taskCosts[a]);
+                    }
+                });
+        }
+        int[] result = new int[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
     public static class DirectExecutor extends AbstractLocalExecutor {
         protected final ExecutorService executor;
 
@@ -191,16 +381,171 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
     }
 
+    /**
+     * PipelineExecutor runs stages of each task on separate threads connected by queues of pages.
+     *
+     * A task can use multiple cores even if there are only a few tasks. Exceptions of stage threads are rethrown on
+     * the task thread. The output is committed after all stages have passed all pages, and stage threads are stopped
+     * before the output is aborted.
+     */
+    public static class PipelineExecutor extends AbstractLocalExecutor {
+        private final PipelineMode mode;
+        private final int queueSize;
+        private final ExecutorService executor;
+        private final ExecutorService stageExecutor;
+        private final PageQueueStats queueStats = new PageQueueStats();
+
+        public PipelineExecutor(int maxThreads, int taskCount, PipelineMode mode, int queueSize) {
+            super(taskCount, taskCount);
+            this.mode = mode;
+            this.queueSize = queueSize;
+            this.executor = java.util.concurrent.Executors.newFixedThreadPool(maxThreads,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-executor-%d")
+                            .setDaemon(true)
+                            .build());
+            this.stageExecutor = java.util.concurrent.Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-pipeline-executor-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+            stageExecutor.shutdown();
+        }
+
+        public PageQueueStats getQueueStats() {
+            return queueStats;
+        }
+
+        @Override
+        protected void showExecutorStats() {
+            logger.info("Pipeline queues: {}", queueStats);
+        }
+
+        @Override
+        protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
+            if (state.getOutputTaskState(taskIndex).isCommitted()) {
+                logger.warn("Skipped resumed task {}", taskIndex);
+                return null;  // resumed
+            }
+
+            return executor.submit(new Callable<Throwable>() {
+                    public Throwable call() {
+                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                            runTask(Exec.session(), task, state, taskIndex);
+                            return null;
+                        } finally {
+                            state.getInputTaskState(taskIndex).finish();
+                            state.getOutputTaskState(taskIndex).finish();
+                        }
+                    }
+                });
+        }
+
+        private void runTask(ExecSession exec, ProcessTask task, ProcessState state, int taskIndex) {
+            InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+            List<FilterPlugin> filterPlugins = Filters.newFilterPlugins(exec, task.getFilterPluginTypes());
+            OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
+
+            TransactionalPageOutput tran = PluginWrappers.transactionalPageOutput(
+                    outputPlugin.open(task.getOutputTaskSource(), task.getOutputSchema(), taskIndex));
+
+            state.getInputTaskState(taskIndex).start();
+            state.getOutputTaskState(taskIndex).start();
+            try (CloseResource closer = new CloseResource(tran)) {
+                try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
+                    List<PipelinedPageOutput> stages = new ArrayList<>();  // from upstream to downstream
+                    try {
+                        PageOutput filtered = openStages(taskIndex, filterPlugins, task.getFilterSchemas(), task.getFilterTaskSources(),
+                                                         tran, stages);
+                        closer.closeThis(filtered);
+
+                        TaskReport inputTaskReport = inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex, filtered);
+
+                        // pages may be left in queues if the input plugin doesn't call finish
+                        for (PipelinedPageOutput stage : stages) {
+                            stage.complete();
+                        }
+
+                        if (inputTaskReport == null) {
+                            inputTaskReport = exec.newTaskReport();
+                        }
+                        state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport);
+
+                        TaskReport outputTaskReport = tran.commit();
+                        aborter.dontAbort();
+                        if (outputTaskReport == null) {
+                            outputTaskReport = exec.newTaskReport();
+                        }
+                        state.getOutputTaskState(taskIndex).setTaskReport(outputTaskReport);
+                    } finally {
+                        // stop stage threads before the output is aborted or closed
+                        for (PipelinedPageOutput stage : stages) {
+                            stage.abort();
+                        }
+                    }
+                }
+            }
+        }
+
+        // Opens filters as Filters.open does, inserting queues at the boundaries of stages.
+        private PageOutput openStages(int taskIndex, List<FilterPlugin> plugins, List<Schema> filterSchemas, List<TaskSource> taskSources,
+                PageOutput output, List<PipelinedPageOutput> stages) {
+            PageOutput out = output;
+            if (mode == PipelineMode.OUTPUT || mode == PipelineMode.ALL || plugins.isEmpty()) {
+                out = newStage(out, taskIndex, "output", stages);
+            }
+            for (int pos = plugins.size() - 1; pos >= 0; pos--) {
+                out = plugins.get(pos).open(taskSources.get(pos), filterSchemas.get(pos), filterSchemas.get(pos + 1), out);
+                if (pos > 0 ? mode == PipelineMode.ALL : mode != PipelineMode.OUTPUT) {
+                    out = newStage(out, taskIndex, "filter-" + pos, stages);
+                }
+            }
+            return out;
+        }
+
+        private PageOutput newStage(PageOutput downstream, int taskIndex, String name, List<PipelinedPageOutput> stages) {
+            PipelinedPageOutput stage = new PipelinedPageOutput(
+                    downstream, stageExecutor, queueSize, queueStats, String.format("task-%04d-%s", taskIndex, name));
+            stages.add(0, stage);
+            return stage;
+        }
+    }
+
     public static class ScatterExecutor extends AbstractLocalExecutor {
         private final int scatterCount;
         private final int inputTaskCount;
+        private final int queueSize;
+        private final ScatterRouting routing;
+        private final List<String> partitionKeys;
         private final ExecutorService inputExecutor;
         private final ExecutorService outputExecutor;
+        private final PageQueueStats queueStats = new PageQueueStats();
 
         public ScatterExecutor(int maxThreads, int inputTaskCount, int scatterCount) {
+            this(maxThreads, inputTaskCount, scatterCount, DEFAULT_PAGE_QUEUE_SIZE, ScatterRouting.ROUND_ROBIN,
+                 Collections.<String>emptyList());
+        }
+
+        /**
+         * Creates a ScatterExecutor.
+         *
+         * If partitionKeys is not empty, records are re-packed into pages so that records with the same values of
+         * the columns go to the same output task of an input task. The columns are looked up in the input schema.
+         * Otherwise, pages are routed as they are by routing.
+         */
+        public ScatterExecutor(int maxThreads, int inputTaskCount, int scatterCount, int queueSize, ScatterRouting routing,
+                List<String> partitionKeys) {
             super(inputTaskCount, inputTaskCount * scatterCount);
             this.inputTaskCount = inputTaskCount;
             this.scatterCount = scatterCount;
+            this.queueSize = queueSize;
+            this.routing = routing;
+            this.partitionKeys = partitionKeys;
             this.inputExecutor = java.util.concurrent.Executors.newFixedThreadPool(
                     Math.max(maxThreads / scatterCount, 1),
                     new ThreadFactoryBuilder()
@@ -220,6 +565,22 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             outputExecutor.shutdown();
         }
 
+        public PageQueueStats getQueueStats() {
+            return queueStats;
+        }
+
+        @Override
+        protected void showExecutorStats() {
+            logger.info("Scatter queues: {}", queueStats);
+        }
+
+        @Override
+        public void execute(ProcessTask task, ProcessState state) {
+            // the executor plugin doesn't get the input schema, and so unknown keys are found here before tasks start
+            PagePartitioner.lookupKeyColumns(task.getInputSchema(), partitionKeys);
+            super.execute(task, state);
+        }
+
         @Override
         protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
             if (isAllScatterOutputFinished(state, taskIndex)) {
@@ -247,18 +608,42 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             return true;
         }
 
+        /**
+         * Returns the routing of an input task. A resumed input task drops pages for its committed output tasks, and
+         * the pages must be the same as the previous run. Only ROUND_ROBIN places the same pages in the same output
+         * task in every run, and so it is used if any output task of the input task has committed.
+         */
+        static ScatterRouting getTaskRouting(ScatterRouting routing, ProcessState state, int taskIndex, int scatterCount) {
+            if (routing == ScatterRouting.ROUND_ROBIN) {
+                return routing;
+            }
+            for (int i = 0; i < scatterCount; i++) {
+                if (state.getOutputTaskState(taskIndex * scatterCount + i).isCommitted()) {
+                    return ScatterRouting.ROUND_ROBIN;
+                }
+            }
+            return routing;
+        }
+
         private void runInputTask(ExecSession exec, ProcessTask task, ProcessState state, int taskIndex) {
             InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
             List<FilterPlugin> filterPlugins = Filters.newFilterPlugins(exec, task.getFilterPluginTypes());
             OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
 
-            try (ScatterTransactionalPageOutput tran = new ScatterTransactionalPageOutput(state, taskIndex, scatterCount)) {
+            ScatterRouting taskRouting = getTaskRouting(routing, state, taskIndex, scatterCount);
+            if (taskRouting != routing) {
+                logger.warn("Routing pages of resumed input task {} in round robin because some of its output tasks have committed", taskIndex);
+            }
+            try (ScatterTransactionalPageOutput tran = new ScatterTransactionalPageOutput(state, taskIndex, scatterCount, taskRouting)) {
                 tran.openOutputs(outputPlugin, task.getOutputSchema(), task.getOutputTaskSource());
 
                 try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
                     tran.openFilters(filterPlugins, task.getFilterSchemas(), task.getFilterTaskSources());
 
-                    tran.startWorkers(outputExecutor);
+                    tran.startWorkers(outputExecutor, queueSize, queueStats);
+                    if (!partitionKeys.isEmpty()) {
+                        tran.startPartitioner(exec.getBufferAllocator(), task.getInputSchema(), partitionKeys);
+                    }
 
                     // started
                     state.getInputTaskState(taskIndex).start();
@@ -285,149 +670,1030 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
     }
 
-    private static class ScatterTransactionalPageOutput implements TransactionalPageOutput {
-        private static final Page DONE_PAGE = Page.allocate(0);
+    /**
+     * GatherExecutor runs input tasks with fewer output tasks. Consecutive input tasks share an output task.
+     *
+     * Input tasks put pages into the queue of their output task, and the output task runs the filters and the output
+     * plugin on its own thread. An output task is committed after all of its input tasks finish, and it is aborted if
+     * any of them fails. A resumed execution skips input tasks of committed output tasks, and runs all input tasks of
+     * the other output tasks again.
+     */
+    public static class GatherExecutor extends AbstractLocalExecutor {
+        private final int queueSize;
+        private final ExecutorService inputExecutor;
+        private final ExecutorService outputExecutor;
+        private final PageQueueStats queueStats = new PageQueueStats();
+        private final GatherOutputTask[] outputTasks;  // guarded by this
 
-        private static class OutputWorker implements Callable<Throwable> {
-            private final PageOutput output;
-            private final Future<Throwable> future;
-            private volatile int addWaiting;
-            private volatile Page queued;
+        public GatherExecutor(int maxThreads, int inputTaskCount, int outputTaskCount, int queueSize) {
+            super(inputTaskCount, outputTaskCount);
+            this.queueSize = queueSize;
+            this.inputExecutor = java.util.concurrent.Executors.newFixedThreadPool(maxThreads,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-input-executor-%d")
+                            .setDaemon(true)
+                            .build());
+            this.outputExecutor = java.util.concurrent.Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-output-executor-%d")
+                            .setDaemon(true)
+                            .build());
+            this.outputTasks = new GatherOutputTask[outputTaskCount];
+        }
 
-            public OutputWorker(PageOutput output, ExecutorService executor) {
-                this.output = output;
-                this.addWaiting = 0;
-                this.future = executor.submit(this);
-            }
+        @Override
+        public void close() {
+            inputExecutor.shutdown();
+            outputExecutor.shutdown();
+        }
 
-            public synchronized void done() throws InterruptedException {
-                while (true) {
-                    if (queued == null && addWaiting == 0) {
-                        queued = DONE_PAGE;
-                        notifyAll();
-                        return;
-                    } else if (queued == DONE_PAGE) {
-                        return;
-                    }
-                    wait();
-                }
-            }
+        public PageQueueStats getQueueStats() {
+            return queueStats;
+        }
 
-            public synchronized void add(Page page) throws InterruptedException {
-                addWaiting++;
-                try {
-                    while (true) {
-                        if (queued == null) {
-                            queued = page;
-                            notifyAll();
-                            return;
-                        } else if (queued == DONE_PAGE) {
-                            page.release();
-                            return;
-                        }
-                        wait();
-                    }
-                } finally {
-                    addWaiting--;
-                }
-            }
+        @Override
+        protected void showExecutorStats() {
+            logger.info("Gather queues: {}", queueStats);
+        }
 
-            public Throwable join() throws InterruptedException {
-                try {
-                    return future.get();
-                } catch (ExecutionException ex) {
-                    return ex.getCause();
-                }
+        static int getOutputTaskIndex(int inputTaskIndex, int inputTaskCount, int outputTaskCount) {
+            return (int) ((long) inputTaskIndex * outputTaskCount / inputTaskCount);
+        }
+
+        static int getInputTaskCountOf(int outputTaskIndex, int inputTaskCount, int outputTaskCount) {
+            return getFirstInputTaskIndex(outputTaskIndex + 1, inputTaskCount, outputTaskCount)
+                    - getFirstInputTaskIndex(outputTaskIndex, inputTaskCount, outputTaskCount);
+        }
+
+        private static int getFirstInputTaskIndex(int outputTaskIndex, int inputTaskCount, int outputTaskCount) {
+            return (int) (((long) outputTaskIndex * inputTaskCount + outputTaskCount - 1) / outputTaskCount);
+        }
+
+        @Override
+        protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
+            final int outputTaskIndex = getOutputTaskIndex(taskIndex, inputTaskCount, outputTaskCount);
+            if (state.getOutputTaskState(outputTaskIndex).isCommitted()) {
+                logger.warn("Skipped resumed input task {}", taskIndex);
+                return null;  // resumed
             }
 
-            @Override
-            public synchronized Throwable call() throws InterruptedException {
-                try {
-                    while (true) {
-                        if (queued != null) {
-                            if (queued == DONE_PAGE) {
-                                return null;
-                            }
-                            output.add(queued);
-                            queued = null;
-                            notifyAll();
-                        }
-                        wait();
-                    }
-                } finally {
-                    try {
-                        if (queued != null && queued != DONE_PAGE) {
-                            queued.release();
-                            queued = null;
+            return inputExecutor.submit(new Callable<Throwable>() {
+                    public Throwable call() {
+                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                            runInputTask(Exec.session(), task, state, taskIndex, outputTaskIndex);
+                            return null;
+                        } finally {
+                            state.getInputTaskState(taskIndex).finish();
                         }
-                    } finally {
-                        queued = DONE_PAGE;
                     }
-                    notifyAll();
+                });
+        }
+
+        private void runInputTask(ExecSession exec, ProcessTask task, ProcessState state, int taskIndex, int outputTaskIndex) {
+            InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+            GatherOutputTask outputTask = getOrStartOutputTask(exec, task, state, outputTaskIndex);
+
+            state.getInputTaskState(taskIndex).start();
+            try {
+                TaskReport inputTaskReport = inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex,
+                                                             outputTask.getInput());
+                if (inputTaskReport == null) {
+                    inputTaskReport = exec.newTaskReport();
                 }
+                state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport);
+            } catch (Throwable ex) {
+                outputTask.inputFailed(ex);
+                throw ex;
             }
+            outputTask.inputDone();
         }
 
-        private final ProcessState state;
-        private final int taskIndex;
-        private final int scatterCount;
-
-        private final TransactionalPageOutput[] trans;
-        private final PageOutput[] filtereds;
-        private final CloseResource[] closeThese;
+        private synchronized GatherOutputTask getOrStartOutputTask(ExecSession exec, ProcessTask task, ProcessState state,
+                int outputTaskIndex) {
+            if (outputTasks[outputTaskIndex] == null) {
+                int inputCount = getInputTaskCountOf(outputTaskIndex, inputTaskCount, outputTaskCount);
+                outputTasks[outputTaskIndex] = new GatherOutputTask(exec, task, state, outputTaskIndex,
+                                                                    new GatherPageQueue(queueSize, inputCount), outputExecutor);
+            }
+            return outputTasks[outputTaskIndex];
+        }
 
-        private final OutputWorker[] outputWorkers;
+        @Override
+        protected void joinOutputTasks(ProcessState state) {
+            GatherOutputTask[] started;
+            synchronized (this) {
+                started = outputTasks.clone();
+            }
+            GatherOutputTask.joinAll(started, state, queueStats);
+        }
+    }
 
-        private long pageCount;
+    /**
+     * WorkStealingExecutor runs tasks on a work-stealing pool, and splits running tasks for idle threads.
+     *
+     * A thread which finds no task to start asks a running part of a task to hand back its unread remainder through
+     * InputPlugin.splitRemainder, and runs the remainder as another part of the task. The remainder can be split again.
+     * Pages of all parts of a task go to the output task of the task through a queue, so that the output task commits
+     * the whole task at once. Task reports of the parts are merged by TaskReport.merge into the task report of the
+     * input task before the output task commits, and the input task finishes when its last part finishes. A failure of
+     * any part aborts the output task, and a resumed execution runs the whole task again from its original task source.
+     */
+    public static class WorkStealingExecutor extends AbstractLocalExecutor {
+        /**
+         * TaskInput tracks running parts of a task, and merges their task reports.
+         */
+        private static class TaskInput {
+            private final TaskState inputTaskState;
+            private final GatherOutputTask outputTask;
 
-        public ScatterTransactionalPageOutput(ProcessState state, int taskIndex, int scatterCount) {
-            this.state = state;
-            this.taskIndex = taskIndex;
-            this.scatterCount = scatterCount;
+            // guarded by this
+            private int runningPartCount = 1;
+            private TaskReport taskReport;
+            private boolean failed;
 
-            this.trans = new TransactionalPageOutput[scatterCount];
-            this.filtereds = new PageOutput[scatterCount];
-            this.closeThese = new CloseResource[scatterCount];
-            for (int i = 0; i < scatterCount; i++) {
-                closeThese[i] = new CloseResource();
+            TaskInput(TaskState inputTaskState, GatherOutputTask outputTask) {
+                this.inputTaskState = inputTaskState;
+                this.outputTask = outputTask;
             }
-            this.outputWorkers = new OutputWorker[scatterCount];
-        }
 
-        public void openOutputs(OutputPlugin outputPlugin, Schema outputSchema, TaskSource outputTaskSource) {
-            for (int i = 0; i < scatterCount; i++) {
-                int outputTaskIndex = taskIndex * scatterCount + i;
-                if (!state.getOutputTaskState(outputTaskIndex).isCommitted()) {
-                    TransactionalPageOutput tran = PluginWrappers.transactionalPageOutput(
-                            outputPlugin.open(outputTaskSource, outputSchema, outputTaskIndex));
-                    trans[i] = tran;
-                    closeThese[i].closeThis(tran);
-                }
+            synchronized void addPart() {
+                runningPartCount++;
+                outputTask.addInput();
             }
-        }
 
-        public void openFilters(List<FilterPlugin> filterPlugins, List<Schema> filterSchemas, List<TaskSource> filterTaskSources) {
-            for (int i = 0; i < scatterCount; i++) {
-                TransactionalPageOutput tran = trans[i];
-                if (tran != null) {
-                    PageOutput filtered = Filters.open(filterPlugins, filterTaskSources, filterSchemas, trans[i]);
-                    filtereds[i] = filtered;
-                    closeThese[i].closeThis(filtered);
+            /**
+             * Records the end of a part. The input task finishes with the merged task report if it is the last part, and
+             * then the output task can commit.
+             */
+            void partFinished(TaskReport partTaskReport) {
+                synchronized (this) {
+                    if (partTaskReport != null) {
+                        taskReport = (taskReport == null ? partTaskReport : taskReport.merge(partTaskReport));
+                    }
+                    runningPartCount--;
+                    if (runningPartCount == 0) {
+                        if (!failed && taskReport != null) {
+                            inputTaskState.setTaskReport(taskReport);
+                        }
+                        inputTaskState.finish();
+                    }
                 }
+                outputTask.inputDone();
             }
-        }
 
-        public void startWorkers(ExecutorService outputExecutor) {
-            for (int i = 0; i < scatterCount; i++) {
-                PageOutput filtered = filtereds[i];
-                if (filtered != null) {
-                    outputWorkers[i] = new OutputWorker(filtered, outputExecutor);
+            void partFailed(Throwable cause) {
+                synchronized (this) {
+                    failed = true;
+                    runningPartCount--;
+                    if (runningPartCount == 0) {
+                        inputTaskState.finish();
+                    }
                 }
+                outputTask.inputFailed(cause);
             }
         }
 
+        private static class TaskPart {
+            private final int taskIndex;
+            private final InputPlugin inputPlugin;
+            private final TaskInput input;
+            private boolean finished;  // guarded by this
+
+            TaskPart(int taskIndex, InputPlugin inputPlugin, TaskInput input) {
+                this.taskIndex = taskIndex;
+                this.inputPlugin = inputPlugin;
+                this.input = input;
+            }
+
+            synchronized boolean addPartIfRunning() {
+                if (finished) {
+                    return false;
+                }
+                input.addPart();
+                return true;
+            }
+
+            synchronized void finish() {
+                finished = true;
+            }
+        }
+
+        private final int queueSize;
+        private final ExecutorService executor;
+        private final ExecutorService outputExecutor;
+        private final PageQueueStats queueStats = new PageQueueStats();
+        private final AtomicInteger pendingTaskCount = new AtomicInteger();
+        private final AtomicInteger splitCount = new AtomicInteger();
+        private final GatherOutputTask[] outputTasks;  // guarded by this
+        private final List<TaskPart> runningParts = new ArrayList<>();  // guarded by this, in order of start
+
+        public WorkStealingExecutor(int maxThreads, int taskCount, int queueSize) {
+            super(taskCount, taskCount);
+            this.queueSize = queueSize;
+            this.executor = new ForkJoinPool(maxThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("embulk-work-stealing-executor-" + thread.getPoolIndex());
+                        return thread;
+                    }
+                }, null, true);
+            this.outputExecutor = java.util.concurrent.Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-output-executor-%d")
+                            .setDaemon(true)
+                            .build());
+            this.outputTasks = new GatherOutputTask[taskCount];
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+            outputExecutor.shutdown();
+        }
+
+        public PageQueueStats getQueueStats() {
+            return queueStats;
+        }
+
+        @Override
+        protected void showExecutorStats() {
+            logger.info("Work stealing: {} splits of running tasks, queues: {}", splitCount.get(), queueStats);
+        }
+
+        @Override
+        protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
+            if (state.getOutputTaskState(taskIndex).isCommitted()) {
+                logger.warn("Skipped resumed task {}", taskIndex);
+                return null;  // resumed
+            }
+
+            pendingTaskCount.incrementAndGet();
+            return executor.submit(new Callable<Throwable>() {
+                    public Throwable call() {
+                        pendingTaskCount.decrementAndGet();
+                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                            runTask(Exec.session(), task, state, taskIndex);
+                        }
+                        // this thread is idle if no task is waiting
+                        while (pendingTaskCount.get() == 0) {
+                            if (!stealAndRun(Exec.session(), task)) {
+                                break;
+                            }
+                        }
+                        return null;
+                    }
+                });
+        }
+
+        private void runTask(ExecSession exec, ProcessTask task, ProcessState state, int taskIndex) {
+            InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+            GatherOutputTask outputTask = new GatherOutputTask(exec, task, state, taskIndex,
+                                                               new GatherPageQueue(queueSize, 1), outputExecutor);
+            synchronized (this) {
+                outputTasks[taskIndex] = outputTask;
+            }
+
+            state.getInputTaskState(taskIndex).start();
+            TaskInput input = new TaskInput(state.getInputTaskState(taskIndex), outputTask);
+            TaskReport inputTaskReport = runPart(new TaskPart(taskIndex, inputPlugin, input), task.getInputTaskSource(),
+                                                 taskIndex, task.getInputSchema());
+            if (inputTaskReport == null) {
+                inputTaskReport = exec.newTaskReport();
+            }
+            input.partFinished(inputTaskReport);
+        }
+
+        /**
+         * Splits a running part of a task, and runs the remainder. Returns false if no running part can be split.
+         */
+        private boolean stealAndRun(ExecSession exec, ProcessTask task) {
+            List<TaskPart> candidates;
+            synchronized (this) {
+                candidates = new ArrayList<>(runningParts);
+            }
+            for (TaskPart victim : candidates) {
+                // The task of the victim doesn't finish until the remainder finishes.
+                if (!victim.addPartIfRunning()) {
+                    continue;
+                }
+                Optional<TaskSource> remainder;
+                try {
+                    remainder = victim.inputPlugin.splitRemainder();
+                } catch (RuntimeException ex) {
+                    victim.input.partFinished(null);
+                    throw ex;
+                }
+                if (!remainder.isPresent()) {
+                    victim.input.partFinished(null);
+                    continue;
+                }
+
+                splitCount.incrementAndGet();
+                logger.info("Split a remainder of task {} to run on an idle thread", victim.taskIndex);
+                InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+                TaskReport partTaskReport;
+                try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d-part", victim.taskIndex))) {
+                    partTaskReport = runPart(new TaskPart(victim.taskIndex, inputPlugin, victim.input), remainder.get(), 0,
+                                             task.getInputSchema());
+                } catch (RuntimeException ex) {
+                    // the output task of the victim is aborted with this exception as the cause
+                    logger.error("A remainder of task {} failed", victim.taskIndex, ex);
+                    return true;
+                }
+                victim.input.partFinished(partTaskReport);
+                return true;
+            }
+            return false;
+        }
+
+        // Runs a part of a task. The task is failed if the part fails, but partFinished is called by the caller.
+        private TaskReport runPart(TaskPart part, TaskSource inputTaskSource, int inputTaskIndex, Schema inputSchema) {
+            synchronized (this) {
+                runningParts.add(part);
+            }
+            try {
+                return part.inputPlugin.run(inputTaskSource, inputSchema, inputTaskIndex, part.input.outputTask.getInput());
+            } catch (Throwable ex) {
+                part.input.partFailed(ex);
+                throw ex;
+            } finally {
+                synchronized (this) {
+                    runningParts.remove(part);
+                }
+                part.finish();
+            }
+        }
+
+        @Override
+        protected void joinOutputTasks(ProcessState state) {
+            GatherOutputTask[] started;
+            synchronized (this) {
+                started = outputTasks.clone();
+            }
+            GatherOutputTask.joinAll(started, state, queueStats);
+        }
+    }
+
+    /**
+     * SpeculativeExecutor starts another attempt of a straggler task on an idle thread, and commits the attempt which
+     * finishes first.
+     *
+     * A task is a straggler if it has run longer than the median time of finished tasks times the multiplier, after at
+     * least half of tasks have finished. The attempt which claims the commit first commits its output, and then
+     * interrupts the thread of the other attempt, so that a hung attempt stops waiting. The other attempt also stops at
+     * its next page, and aborts its output. A task finishes after all of its attempts stop. Both
+     * attempts open an output of the same task index, and so another attempt starts only if the output plugin declares
+     * its task outputs isolated through OutputPlugin.hasIsolatedTaskOutputs.
+     */
+    public static class SpeculativeExecutor extends AbstractLocalExecutor {
+        private static final long CHECK_INTERVAL_MILLIS = 1000;
+        private static final long MIN_STRAGGLER_DELAY_NANOS = 1000L * 1000 * 1000;
+
+        /**
+         * TaskAttempts tracks attempts of a task. The first attempt is 0, and a speculative attempt is 1.
+         */
+        static class TaskAttempts {
+            private final int taskIndex;
+            private final CompletableFuture<Throwable> result = new CompletableFuture<>();
+
+            // guarded by this
+            private long startNanos;
+            private int attemptCount = 1;
+            private int runningCount = 1;
+            private int winner = -1;
+            private boolean committed;
+            private Throwable error;
+            private final Thread[] threads = new Thread[2];  // threads of running attempts
+
+            TaskAttempts(int taskIndex) {
+                this.taskIndex = taskIndex;
+            }
+
+            synchronized void start(long nanos) {
+                this.startNanos = nanos;
+            }
+
+            synchronized long getElapsedNanos(long nanos) {
+                return nanos - startNanos;
+            }
+
+            synchronized boolean isSpeculationCandidate() {
+                return runningCount > 0 && attemptCount == 1 && winner < 0;
+            }
+
+            /**
+             * Adds a speculative attempt if only the first attempt is running. Returns the attempt number, or -1.
+             */
+            synchronized int addAttempt() {
+                if (!isSpeculationCandidate()) {
+                    return -1;
+                }
+                runningCount++;
+                return attemptCount++;
+            }
+
+            /**
+             * Returns true if no other attempt has claimed the commit. The other attempt is lost then.
+             */
+            synchronized boolean claimCommit(int attempt) {
+                if (winner >= 0) {
+                    return false;
+                }
+                winner = attempt;
+                return true;
+            }
+
+            /**
+             * Gives up the claim because the commit failed, so that another attempt still running can commit.
+             */
+            synchronized void releaseCommit() {
+                winner = -1;
+            }
+
+            synchronized boolean isLost(int attempt) {
+                return winner >= 0 && winner != attempt;
+            }
+
+            synchronized void attemptStarted(int attempt, Thread thread) {
+                threads[attempt] = thread;
+            }
+
+            /**
+             * Interrupts the threads of the other attempts which are still running. Called after the attempt has committed.
+             */
+            synchronized void interruptLostAttempts(int attempt) {
+                for (int i = 0; i < threads.length; i++) {
+                    if (i != attempt && threads[i] != null) {
+                        threads[i].interrupt();
+                    }
+                }
+            }
+
+            /**
+             * Records the end of an attempt. Returns true if it is the last running attempt.
+             */
+            synchronized boolean attemptFinished(int attempt, boolean attemptCommitted, Throwable attemptError) {
+                threads[attempt] = null;  // not to interrupt the thread after it moves on to another attempt
+                runningCount--;
+                if (attemptCommitted) {
+                    committed = true;
+                } else if (attemptError != null && !isLost(attempt) && error == null) {
+                    error = attemptError;
+                }
+                return runningCount == 0;
+            }
+
+            synchronized void complete() {
+                result.complete(committed ? null : error);
+            }
+
+            Future<Throwable> getResult() {
+                return result;
+            }
+        }
+
+        private final double multiplier;
+        private final ExecutorService executor;
+        private final AtomicInteger pendingTaskCount = new AtomicInteger();
+        private final AtomicInteger speculativeCount = new AtomicInteger();
+        private final AtomicInteger speculativeCommitCount = new AtomicInteger();
+        private final List<TaskAttempts> runningTasks = new ArrayList<>();  // guarded by this
+        private final List<Long> finishedNanos = new ArrayList<>();  // guarded by this
+        private int submittedTaskCount;  // guarded by this
+        private volatile boolean speculationEnabled;
+
+        public SpeculativeExecutor(int maxThreads, int taskCount, double multiplier) {
+            super(taskCount, taskCount);
+            this.multiplier = multiplier;
+            this.executor = java.util.concurrent.Executors.newFixedThreadPool(maxThreads,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-executor-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+        }
+
+        @Override
+        protected void showExecutorStats() {
+            logger.info("Speculative execution: {} attempts started for stragglers, {} of them committed first",
+                        speculativeCount.get(), speculativeCommitCount.get());
+        }
+
+        @Override
+        public void execute(ProcessTask task, ProcessState state) {
+            OutputPlugin outputPlugin = Exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
+            speculationEnabled = outputPlugin.hasIsolatedTaskOutputs();
+            if (!speculationEnabled) {
+                logger.warn("Speculative execution is disabled because the output plugin doesn't declare isolated task outputs");
+            }
+            super.execute(task, state);
+        }
+
+        @Override
+        protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
+            if (state.getOutputTaskState(taskIndex).isCommitted()) {
+                logger.warn("Skipped resumed task {}", taskIndex);
+                return null;  // resumed
+            }
+
+            final TaskAttempts attempts = new TaskAttempts(taskIndex);
+            synchronized (this) {
+                submittedTaskCount++;
+            }
+            pendingTaskCount.incrementAndGet();
+            executor.submit(new Runnable() {
+                    public void run() {
+                        pendingTaskCount.decrementAndGet();
+                        synchronized (SpeculativeExecutor.this) {
+                            runningTasks.add(attempts);
+                            attempts.start(System.nanoTime());
+                        }
+                        state.getInputTaskState(taskIndex).start();
+                        state.getOutputTaskState(taskIndex).start();
+                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                            runAttempt(Exec.session(), task, state, attempts, 0);
+                        }
+                        // this thread is idle if no task is waiting
+                        speculateWhileIdle(Exec.session(), task, state);
+                    }
+                });
+            return attempts.getResult();
+        }
+
+        private void speculateWhileIdle(ExecSession exec, ProcessTask task, ProcessState state) {
+            while (speculationEnabled && pendingTaskCount.get() == 0) {
+                TaskAttempts straggler;
+                int attempt = -1;
+                synchronized (this) {
+                    if (!hasSpeculationCandidate()) {
+                        return;
+                    }
+                    straggler = findStraggler(System.nanoTime());
+                    if (straggler != null) {
+                        attempt = straggler.addAttempt();
+                    }
+                }
+                if (attempt < 0) {
+                    try {
+                        Thread.sleep(CHECK_INTERVAL_MILLIS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+
+                speculativeCount.incrementAndGet();
+                logger.info("Starting another attempt of task {} which runs longer than others", straggler.taskIndex);
+                try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d-speculative", straggler.taskIndex))) {
+                    runAttempt(exec, task, state, straggler, attempt);
+                }
+            }
+        }
+
+        private synchronized boolean hasSpeculationCandidate() {
+            for (TaskAttempts attempts : runningTasks) {
+                if (attempts.isSpeculationCandidate()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Returns the longest running straggler which can start another attempt, or null.
+        private synchronized TaskAttempts findStraggler(long nanos) {
+            if (finishedNanos.isEmpty() || finishedNanos.size() * 2 < submittedTaskCount) {
+                return null;
+            }
+            long median = getMedian(finishedNanos);
+            TaskAttempts straggler = null;
+            long longest = 0;
+            for (TaskAttempts attempts : runningTasks) {
+                long elapsed = attempts.getElapsedNanos(nanos);
+                if (attempts.isSpeculationCandidate() && isStraggler(elapsed, median, multiplier) && elapsed > longest) {
+                    straggler = attempts;
+                    longest = elapsed;
+                }
+            }
+            return straggler;
+        }
+
+        static long getMedian(List<Long> values) {
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            return sorted.get(sorted.size() / 2);
+        }
+
+        static boolean isStraggler(long elapsedNanos, long medianNanos, double multiplier) {
+            return elapsedNanos > medianNanos * multiplier && elapsedNanos - medianNanos > MIN_STRAGGLER_DELAY_NANOS;
+        }
+
+        private void runAttempt(ExecSession exec, ProcessTask task, ProcessState state, TaskAttempts attempts, int attempt) {
+            boolean committed = false;
+            Throwable error = null;
+            attempts.attemptStarted(attempt, Thread.currentThread());
+            try {
+                committed = processAttempt(exec, task, state, attempts, attempt);
+            } catch (Throwable ex) {
+                error = ex;
+            }
+
+            if (committed && attempt > 0) {
+                speculativeCommitCount.incrementAndGet();
+                logger.info("Another attempt of task {} has committed first", attempts.taskIndex);
+            } else if (error != null && !attempts.isLost(attempt)) {
+                logger.warn("An attempt of task {} failed", attempts.taskIndex, error);
+            }
+            boolean last = attempts.attemptFinished(attempt, committed, error);
+            if (attempts.isLost(attempt)) {
+                Thread.interrupted();  // clears the interrupt by the winner, which may come after this attempt has ended
+            }
+            if (last) {
+                synchronized (this) {
+                    runningTasks.remove(attempts);
+                }
+                state.getInputTaskState(attempts.taskIndex).finish();
+                state.getOutputTaskState(attempts.taskIndex).finish();
+                attempts.complete();
+            }
+        }
+
+        // Returns true if this attempt has committed, or false if another attempt has committed first.
+        private boolean processAttempt(ExecSession exec, ProcessTask task, ProcessState state, final TaskAttempts attempts,
+                final int attempt) {
+            final int taskIndex = attempts.taskIndex;
+            InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+            List<FilterPlugin> filterPlugins = Filters.newFilterPlugins(exec, task.getFilterPluginTypes());
+            OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
+
+            TransactionalPageOutput tran = PluginWrappers.transactionalPageOutput(
+                    outputPlugin.open(task.getOutputTaskSource(), task.getOutputSchema(), taskIndex));
+
+            try (CloseResource closer = new CloseResource(tran)) {
+                try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
+                    final PageOutput filtered = Filters.open(filterPlugins, task.getFilterTaskSources(), task.getFilterSchemas(), tran);
+                    closer.closeThis(filtered);
+
+                    TaskReport inputTaskReport = inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex,
+                            new PageOutput() {
+                                public void add(Page page) {
+                                    if (attempts.isLost(attempt)) {
+                                        page.release();
+                                        throw new IllegalStateException("Another attempt of task " + taskIndex + " has committed");
+                                    }
+                                    filtered.add(page);
+                                }
+
+                                public void finish() {
+                                    filtered.finish();
+                                }
+
+                                public void close() {
+                                    filtered.close();
+                                }
+                            });
+
+                    if (!attempts.claimCommit(attempt)) {
+                        return false;  // the output is aborted
+                    }
+                    TaskReport outputTaskReport;
+                    try {
+                        outputTaskReport = tran.commit();
+                    } catch (Throwable ex) {
+                        attempts.releaseCommit();
+                        throw ex;
+                    }
+                    aborter.dontAbort();
+                    attempts.interruptLostAttempts(attempt);
+
+                    synchronized (this) {
+                        finishedNanos.add(attempts.getElapsedNanos(System.nanoTime()));
+                    }
+                    if (inputTaskReport == null) {
+                        inputTaskReport = exec.newTaskReport();
+                    }
+                    if (outputTaskReport == null) {
+                        outputTaskReport = exec.newTaskReport();
+                    }
+                    state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport);
+                    state.getOutputTaskState(taskIndex).setTaskReport(outputTaskReport);
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static class GatherOutputTask implements Callable<Throwable> {
+        private final ExecSession exec;
+        private final ProcessTask task;
+        private final ProcessState state;
+        private final int outputTaskIndex;
+        private final GatherPageQueue queue;
+        private final Future<Throwable> future;
+
+        public GatherOutputTask(ExecSession exec, ProcessTask task, ProcessState state, int outputTaskIndex, GatherPageQueue queue,
+                ExecutorService executor) {
+            this.exec = exec;
+            this.task = task;
+            this.state = state;
+            this.outputTaskIndex = outputTaskIndex;
+            this.queue = queue;
+            this.future = executor.submit(this);
+        }
+
+        public PageOutput getInput() {
+            return new PageOutput() {
+                public void add(Page page) {
+                    try {
+                        queue.put(page);
+                    } catch (InterruptedException ex) {
+                        throw new ExecutionInterruptedException(ex);
+                    }
+                }
+
+                public void finish() {}
+
+                public void close() {}
+            };
+        }
+
+        public void inputDone() {
+            queue.done();
+        }
+
+        /**
+         * Adds an input. It must be called while another input is running.
+         */
+        public void addInput() {
+            queue.addProducer();
+        }
+
+        public void inputFailed(Throwable cause) {
+            queue.fail(cause);
+        }
+
+        public void closeIfIncomplete() {
+            queue.closeIfIncomplete();
+        }
+
+        /**
+         * Waits until the output tasks finish, and sets their exceptions to the state. Called after all inputs finish.
+         */
+        public static void joinAll(GatherOutputTask[] outputTasks, ProcessState state, PageQueueStats stats) {
+            for (GatherOutputTask outputTask : outputTasks) {
+                if (outputTask != null) {
+                    // inputs which didn't run never put their pages
+                    outputTask.closeIfIncomplete();
+                }
+            }
+            for (int i = 0; i < outputTasks.length; i++) {
+                if (outputTasks[i] == null) {
+                    continue;
+                }
+                try {
+                    state.getOutputTaskState(i).setException(outputTasks[i].join(stats));
+                } catch (InterruptedException ex) {
+                    state.getOutputTaskState(i).setException(new ExecutionInterruptedException(ex));
+                }
+            }
+        }
+
+        public Throwable join(PageQueueStats stats) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException ex) {
+                return ex.getCause();
+            } finally {
+                if (future.isDone()) {
+                    queue.addStatsTo(stats);
+                }
+            }
+        }
+
+        @Override
+        public Throwable call() {
+            try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("output-%04d", outputTaskIndex))) {
+                runOutputTask();
+                return null;
+            } finally {
+                queue.close();  // stops input tasks which are still putting pages
+                state.getOutputTaskState(outputTaskIndex).finish();
+            }
+        }
+
+        private void runOutputTask() {
+            List<FilterPlugin> filterPlugins = Filters.newFilterPlugins(exec, task.getFilterPluginTypes());
+            OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
+
+            TransactionalPageOutput tran = PluginWrappers.transactionalPageOutput(
+                    outputPlugin.open(task.getOutputTaskSource(), task.getOutputSchema(), outputTaskIndex));
+
+            state.getOutputTaskState(outputTaskIndex).start();
+            try (CloseResource closer = new CloseResource(tran)) {
+                try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
+                    PageOutput filtered = Filters.open(filterPlugins, task.getFilterTaskSources(), task.getFilterSchemas(), tran);
+                    closer.closeThis(filtered);
+
+                    while (true) {
+                        Page page;
+                        try {
+                            page = queue.take();
+                        } catch (InterruptedException ex) {
+                            throw new ExecutionInterruptedException(ex);
+                        }
+                        if (page == null) {
+                            break;
+                        }
+                        filtered.add(page);
+                    }
+                    filtered.finish();
+
+                    TaskReport outputTaskReport = tran.commit();
+                    aborter.dontAbort();
+                    if (outputTaskReport == null) {
+                        outputTaskReport = exec.newTaskReport();
+                    }
+                    state.getOutputTaskState(outputTaskIndex).setTaskReport(outputTaskReport);
+                }
+            }
+        }
+    }
+
+    private static class ScatterTransactionalPageOutput implements TransactionalPageOutput {
+        private static class OutputWorker implements Callable<Throwable> {
+            private final PageOutput output;
+            private final PageQueue queue;
+            private final PageQueueStats stats;
+            private final Future<Throwable> future;
+
+            // written by the output thread, and read after join
+            private long pageCount;
+            private long byteCount;
+            private long outputNanos;
+
+            public OutputWorker(PageOutput output, ExecutorService executor, int queueSize, PageQueueStats stats) {
+                this.output = output;
+                this.queue = new PageQueue(queueSize);
+                this.stats = stats;
+                this.future = executor.submit(this);
+            }
+
+            public void done() {
+                queue.done();
+            }
+
+            public void add(Page page) throws InterruptedException {
+                queue.put(page);
+            }
+
+            public int getQueuedPageCount() {
+                return queue.size();
+            }
+
+            // true if the output thread has stopped, for example by an error, and drops pages added to it
+            public boolean isStopped() {
+                return queue.isClosed();
+            }
+
+            public Throwable join() throws InterruptedException {
+                try {
+                    return future.get();
+                } catch (ExecutionException ex) {
+                    return ex.getCause();
+                } finally {
+                    if (future.isDone()) {
+                        queue.releaseRemaining();
+                        queue.addStatsTo(stats);
+                    }
+                }
+            }
+
+            @Override
+            public Throwable call() throws InterruptedException {
+                try {
+                    while (true) {
+                        Page page = queue.take();
+                        if (page == null) {
+                            return null;
+                        }
+                        int pageBytes = page.buffer().limit();
+                        long startedAt = System.nanoTime();
+                        output.add(page);
+                        outputNanos += System.nanoTime() - startedAt;
+                        pageCount++;
+                        byteCount += pageBytes;
+                    }
+                } finally {
+                    queue.close();
+                }
+            }
+
+            public void showThroughput(int outputTaskIndex) {
+                double seconds = outputNanos / 1e9;
+                logger.info(String.format("Output task %d: %d pages, %d bytes in %.3f seconds (%.2f MB/s)",
+                                          outputTaskIndex, pageCount, byteCount, seconds, seconds > 0 ? byteCount / seconds / 1e6 : 0.0));
+            }
+        }
+
+        private final ProcessState state;
+        private final int taskIndex;
+        private final int scatterCount;
+        private final ScatterRouting routing;
+
+        private final TransactionalPageOutput[] trans;
+        private final PageOutput[] filtereds;
+        private final CloseResource[] closeThese;
+
+        private final OutputWorker[] outputWorkers;
+        private PagePartitioner partitioner;
+
+        private long pageCount;
+
+        public ScatterTransactionalPageOutput(ProcessState state, int taskIndex, int scatterCount, ScatterRouting routing) {
+            this.state = state;
+            this.taskIndex = taskIndex;
+            this.scatterCount = scatterCount;
+            this.routing = routing;
+
+            this.trans = new TransactionalPageOutput[scatterCount];
+            this.filtereds = new PageOutput[scatterCount];
+            this.closeThese = new CloseResource[scatterCount];
+            for (int i = 0; i < scatterCount; i++) {
+                closeThese[i] = new CloseResource();
+            }
+            this.outputWorkers = new OutputWorker[scatterCount];
+        }
+
+        public void openOutputs(OutputPlugin outputPlugin, Schema outputSchema, TaskSource outputTaskSource) {
+            for (int i = 0; i < scatterCount; i++) {
+                int outputTaskIndex = taskIndex * scatterCount + i;
+                if (!state.getOutputTaskState(outputTaskIndex).isCommitted()) {
+                    TransactionalPageOutput tran = PluginWrappers.transactionalPageOutput(
+                            outputPlugin.open(outputTaskSource, outputSchema, outputTaskIndex));
+                    trans[i] = tran;
+                    closeThese[i].closeThis(tran);
+                }
+            }
+        }
+
+        public void openFilters(List<FilterPlugin> filterPlugins, List<Schema> filterSchemas, List<TaskSource> filterTaskSources) {
+            for (int i = 0; i < scatterCount; i++) {
+                TransactionalPageOutput tran = trans[i];
+                if (tran != null) {
+                    PageOutput filtered = Filters.open(filterPlugins, filterTaskSources, filterSchemas, trans[i]);
+                    filtereds[i] = filtered;
+                    closeThese[i].closeThis(filtered);
+                }
+            }
+        }
+
+        public void startWorkers(ExecutorService outputExecutor, int queueSize, PageQueueStats queueStats) {
+            for (int i = 0; i < scatterCount; i++) {
+                PageOutput filtered = filtereds[i];
+                if (filtered != null) {
+                    outputWorkers[i] = new OutputWorker(filtered, outputExecutor, queueSize, queueStats);
+                }
+            }
+        }
+
+        public void startPartitioner(BufferAllocator allocator, Schema inputSchema, List<String> partitionKeys) {
+            PageOutput[] outputs = new PageOutput[scatterCount];
+            for (int i = 0; i < scatterCount; i++) {
+                final int scatterIndex = i;
+                outputs[i] = new PageOutput() {
+                    public void add(Page page) {
+                        addToWorker(outputWorkers[scatterIndex], page);
+                    }
+
+                    public void finish() {}
+
+                    public void close() {}
+                };
+            }
+            partitioner = new PagePartitioner(allocator, inputSchema, partitionKeys, outputs);
+        }
+
         public void add(Page page) {
-            OutputWorker worker = outputWorkers[(int) (pageCount % scatterCount)];
+            if (partitioner != null) {
+                partitioner.add(page);
+                return;
+            }
+
+            OutputWorker worker;
+            if (routing == ScatterRouting.LEAST_LOADED) {
+                worker = getLeastLoadedWorker();
+            } else {
+                worker = outputWorkers[(int) (pageCount % scatterCount)];
+            }
+            addToWorker(worker, page);
+            pageCount++;
+        }
+
+        private void addToWorker(OutputWorker worker, Page page) {
             if (worker != null) {
                 try {
                     worker.add(page);
@@ -435,10 +1701,34 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                     throw new RuntimeException(ex);
                 }
             }
-            pageCount++;
+        }
+
+        // Starts looking from the next worker of the last page so that idle workers receive pages in turn.
+        // Stopped workers are skipped because their queues look empty forever.
+        private OutputWorker getLeastLoadedWorker() {
+            OutputWorker leastLoaded = null;
+            int leastQueued = Integer.MAX_VALUE;
+            for (int i = 0; i < scatterCount; i++) {
+                OutputWorker worker = outputWorkers[(int) ((pageCount + i) % scatterCount)];
+                if (worker == null || worker.isStopped()) {
+                    continue;
+                }
+                int queued = worker.getQueuedPageCount();
+                if (queued < leastQueued) {
+                    leastLoaded = worker;
+                    leastQueued = queued;
+                    if (queued == 0) {
+                        break;
+                    }
+                }
+            }
+            return leastLoaded;
         }
 
         public void finish() {
+            if (partitioner != null) {
+                partitioner.finish();
+            }
             completeWorkers();
             for (int i = 0; i < scatterCount; i++) {
                 if (filtereds[i] != null) {
@@ -448,6 +1738,10 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
 
         public void close() {
+            if (partitioner != null) {
+                partitioner.close();
+                partitioner = null;
+            }
             completeWorkers();
             for (int i = 0; i < scatterCount; i++) {
                 closeThese[i].close();
@@ -483,11 +1777,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             for (int i = 0; i < scatterCount; i++) {
                 OutputWorker worker = outputWorkers[i];
                 if (worker != null) {
-                    try {
-                        worker.done();
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                    worker.done();
                     Throwable error = null;
                     try {
                         error = worker.join();
@@ -504,6 +1794,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                         }
                         throw new RuntimeException(error);
                     }
+                    worker.showThroughput(taskIndex * scatterCount + i);
                 }
             }
         }
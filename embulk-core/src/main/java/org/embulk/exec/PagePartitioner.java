@@ -0,0 +1,135 @@
+package org.embulk.exec;
+
+import java.util.List;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.Column;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageLayout;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+/**
+ * PagePartitioner re-packs records of pages into pages of partitions chosen by hashes of key columns.
+ *
+ * Records with the same values of the key columns always go to the same partition. Hashes are computed from
+ * the values, not from identities of objects, so that the partition of a key is stable across tasks and runs.
+ */
+final class PagePartitioner implements AutoCloseable {
+    private final int[] keyColumnIndexes;
+    private final Type[] types;
+    private final PageReader reader;
+    private final PageBuilder[] builders;
+
+    PagePartitioner(BufferAllocator allocator, Schema schema, List<String> keyColumnNames, PageOutput[] outputs) {
+        this.keyColumnIndexes = lookupKeyColumns(schema, keyColumnNames);
+        this.types = new Type[schema.getColumnCount()];
+        for (Column column : schema.getColumns()) {
+            types[column.getIndex()] = column.getType();
+        }
+        this.reader = new PageReader(schema);
+        this.builders = new PageBuilder[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            // every column is set once per record
+            builders[i] = new PageBuilder(allocator, schema, outputs[i], PageLayout.ROW, true);
+        }
+    }
+
+    /**
+     * Returns the indexes of the key columns, or throws SchemaConfigException if a column is not in the schema.
+     */
+    static int[] lookupKeyColumns(Schema schema, List<String> keyColumnNames) {
+        int[] indexes = new int[keyColumnNames.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = schema.lookupColumn(keyColumnNames.get(i)).getIndex();
+        }
+        return indexes;
+    }
+
+    void add(Page page) {
+        reader.setPage(page);
+        while (reader.nextRecord()) {
+            copyRecord(builders[getPartition(hashKeys(), builders.length)]);
+        }
+    }
+
+    void finish() {
+        for (PageBuilder builder : builders) {
+            builder.finish();
+        }
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+        for (PageBuilder builder : builders) {
+            builder.close();
+        }
+    }
+
+    static int getPartition(int hash, int partitionCount) {
+        // spreads higher bits as HashMap does, because hashes of small numbers differ only in lower bits
+        return Math.floorMod(hash ^ (hash >>> 16), partitionCount);
+    }
+
+    private int hashKeys() {
+        int hash = 1;
+        for (int columnIndex : keyColumnIndexes) {
+            hash = hash * 31 + hashValue(columnIndex);
+        }
+        return hash;
+    }
+
+    private int hashValue(int columnIndex) {
+        if (reader.isNull(columnIndex)) {
+            return 0;
+        }
+        Type type = types[columnIndex];
+        if (type.equals(Types.BOOLEAN)) {
+            return Boolean.hashCode(reader.getBoolean(columnIndex));
+        } else if (type.equals(Types.LONG)) {
+            return Long.hashCode(reader.getLong(columnIndex));
+        } else if (type.equals(Types.DOUBLE)) {
+            return Double.hashCode(reader.getDouble(columnIndex));
+        } else if (type.equals(Types.STRING)) {
+            return reader.getString(columnIndex).hashCode();
+        } else if (type.equals(Types.TIMESTAMP)) {
+            Timestamp timestamp = reader.getTimestamp(columnIndex);
+            return Long.hashCode(timestamp.getEpochSecond()) * 31 + timestamp.getNano();
+        } else if (type.equals(Types.JSON)) {
+            return reader.getJsonAsMsgpackBytes(columnIndex).hashCode();
+        } else {
+            throw new IllegalStateException("Unsupported type " + type.getName());
+        }
+    }
+
+    private void copyRecord(PageBuilder builder) {
+        for (int i = 0; i < types.length; i++) {
+            if (reader.isNull(i)) {
+                builder.setNull(i);
+                continue;
+            }
+            Type type = types[i];
+            if (type.equals(Types.BOOLEAN)) {
+                builder.setBoolean(i, reader.getBoolean(i));
+            } else if (type.equals(Types.LONG)) {
+                builder.setLong(i, reader.getLong(i));
+            } else if (type.equals(Types.DOUBLE)) {
+                builder.setDouble(i, reader.getDouble(i));
+            } else if (type.equals(Types.STRING)) {
+                builder.setString(i, reader.getString(i));
+            } else if (type.equals(Types.TIMESTAMP)) {
+                builder.setTimestamp(i, reader.getTimestamp(i));
+            } else if (type.equals(Types.JSON)) {
+                builder.setJsonAsMsgpackBytes(i, reader.getJsonAsMsgpackBytes(i));
+            } else {
+                throw new IllegalStateException("Unsupported type " + type.getName());
+            }
+        }
+        builder.addRecord();
+    }
+}
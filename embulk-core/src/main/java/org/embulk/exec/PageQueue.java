@@ -0,0 +1,182 @@
+package org.embulk.exec;
+
+import java.util.concurrent.locks.LockSupport;
+import org.embulk.spi.Page;
+
+/**
+ * PageQueue is a bounded ring buffer of pages from one producer thread to one consumer thread.
+ *
+ * A thread which finds the ring full (producer) or empty (consumer) spins for a while, and then parks until the other
+ * thread unparks it. The consumer may stop taking pages at any time by close(). Pages which are not taken are
+ * released by releaseRemaining() after the consumer stops.
+ */
+final class PageQueue {
+    private static final int SPIN_COUNT = 100;
+
+    private final Page[] ring;
+
+    private volatile long head;  // index of the next page to take, written only by the consumer
+    private volatile long tail;  // index of the next page to put, written only by the producer
+    private volatile boolean done;
+    private volatile boolean closed;
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    // written only by the producer
+    private long putCount;
+    private long fullCount;
+    private long occupancySum;
+    private int peakOccupancy;
+
+    // written only by the consumer
+    private long emptyCount;
+
+    PageQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of a page queue must be positive: " + capacity);
+        }
+        this.ring = new Page[capacity];
+    }
+
+    int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Returns the number of pages put and not taken yet.
+     */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Puts a page, waiting until the ring has a space. The page is released if the consumer is closed.
+     */
+    void put(Page page) throws InterruptedException {
+        long index = tail;
+        if (index - head >= ring.length) {
+            fullCount++;
+            int spins = 0;
+            while (index - head >= ring.length && !closed) {
+                if (spins < SPIN_COUNT) {
+                    spins++;
+                    Thread.yield();
+                    continue;
+                }
+                parkedProducer = Thread.currentThread();
+                if (index - head >= ring.length && !closed) {  // check again not to miss unpark
+                    LockSupport.park(this);
+                }
+                parkedProducer = null;
+                if (Thread.interrupted()) {
+                    page.release();
+                    throw new InterruptedException();
+                }
+            }
+        }
+        if (closed) {
+            page.release();
+            return;
+        }
+
+        int occupancy = (int) (index - head) + 1;
+        occupancySum += occupancy;
+        peakOccupancy = Math.max(peakOccupancy, occupancy);
+        putCount++;
+
+        ring[(int) (index % ring.length)] = page;
+        tail = index + 1;
+        unpark(parkedConsumer);
+    }
+
+    /**
+     * Tells the consumer that no more pages are put. The consumer takes the remaining pages before it finishes.
+     */
+    void done() {
+        done = true;
+        unpark(parkedConsumer);
+    }
+
+    /**
+     * Takes a page, waiting until a page is put. Returns null if done is called and all pages are taken.
+     */
+    Page take() throws InterruptedException {
+        long index = head;
+        if (index == tail) {
+            int spins = 0;
+            while (index == tail) {
+                if (done) {
+                    if (index == tail) {  // pages may be put before done
+                        return null;
+                    }
+                    break;
+                }
+                if (spins == 0) {
+                    emptyCount++;
+                }
+                if (spins < SPIN_COUNT) {
+                    spins++;
+                    Thread.yield();
+                    continue;
+                }
+                parkedConsumer = Thread.currentThread();
+                if (index == tail && !done) {  // check again not to miss unpark
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        int slot = (int) (index % ring.length);
+        Page page = ring[slot];
+        ring[slot] = null;
+        head = index + 1;
+        unpark(parkedProducer);
+        return page;
+    }
+
+    /**
+     * Tells the producer that the consumer doesn't take pages anymore. Called by the consumer.
+     */
+    void close() {
+        closed = true;
+        unpark(parkedProducer);
+    }
+
+    /**
+     * Returns true if the consumer has stopped taking pages.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases pages which are not taken. Called after the consumer has stopped.
+     */
+    void releaseRemaining() {
+        for (long index = head; index < tail; index++) {
+            int slot = (int) (index % ring.length);
+            if (ring[slot] != null) {
+                ring[slot].release();
+                ring[slot] = null;
+            }
+        }
+        head = tail;
+    }
+
+    /**
+     * Adds the statistics of this queue. Called after both the producer and the consumer have stopped.
+     */
+    void addStatsTo(PageQueueStats stats) {
+        stats.add(ring.length, putCount, fullCount, emptyCount, occupancySum, peakOccupancy);
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
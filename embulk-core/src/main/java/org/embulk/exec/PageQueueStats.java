@@ -0,0 +1,72 @@
+package org.embulk.exec;
+
+/**
+ * PageQueueStats sums up how full the queues of pages from input threads to output threads have been.
+ */
+public final class PageQueueStats {
+    private int queueCount;
+    private int capacity;
+    private long pageCount;
+    private long fullCount;
+    private long emptyCount;
+    private long occupancySum;
+    private int peakOccupancy;
+
+    synchronized void add(int capacity, long pageCount, long fullCount, long emptyCount, long occupancySum, int peakOccupancy) {
+        this.queueCount++;
+        this.capacity = Math.max(this.capacity, capacity);
+        this.pageCount += pageCount;
+        this.fullCount += fullCount;
+        this.emptyCount += emptyCount;
+        this.occupancySum += occupancySum;
+        this.peakOccupancy = Math.max(this.peakOccupancy, peakOccupancy);
+    }
+
+    /**
+     * Returns the number of queues which have finished.
+     */
+    public synchronized int getQueueCount() {
+        return queueCount;
+    }
+
+    /**
+     * Returns the number of pages put into the queues.
+     */
+    public synchronized long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the number of times input threads have found a queue full and waited.
+     */
+    public synchronized long getFullCount() {
+        return fullCount;
+    }
+
+    /**
+     * Returns the number of times output threads have found a queue empty and waited.
+     */
+    public synchronized long getEmptyCount() {
+        return emptyCount;
+    }
+
+    /**
+     * Returns the average number of pages in a queue when a page is put, including the page.
+     */
+    public synchronized double getAverageOccupancy() {
+        return pageCount > 0 ? (double) occupancySum / pageCount : 0.0;
+    }
+
+    /**
+     * Returns the maximum number of pages in a queue.
+     */
+    public synchronized int getPeakOccupancy() {
+        return peakOccupancy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("{queues: %d, pages: %d, average occupancy: %.2f / %d, peak occupancy: %d, full: %d, empty: %d}",
+                             queueCount, pageCount, getAverageOccupancy(), capacity, peakOccupancy, fullCount, emptyCount);
+    }
+}
@@ -0,0 +1,148 @@
+package org.embulk.exec;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+
+/**
+ * PipelinedPageOutput passes pages to the downstream PageOutput on another thread through a PageQueue.
+ *
+ * The downstream receives add and finish on the stage thread, and close on the thread which closes this output
+ * after the stage thread has stopped. An exception thrown by the downstream is rethrown from add, finish or
+ * complete of this output.
+ */
+final class PipelinedPageOutput implements PageOutput {
+    private final PageOutput downstream;
+    private final PageQueue queue;
+    private final PageQueueStats stats;
+    private final String threadName;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Future<Void> future;
+
+    private volatile boolean finishRequested;
+    private volatile boolean aborted;
+    private Thread stageThread;  // guarded by this
+    private boolean completed;
+
+    PipelinedPageOutput(PageOutput downstream, ExecutorService executor, int queueSize, PageQueueStats stats, String threadName) {
+        this.downstream = downstream;
+        this.queue = new PageQueue(queueSize);
+        this.stats = stats;
+        this.threadName = threadName;
+        this.future = executor.submit(new Callable<Void>() {
+                public Void call() throws InterruptedException {
+                    synchronized (PipelinedPageOutput.this) {
+                        stageThread = Thread.currentThread();
+                    }
+                    try (SetCurrentThreadName dontCare = new SetCurrentThreadName(PipelinedPageOutput.this.threadName)) {
+                        runStage();
+                        return null;
+                    } finally {
+                        synchronized (PipelinedPageOutput.this) {
+                            stageThread = null;
+                            Thread.interrupted();  // don't leave an interruption by abort to the next task of the pooled thread
+                        }
+                        queue.close();
+                        stopped.countDown();
+                    }
+                }
+            });
+    }
+
+    private void runStage() throws InterruptedException {
+        while (!aborted) {
+            Page page = queue.take();
+            if (page == null) {
+                if (finishRequested) {
+                    downstream.finish();
+                }
+                return;
+            }
+            downstream.add(page);
+        }
+    }
+
+    @Override
+    public void add(Page page) {
+        try {
+            queue.put(page);
+        } catch (InterruptedException ex) {
+            throw new ExecutionInterruptedException(ex);
+        }
+        if (future.isDone()) {
+            // the stage has failed, and the page is released by the queue
+            complete();
+        }
+    }
+
+    @Override
+    public void finish() {
+        finishRequested = true;
+        complete();
+    }
+
+    /**
+     * Waits until the stage thread passes all pages to the downstream, and rethrows its exception if any.
+     */
+    void complete() {
+        if (completed) {
+            return;
+        }
+        queue.done();
+        Throwable error;
+        try {
+            future.get();
+            error = null;
+        } catch (ExecutionException ex) {
+            error = ex.getCause();
+        } catch (InterruptedException ex) {
+            throw new ExecutionInterruptedException(ex);
+        }
+        completed = true;
+        queue.releaseRemaining();  // left if the stage has failed
+        queue.addStatsTo(stats);
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Stops the stage thread without passing remaining pages to the downstream, and waits until it stops.
+     */
+    void abort() {
+        if (completed) {
+            return;
+        }
+        aborted = true;
+        queue.done();
+        synchronized (this) {
+            if (stageThread != null) {
+                stageThread.interrupt();
+            }
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        queue.releaseRemaining();
+        completed = true;
+        queue.addStatsTo(stats);
+    }
+
+    @Override
+    public void close() {
+        abort();
+        downstream.close();
+    }
+}
@@ -3,6 +3,7 @@ package org.embulk.exec;
 import com.google.inject.Inject;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.ByteBuffer;
 import org.embulk.config.ConfigSource;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
@@ -11,13 +12,40 @@ import org.embulk.spi.unit.ByteSize;
 public class PooledBufferAllocator implements BufferAllocator {
     private static final int DEFAULT_PAGE_SIZE = 32 * 1024;
 
+    private static final int DEFAULT_MAX_PAGE_SIZE_RATIO = 8;
+
+    // Allocations go over buffer_memory_limit after waiting for this time not to deadlock.
+    private static final long MAX_BUFFER_MEMORY_WAIT_MILLIS = 10000;
+
     private final PooledByteBufAllocator nettyBuffer;
     private final int pageSize;
+    private final int maxPageSize;
+    private final boolean directMemoryForPages;
+    private final BufferMemoryBudget budget;
+    private final boolean budgetLimited;
 
     @Inject
     public PooledBufferAllocator(@ForSystemConfig ConfigSource systemConfig, org.slf4j.ILoggerFactory factory) {
-        this.nettyBuffer = new PooledByteBufAllocator(false);
         this.pageSize = systemConfig.get(ByteSize.class, "page_size", new ByteSize(DEFAULT_PAGE_SIZE)).getBytesInt();
+        if (systemConfig.get(Boolean.class, "adaptive_page_size", true)) {
+            this.maxPageSize = Math.max(pageSize,
+                    systemConfig.get(ByteSize.class, "max_page_size", new ByteSize(pageSize * (long) DEFAULT_MAX_PAGE_SIZE_RATIO)).getBytesInt());
+        } else {
+            this.maxPageSize = pageSize;  // pages are page_size unless a record is larger
+        }
+        this.directMemoryForPages = systemConfig.get(Boolean.class, "use_direct_memory_for_pages", false);
+        this.nettyBuffer = new PooledByteBufAllocator(directMemoryForPages);
+        if (directMemoryForPages) {
+            factory.getLogger(PooledBufferAllocator.class.getName()).info("Pages are allocated in direct memory");
+        }
+
+        ByteSize limit = systemConfig.get(ByteSize.class, "buffer_memory_limit", null);
+        ByteSize limitPerThread = systemConfig.get(ByteSize.class, "buffer_memory_limit_per_thread", null);
+        this.budget = new BufferMemoryBudget(
+                limit != null ? limit.getBytes() : Long.MAX_VALUE,
+                limitPerThread != null ? limitPerThread.getBytes() : Long.MAX_VALUE,
+                MAX_BUFFER_MEMORY_WAIT_MILLIS);
+        this.budgetLimited = budget.isLimited();
     }
 
     public Buffer allocate() {
@@ -25,20 +53,69 @@ public class PooledBufferAllocator implements BufferAllocator {
     }
 
     public Buffer allocate(int minimumCapacity) {
+        int size = getBufferSize(minimumCapacity);
+        return new NettyByteBufBuffer(nettyBuffer.heapBuffer(size), acquire(size));
+    }
+
+    @Override
+    public Buffer allocatePage(int minimumCapacity) {
+        if (directMemoryForPages) {
+            int size = getBufferSize(minimumCapacity);
+            BufferMemoryBudget.Usage usage = acquire(size);
+            ByteBuf buf = nettyBuffer.directBuffer(size);
+            return new NettyByteBufBuffer(buf, buf.nioBuffer(0, buf.capacity()), usage);
+        }
+        return allocate(minimumCapacity);
+    }
+
+    @Override
+    public Buffer allocatePage(int minimumCapacity, int preferredCapacity) {
+        // pages adapt to records from page_size up to max_page_size
+        return allocatePage(Math.max(minimumCapacity, Math.min(preferredCapacity, maxPageSize)));
+    }
+
+    // buffers don't go through the synchronized budget unless a limit is configured
+    private BufferMemoryBudget.Usage acquire(int size) {
+        return budgetLimited ? budget.acquire(size) : null;
+    }
+
+    /**
+     * Returns the bytes of buffers allocated by this allocator if buffer memory is limited.
+     */
+    public BufferMemoryStats getStats() {
+        return budget.getStats();
+    }
+
+    /**
+     * Returns true if buffer_memory_limit or buffer_memory_limit_per_thread is configured.
+     */
+    public boolean isBufferMemoryLimited() {
+        return budget.isLimited();
+    }
+
+    private int getBufferSize(int minimumCapacity) {
         int size = this.pageSize;
         while (size < minimumCapacity) {
             size *= 2;
         }
-        return new NettyByteBufBuffer(nettyBuffer.buffer(size));
+        return size;
     }
 
-    private static class NettyByteBufBuffer extends Buffer {
+    private class NettyByteBufBuffer extends Buffer {
         private ByteBuf buf;
         private BufferReleasedBeforeAt doubleFreeCheck;
+        private final BufferMemoryBudget.Usage usage;
 
-        public NettyByteBufBuffer(ByteBuf buf) {
+        public NettyByteBufBuffer(ByteBuf buf, BufferMemoryBudget.Usage usage) {
             super(buf.array(), buf.arrayOffset(), buf.capacity());
             this.buf = buf;
+            this.usage = usage;
+        }
+
+        public NettyByteBufBuffer(ByteBuf buf, ByteBuffer directBuffer, BufferMemoryBudget.Usage usage) {
+            super(directBuffer);
+            this.buf = buf;
+            this.usage = usage;
         }
 
         public void release() {
@@ -47,6 +124,9 @@ public class PooledBufferAllocator implements BufferAllocator {
             }
             if (buf != null) {
                 buf.release();
+                if (usage != null) {
+                    budget.release(usage, capacity());
+                }
                 buf = null;
                 doubleFreeCheck = new BufferReleasedBeforeAt();
             }
@@ -3,6 +3,7 @@ package org.embulk.plugin.compat;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Optional;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
@@ -86,4 +87,14 @@ public class InputPluginWrapper implements InputPlugin {
     public ConfigDiff guess(ConfigSource config) {
         return object.guess(config);
     }
+
+    @Override
+    public Optional<long[]> hintOfTaskCosts(TaskSource taskSource, int taskCount) {
+        return object.hintOfTaskCosts(taskSource, taskCount);
+    }
+
+    @Override
+    public Optional<TaskSource> splitRemainder() {
+        return object.splitRemainder();
+    }
 }
@@ -0,0 +1,36 @@
+package org.embulk.spi;
+
+/**
+ * AdaptivePageSize chooses a preferred capacity of pages from what PageBuilder has measured on the pages built so far.
+ *
+ * It prefers pages which hold TARGET_RECORDS_PER_PAGE records so that per-page overhead, such as hand-offs between
+ * threads, PageReader#setPage and flushes, is amortized over records. The BufferAllocator bounds the size finally.
+ *
+ * The size depends only on the bytes of the records, not on timing, so that the same records are cut into the same
+ * pages in every run. A resumed execution of page scattering relies on it to route the same pages to each output task.
+ */
+final class AdaptivePageSize {
+    static final int TARGET_RECORDS_PER_PAGE = 512;
+
+    private double bytesPerRecord;  // moving average, or 0 if not measured yet
+
+    void pageFinished(int pageBytes, int recordCount) {
+        if (recordCount > 0) {
+            bytesPerRecord = average(bytesPerRecord, (double) pageBytes / recordCount);
+        }
+    }
+
+    /**
+     * Returns the preferred capacity of the next page, or 0 if nothing is measured yet.
+     */
+    int getPreferredCapacity() {
+        return (int) Math.min(bytesPerRecord * TARGET_RECORDS_PER_PAGE, Integer.MAX_VALUE);
+    }
+
+    private static double average(double average, double sample) {
+        if (average == 0) {
+            return sample;
+        }
+        return average * 0.75 + sample * 0.25;
+    }
+}
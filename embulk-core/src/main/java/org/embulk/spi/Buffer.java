@@ -1,18 +1,29 @@
 package org.embulk.spi;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+/**
+ * Buffer is a byte sequence backed by either a byte[] or a ByteBuffer.
+ *
+ * A Buffer backed by a direct ByteBuffer has no array. Use hasArray to check it before calling array.
+ * Buffers for file data are backed by an array unless a file input plugin wraps memory-mapped files, such as the
+ * local file input with memory_map. Buffers for pages may be backed by direct memory depending on
+ * BufferAllocator#allocatePage.
+ */
 public class Buffer {
     public static final Buffer EMPTY = Buffer.allocate(0);
 
     private final byte[] array;
+    private final ByteBuffer byteBuffer;  // null if this Buffer is backed by array
     private int offset;
     private int filled;
     private final int capacity;
 
     protected Buffer(byte[] wrap, int offset, int capacity) {
         this.array = wrap;
+        this.byteBuffer = null;
         this.offset = offset;
         this.capacity = capacity;
         this.filled = offset;
@@ -22,6 +33,19 @@ public class Buffer {
         }
     }
 
+    /**
+     * Creates a Buffer over the remaining bytes of a ByteBuffer, which may be direct.
+     *
+     * The position and the limit of the given ByteBuffer are not used after this constructor returns.
+     */
+    protected Buffer(ByteBuffer wrap) {
+        this.array = null;
+        this.byteBuffer = wrap.slice();
+        this.offset = 0;
+        this.capacity = byteBuffer.capacity();
+        this.filled = 0;
+    }
+
     public static Buffer allocate(int length) {
         return new Buffer(new byte[length], 0, length);
     }
@@ -42,11 +66,46 @@ public class Buffer {
         return new Buffer(src, offset, size).limit(size);
     }
 
+    public static Buffer wrap(ByteBuffer src) {
+        Buffer buffer = new Buffer(src);
+        return buffer.limit(buffer.capacity());
+    }
+
+    /**
+     * Returns true if this Buffer is backed by a byte[] which array returns.
+     */
+    public boolean hasArray() {
+        return array != null;
+    }
+
+    /**
+     * Returns the byte[] which backs this Buffer.
+     *
+     * @throws UnsupportedOperationException  if this Buffer is backed by direct memory
+     */
     @SuppressFBWarnings(value = "EI_EXPOSE_REP")
     public byte[] array() {
+        if (array == null) {
+            throw new UnsupportedOperationException("Buffer is not backed by an array. Use getBytes or toByteBuffer instead.");
+        }
         return array;
     }
 
+    /**
+     * Returns a ByteBuffer which shares the contents of this Buffer from offset to offset + capacity.
+     *
+     * The position of the returned ByteBuffer is 0, and its limit is the capacity of this Buffer.
+     */
+    public ByteBuffer toByteBuffer() {
+        if (array != null) {
+            return ByteBuffer.wrap(array, offset, capacity).slice();
+        }
+        ByteBuffer duplicated = byteBuffer.duplicate();
+        duplicated.position(offset);
+        duplicated.limit(offset + capacity);
+        return duplicated.slice();
+    }
+
     public int offset() {
         return offset;
     }
@@ -74,19 +133,51 @@ public class Buffer {
     }
 
     public void setBytes(int index, byte[] source, int sourceIndex, int length) {
-        System.arraycopy(source, sourceIndex, array, offset + index, length);
+        if (array != null) {
+            System.arraycopy(source, sourceIndex, array, offset + index, length);
+        } else {
+            ByteBuffer duplicated = byteBuffer.duplicate();
+            duplicated.position(offset + index);
+            duplicated.put(source, sourceIndex, length);
+        }
     }
 
     public void setBytes(int index, Buffer source, int sourceIndex, int length) {
-        setBytes(index, source.array(), source.offset() + sourceIndex, length);
+        if (source.array != null) {
+            setBytes(index, source.array, source.offset + sourceIndex, length);
+        } else {
+            source.getBytes(sourceIndex, this, index, length);
+        }
     }
 
     public void getBytes(int index, byte[] dest, int destIndex, int length) {
-        System.arraycopy(array, offset + index, dest, destIndex, length);
+        if (array != null) {
+            System.arraycopy(array, offset + index, dest, destIndex, length);
+        } else {
+            ByteBuffer duplicated = byteBuffer.duplicate();
+            duplicated.position(offset + index);
+            duplicated.get(dest, destIndex, length);
+        }
     }
 
     public void getBytes(int index, Buffer dest, int destIndex, int length) {
-        getBytes(index, dest.array(), dest.offset() + destIndex, length);
+        if (dest.array != null) {
+            getBytes(index, dest.array, dest.offset + destIndex, length);
+        } else {
+            ByteBuffer source = byteBuffer != null ? byteBuffer.duplicate() : ByteBuffer.wrap(array);
+            source.position(offset + index);
+            source.limit(offset + index + length);
+            ByteBuffer duplicated = dest.byteBuffer.duplicate();
+            duplicated.position(dest.offset + destIndex);
+            duplicated.put(source);
+        }
+    }
+
+    private byte getByte(int position) {
+        if (array != null) {
+            return array[position];
+        }
+        return byteBuffer.get(position);
     }
 
     public void release() {}
@@ -105,7 +196,7 @@ public class Buffer {
         int i = offset;
         int io = o.offset;
         while (i < filled) {
-            if (array[i] != o.array[io]) {
+            if (getByte(i) != o.getByte(io)) {
                 return false;
             }
             i++;
@@ -119,7 +210,7 @@ public class Buffer {
         // TODO optimize
         int result = 1;
         for (int i = offset; i < filled; i++) {
-            result = 31 * result + array[i];
+            result = 31 * result + getByte(i);
         }
         return result;
     }
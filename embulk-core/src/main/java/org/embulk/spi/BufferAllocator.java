@@ -4,4 +4,31 @@ public interface BufferAllocator {
     Buffer allocate();
 
     Buffer allocate(int minimumCapacity);
+
+    /**
+     * Allocates a buffer to store a Page.
+     *
+     * <p>The buffer may be backed by direct memory, not by an array, as pages are accessed only through
+     * PageBuilder and PageReader. Buffers from allocate() are always backed by an array.
+     *
+     * @param minimumCapacity  the minimum capacity of the buffer
+     * @return the buffer at least as large as minimumCapacity
+     */
+    default Buffer allocatePage(int minimumCapacity) {
+        return allocate(minimumCapacity);
+    }
+
+    /**
+     * Allocates a buffer to store a Page, with a capacity preferred by the PageBuilder.
+     *
+     * <p>PageBuilder prefers a capacity measured from the sizes of records. The allocator may bound the preferred
+     * capacity, or ignore it as the default implementation does.
+     *
+     * @param minimumCapacity  the minimum capacity of the buffer
+     * @param preferredCapacity  the preferred capacity, or 0 if the PageBuilder has no preference
+     * @return the buffer at least as large as minimumCapacity
+     */
+    default Buffer allocatePage(int minimumCapacity, int preferredCapacity) {
+        return allocatePage(minimumCapacity);
+    }
 }
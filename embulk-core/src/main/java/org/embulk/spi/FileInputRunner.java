@@ -4,6 +4,7 @@ import static org.embulk.exec.GuessExecutor.createSampleBufferConfigFromExecConf
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigDiff;
@@ -16,10 +17,13 @@ import org.embulk.exec.GuessExecutor;
 import org.embulk.exec.SamplingParserPlugin;
 import org.embulk.plugin.PluginType;
 import org.embulk.plugin.compat.PluginWrappers;
+import org.embulk.spi.unit.ByteSize;
 import org.embulk.spi.util.Decoders;
+import org.embulk.spi.util.ReadAheadFileInput;
 
 public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugin {
     private final FileInputPlugin fileInputPlugin;
+    private volatile TaskSource runningTaskSource;
 
     public FileInputRunner(FileInputPlugin fileInputPlugin) {
         this.fileInputPlugin = fileInputPlugin;
@@ -35,6 +39,14 @@ public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugi
         @Config("parser")
         public ConfigSource getParserConfig();
 
+        @Config("read_ahead_buffers")
+        @ConfigDefault("0")
+        public int getReadAheadBuffers();
+
+        @Config("read_ahead_bytes")
+        @ConfigDefault("\"16MB\"")
+        public ByteSize getReadAheadBytes();
+
         public void setFileInputTaskSource(TaskSource v);
 
         public TaskSource getFileInputTaskSource();
@@ -70,6 +82,28 @@ public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugi
         return fileInputPlugin.resume(task.getFileInputTaskSource(), taskCount, new RunnerControl(task, control));
     }
 
+    @Override
+    public Optional<long[]> hintOfTaskCosts(TaskSource taskSource, int taskCount) {
+        final RunnerTask task = taskSource.loadTask(RunnerTask.class);
+        return fileInputPlugin.hintOfTaskCosts(task.getFileInputTaskSource(), taskCount);
+    }
+
+    @Override
+    public Optional<TaskSource> splitRemainder() {
+        final TaskSource taskSource = runningTaskSource;
+        if (taskSource == null) {
+            return Optional.empty();
+        }
+        final Optional<TaskSource> fileInputRemainder = fileInputPlugin.splitRemainder();
+        if (!fileInputRemainder.isPresent()) {
+            return Optional.empty();
+        }
+        // Decoders and the parser run as the running task does.
+        final RunnerTask remainder = taskSource.loadTask(RunnerTask.class);
+        remainder.setFileInputTaskSource(fileInputRemainder.get());
+        return Optional.of(remainder.dump());
+    }
+
     @Override
     public ConfigDiff guess(ConfigSource config) {
         return guess(Exec.newConfigSource(), config);
@@ -133,16 +167,31 @@ public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugi
 
         final TransactionalFileInput tran = PluginWrappers.transactionalFileInput(
                 fileInputPlugin.open(task.getFileInputTaskSource(), taskIndex));
+        runningTaskSource = taskSource;
         try (CloseResource closer = new CloseResource(tran)) {
             try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
-                FileInput fileInput = Decoders.open(decoderPlugins, task.getDecoderTaskSources(), tran);
-                closer.closeThis(fileInput);
-                parserPlugin.run(task.getParserTaskSource(), schema, fileInput, output);
+                ReadAheadFileInput readAhead = null;
+                if (task.getReadAheadBuffers() > 0) {
+                    readAhead = new ReadAheadFileInput(tran, task.getReadAheadBuffers(), task.getReadAheadBytes().getBytes(),
+                                                       Thread.currentThread().getName() + "-read-ahead");
+                }
+                try {
+                    FileInput fileInput = Decoders.open(decoderPlugins, task.getDecoderTaskSources(), readAhead != null ? readAhead : tran);
+                    closer.closeThis(fileInput);
+                    parserPlugin.run(task.getParserTaskSource(), schema, fileInput, output);
+                } finally {
+                    if (readAhead != null) {
+                        // the input must not be read in background while it is committed, aborted or closed
+                        readAhead.stop();
+                    }
+                }
 
                 TaskReport report = tran.commit();  // TODO check output.finish() is called. wrap
                 aborter.dontAbort();
                 return report;
             }
+        } finally {
+            runningTaskSource = null;
         }
     }
 
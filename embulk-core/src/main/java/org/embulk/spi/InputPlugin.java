@@ -1,6 +1,7 @@
 package org.embulk.spi;
 
 import java.util.List;
+import java.util.Optional;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
@@ -28,4 +29,26 @@ public interface InputPlugin {
             PageOutput output);
 
     ConfigDiff guess(ConfigSource config);
+
+    /**
+     * Returns hints of relative costs of tasks, such as bytes to read, indexed by task index.
+     *
+     * <p>An executor may start costly tasks first so that a large task doesn't run alone at the end. It returns
+     * empty by default, and then tasks start in the order of task indexes.
+     */
+    default Optional<long[]> hintOfTaskCosts(TaskSource taskSource, int taskCount) {
+        return Optional.empty();
+    }
+
+    /**
+     * Asks the task which this instance is running to stop before its end, and returns a task source of the unread
+     * remainder of the task.
+     *
+     * <p>It is called from another thread while {@code run} is running. The returned task source is run as the task
+     * index 0 of it by another instance, and its pages go to the same output task. It returns empty by default, and
+     * when the task can't be split anymore.
+     */
+    default Optional<TaskSource> splitRemainder() {
+        return Optional.empty();
+    }
 }
@@ -24,4 +24,16 @@ public interface OutputPlugin {
             List<TaskReport> successTaskReports);
 
     TransactionalPageOutput open(TaskSource taskSource, Schema schema, int taskIndex);
+
+    /**
+     * Returns true if outputs of the same task index can be opened at the same time, and aborting one of them doesn't
+     * change the others or the committed one.
+     *
+     * <p>An executor may run another attempt of a slow task then, and abort the attempt which doesn't commit first.
+     * For example, outputs which write each attempt to its own place and publish it at commit, or outputs which don't
+     * write anything, can return true. It returns false by default.
+     */
+    default boolean hasIsolatedTaskOutputs() {
+        return false;
+    }
 }
@@ -16,6 +16,9 @@ import org.msgpack.value.ImmutableValue;
  * allocates so many Pages at the same time. Recent Embulk is streaming-driven instead of
  * multithreaded queue-based.
  *
+ * (D) is enabled by the system config use_direct_memory_for_pages. Then, the Buffer of a Page
+ * may not be backed by an array. Read and write Pages through PageReader and PageBuilder.
+ *
  * Page is NOT for inter-process communication. For multi-process execution such as MapReduce
  * Executor, the executor plugin takes responsibility about interoperable serialization.
  */
@@ -1,68 +1,234 @@
 package org.embulk.spi;
 
 import io.airlift.slice.Slice;
-import io.airlift.slice.Slices;
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
 import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.type.Type;
 import org.embulk.spi.type.Types;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
 import org.msgpack.value.ImmutableValue;
 import org.msgpack.value.Value;
 
 public class PageBuilder implements AutoCloseable {
+    // Strings longer than this are written without looking them up in the dictionary.
+    private static final int MAX_DICTIONARY_STRING_LENGTH = 256;
+
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+
+    // A column stops using the dictionary after adding this many entries in a page if more than a half of its values were new.
+    private static final int MIN_DICTIONARY_ENTRIES_TO_GIVE_UP = 64;
+
+    // A column which gave up the dictionary tries it again after this many pages, in case its values start repeating.
+    private static final int DICTIONARY_RETRY_PAGES = 16;
+
+    private static final int MIN_DICTIONARY_TABLE_SIZE = 64;
+
+    // Variable-length data expected per string or JSON value in the first columnar page, before sizes are measured.
+    private static final int INITIAL_VARIABLE_LENGTH_DATA_SIZE_PER_COLUMN = 32;
+
     private final BufferAllocator allocator;
     private final PageOutput output;
     private final Schema schema;
     private final int[] columnOffsets;
+    private final int[] columnSizes;
     private final int fixedRecordSize;
+    private final boolean columnar;
+    private final int[] columnarNullBitSetOffsets;
+    private final int[] columnarValueOffsets;
+    private final boolean[] variableLengthColumns;
+    private final boolean hasStringColumns;
+    private final boolean directWrite;
 
     private Buffer buffer;
     private Slice bufferSlice;
 
     private int count;
     private int position;
+    private int recordCapacity;
     private final byte[] nullBitSet;
+    private final byte[] setBitSet;  // columns set for the record being written in the direct-write mode
+    private final byte[] allSetBitSet;
     private final Row row;
-    private List<String> stringReferences = new ArrayList<>();
-    private List<ImmutableValue> valueReferences = new ArrayList<>();
-    private int referenceSize;
     private int nextVariableLengthDataOffset;
+    private int columnarVariableLengthDataPosition;
+    private int pageVariableLengthDataSize;
+    private int variableLengthDataSizePerRecord;
+    private int recordVariableLengthDataSize;
+    private MsgpackBuffer directMsgpack;
+    private MessagePacker directMsgpackPacker;
+    private final AdaptivePageSize adaptivePageSize = new AdaptivePageSize();
+
+    // per-page dictionary of strings
+    private int[] dictionaryTable;  // open addressing with linear probing; id + 1 of an entry, or 0 if the slot is empty
+    private String[] dictionaryValues;
+    private int[] dictionaryHashes;
+    private int[] dictionarySlots;  // slot of each entry in dictionaryTable
+    private int[] dictionaryOffsets;
+    private int dictionarySize;
+    private int recordDictionarySize;  // dictionary size before the record being written
+    private final int[] dictionaryLookupCounts;
+    private final int[] dictionaryEntryCounts;
+    private final int[] dictionaryRetryPages;  // pages left until a column which gave up the dictionary tries it again
+
+    // values staged by append* methods until addRecords
+    private final Object[] batchValues;  // boolean[], long[], double[] or String[], or long[] of epoch seconds for timestamps
+    private final int[][] batchNanos;
+    private final boolean[][] batchNulls;
+    private final int[] batchCounts;
 
     public PageBuilder(BufferAllocator allocator, Schema schema, PageOutput output) {
+        this(allocator, schema, output, PageLayout.ROW);
+    }
+
+    /**
+     * Creates a PageBuilder which builds pages in the given layout.
+     *
+     * The columnar layout falls back to the row layout if the schema has no columns.
+     */
+    public PageBuilder(BufferAllocator allocator, Schema schema, PageOutput output, PageLayout layout) {
+        this(allocator, schema, output, layout, false);
+    }
+
+    /**
+     * Creates a PageBuilder which builds pages in the given layout, optionally in the direct-write mode.
+     *
+     * In the direct-write mode, set* methods write values straight into the page buffer instead of staging
+     * them until addRecord. It saves a copy and a virtual call per value for plugins which set each column
+     * exactly once per record, such as parsers. Every column must be set for each record, including nulls by
+     * setNull, and addRecord throws IllegalStateException if any column is not set, unlike the default mode which
+     * repeats values set for the previous record. Setting a string or JSON column twice
+     * in a record leaves the first value unused in the page. A record which is not added, such as an invalid
+     * record to skip, must be dropped by discardRecord.
+     */
+    public PageBuilder(BufferAllocator allocator, Schema schema, PageOutput output, PageLayout layout, boolean directWrite) {
         this.allocator = allocator;
         this.output = output;
         this.schema = schema;
         this.columnOffsets = PageFormat.columnOffsets(schema);
+        this.columnSizes = PageFormat.columnSizes(schema);
+        this.columnar = layout == PageLayout.COLUMNAR && !schema.isEmpty();
+        this.columnarNullBitSetOffsets = new int[schema.getColumnCount()];
+        this.columnarValueOffsets = new int[schema.getColumnCount()];
+        this.variableLengthColumns = new boolean[schema.getColumnCount()];
+        boolean hasStringColumns = false;
+        int variableLengthColumnCount = 0;
+        for (Column column : schema.getColumns()) {
+            Type type = column.getType();
+            variableLengthColumns[column.getIndex()] = type.equals(Types.STRING) || type.equals(Types.JSON);
+            hasStringColumns |= type.equals(Types.STRING);
+            if (variableLengthColumns[column.getIndex()]) {
+                variableLengthColumnCount++;
+            }
+        }
+        this.hasStringColumns = hasStringColumns;
+        // leave space for variable-length data in the first page too, which is replaced with measured sizes later
+        this.variableLengthDataSizePerRecord = variableLengthColumnCount * INITIAL_VARIABLE_LENGTH_DATA_SIZE_PER_COLUMN;
+        this.directWrite = directWrite;
         this.nullBitSet = new byte[PageFormat.nullBitSetSize(schema)];
         Arrays.fill(nullBitSet, (byte) -1);
+        this.setBitSet = new byte[nullBitSet.length];
+        this.allSetBitSet = new byte[nullBitSet.length];
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            allSetBitSet[i >>> 3] |= (1 << (i & 7));
+        }
         this.row = Row.newRow(schema);
         this.fixedRecordSize = PageFormat.recordHeaderSize(schema) + PageFormat.totalColumnSize(schema);
         this.nextVariableLengthDataOffset = fixedRecordSize;
-        newBuffer();
+        this.dictionaryTable = new int[MIN_DICTIONARY_TABLE_SIZE];
+        this.dictionaryValues = new String[0];
+        this.dictionaryHashes = new int[0];
+        this.dictionarySlots = new int[0];
+        this.dictionaryOffsets = new int[0];
+        this.dictionaryLookupCounts = new int[schema.getColumnCount()];
+        this.dictionaryEntryCounts = new int[schema.getColumnCount()];
+        this.dictionaryRetryPages = new int[schema.getColumnCount()];
+        this.batchValues = new Object[schema.getColumnCount()];
+        this.batchNanos = new int[schema.getColumnCount()][];
+        this.batchNulls = new boolean[schema.getColumnCount()][];
+        this.batchCounts = new int[schema.getColumnCount()];
+        newBuffer(0);
     }
 
-    private void newBuffer() {
-        this.buffer = allocator.allocate(PageFormat.PAGE_HEADER_SIZE + fixedRecordSize);
-        this.bufferSlice = Slices.wrappedBuffer(buffer.array(), buffer.offset(), buffer.capacity());
+    private void newBuffer(int variableLengthDataSize) {
+        if (hasStringColumns) {
+            variableLengthDataSize += PageFormat.DICTIONARY_HEADER_SIZE;
+        }
+        if (columnar) {
+            this.buffer = allocator.allocatePage(
+                    PageFormat.columnarPageSize(schema, 1) + variableLengthDataSize, adaptivePageSize.getPreferredCapacity());
+            // leave space for variable-length data of the records expected from the last page
+            this.recordCapacity = PageFormat.columnarRecordCapacity(
+                    schema, buffer.capacity() - variableLengthDataSize, variableLengthDataSizePerRecord);
+            PageFormat.columnarOffsets(schema, recordCapacity, columnarNullBitSetOffsets, columnarValueOffsets);
+            this.columnarVariableLengthDataPosition = PageFormat.columnarPageSize(schema, recordCapacity);
+        } else {
+            this.buffer = allocator.allocatePage(
+                    PageFormat.PAGE_HEADER_SIZE + fixedRecordSize + variableLengthDataSize, adaptivePageSize.getPreferredCapacity());
+            this.recordCapacity = 0;
+        }
+        this.bufferSlice = PageFormat.wrapBuffer(buffer, buffer.capacity());
+        if (columnar) {
+            // pooled buffers are not zero-filled
+            int nullBitSetSize = PageFormat.columnarNullBitSetSize(recordCapacity);
+            for (int offset : columnarNullBitSetOffsets) {
+                for (int i = 0; i < nullBitSetSize; i += 8) {
+                    bufferSlice.setLong(offset + i, 0L);
+                }
+            }
+        }
         this.count = 0;
         this.position = PageFormat.PAGE_HEADER_SIZE;
-        this.stringReferences = new ArrayList<>();
-        this.valueReferences = new ArrayList<>();
-        this.referenceSize = 0;
+        this.nextVariableLengthDataOffset = fixedRecordSize;
+        this.pageVariableLengthDataSize = 0;
+        this.recordVariableLengthDataSize = 0;
+        clearDictionary();
+    }
+
+    private void clearDictionary() {
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionaryTable[dictionarySlots[i]] = 0;
+            dictionaryValues[i] = null;
+        }
+        this.dictionarySize = 0;
+        this.recordDictionarySize = 0;
+        Arrays.fill(dictionaryLookupCounts, 0);
+        Arrays.fill(dictionaryEntryCounts, 0);
+        // a column keeps giving up the dictionary in the next pages instead of finding out again in each page
+        for (int i = 0; i < dictionaryRetryPages.length; i++) {
+            if (dictionaryRetryPages[i] > 0) {
+                dictionaryRetryPages[i]--;
+            }
+        }
     }
 
     public Schema getSchema() {
         return schema;
     }
 
+    public PageLayout getLayout() {
+        return columnar ? PageLayout.COLUMNAR : PageLayout.ROW;
+    }
+
+    public boolean isDirectWrite() {
+        return directWrite;
+    }
+
     public void setNull(Column column) {
         setNull(column.getIndex());
     }
 
     public void setNull(int columnIndex) {
-        row.setNull(columnIndex);
+        if (directWrite) {
+            writeNull(columnIndex);
+            markSet(columnIndex);
+        } else {
+            row.setNull(columnIndex);
+        }
     }
 
     public void setBoolean(Column column, boolean value) {
@@ -71,7 +237,12 @@ public class PageBuilder implements AutoCloseable {
     }
 
     public void setBoolean(int columnIndex, boolean value) {
-        row.setBoolean(columnIndex, value);
+        if (directWrite) {
+            writeBoolean(columnIndex, value);
+            markSet(columnIndex);
+        } else {
+            row.setBoolean(columnIndex, value);
+        }
     }
 
     public void setLong(Column column, long value) {
@@ -80,7 +251,12 @@ public class PageBuilder implements AutoCloseable {
     }
 
     public void setLong(int columnIndex, long value) {
-        row.setLong(columnIndex, value);
+        if (directWrite) {
+            writeLong(columnIndex, value);
+            markSet(columnIndex);
+        } else {
+            row.setLong(columnIndex, value);
+        }
     }
 
     public void setDouble(Column column, double value) {
@@ -89,7 +265,12 @@ public class PageBuilder implements AutoCloseable {
     }
 
     public void setDouble(int columnIndex, double value) {
-        row.setDouble(columnIndex, value);
+        if (directWrite) {
+            writeDouble(columnIndex, value);
+            markSet(columnIndex);
+        } else {
+            row.setDouble(columnIndex, value);
+        }
     }
 
     public void setString(Column column, String value) {
@@ -100,6 +281,11 @@ public class PageBuilder implements AutoCloseable {
     public void setString(int columnIndex, String value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (directWrite) {
+            int utf8Length = utf8Length(value);
+            ensureVariableLengthDataCapacity(getStringDataSize(utf8Length));
+            writeString(columnIndex, value, utf8Length);
+            markSet(columnIndex);
         } else {
             row.setString(columnIndex, value);
         }
@@ -113,11 +299,46 @@ public class PageBuilder implements AutoCloseable {
     public void setJson(int columnIndex, Value value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (directWrite) {
+            MsgpackBuffer msgpack = getDirectMsgpack();
+            try {
+                value.writeTo(directMsgpackPacker);
+                directMsgpackPacker.flush();
+            } catch (IOException ex) {
+                // unexpected
+                throw new RuntimeException(ex);
+            }
+            writeDirectJson(columnIndex, msgpack);
+            markSet(columnIndex);
         } else {
             row.setJson(columnIndex, value);
         }
     }
 
+    /**
+     * Sets a JSON value which is already serialized in MessagePack.
+     *
+     * It lets pass-through plugins copy JSON values from PageReader#getJsonAsMsgpackBytes without
+     * deserializing them. The bytes are copied, and are not validated.
+     */
+    public void setJsonAsMsgpackBytes(Column column, ByteBuffer msgpackBytes) {
+        // TODO check type?
+        setJsonAsMsgpackBytes(column.getIndex(), msgpackBytes);
+    }
+
+    public void setJsonAsMsgpackBytes(int columnIndex, ByteBuffer msgpackBytes) {
+        if (msgpackBytes == null) {
+            setNull(columnIndex);
+        } else if (directWrite) {
+            MsgpackBuffer msgpack = getDirectMsgpack();
+            msgpack.write(msgpackBytes);
+            writeDirectJson(columnIndex, msgpack);
+            markSet(columnIndex);
+        } else {
+            row.setJsonAsMsgpackBytes(columnIndex, msgpackBytes);
+        }
+    }
+
     public void setTimestamp(Column column, Timestamp value) {
         // TODO check type?
         setTimestamp(column.getIndex(), value);
@@ -126,11 +347,43 @@ public class PageBuilder implements AutoCloseable {
     public void setTimestamp(int columnIndex, Timestamp value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (directWrite) {
+            writeTimestamp(columnIndex, value);
+            markSet(columnIndex);
         } else {
             row.setTimestamp(columnIndex, value);
         }
     }
 
+    private MsgpackBuffer getDirectMsgpack() {
+        if (directMsgpack == null) {
+            directMsgpack = new MsgpackBuffer();
+            directMsgpackPacker = MessagePack.newDefaultPacker(directMsgpack);
+        }
+        directMsgpack.reset();
+        return directMsgpack;
+    }
+
+    private void writeDirectJson(int columnIndex, MsgpackBuffer msgpack) {
+        ensureVariableLengthDataCapacity(PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + msgpack.size());
+        writeJson(columnIndex, msgpack.array(), msgpack.size());
+    }
+
+    private void markSet(int columnIndex) {
+        setBitSet[columnIndex >>> 3] |= (1 << (columnIndex & 7));
+    }
+
+    private void checkAllColumnsSet() {
+        if (Arrays.equals(setBitSet, allSetBitSet)) {
+            return;
+        }
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            if ((setBitSet[i >>> 3] & (1 << (i & 7))) == 0) {
+                throw new IllegalStateException("Column " + schema.getColumnName(i) + " is not set before addRecord");
+            }
+        }
+    }
+
     private void writeNull(int columnIndex) {
         nullBitSet[columnIndex >>> 3] |= (1 << (columnIndex & 7));
     }
@@ -154,19 +407,131 @@ public class PageBuilder implements AutoCloseable {
         clearNull(columnIndex);
     }
 
-    private void writeString(int columnIndex, String value) {
-        int index = stringReferences.size();
-        stringReferences.add(value);
-        bufferSlice.setInt(getOffset(columnIndex), index);
-        referenceSize += value.length() * 2 + 4;  // assuming size of char = size of byte * 2 + length
+    private void writeString(int columnIndex, String value, int utf8Length) {
+        writeString(columnIndex, getOffset(columnIndex), value, utf8Length);
         clearNull(columnIndex);
     }
 
-    private void writeJson(int columnIndex, Value value) {
-        int index = valueReferences.size();
-        valueReferences.add(value.immutableValue());
-        bufferSlice.setInt(getOffset(columnIndex), index);
-        referenceSize += 256;  // TODO how to estimate size of the value?
+    private void writeString(int columnIndex, int slotOffset, String value, int utf8Length) {
+        if (dictionaryRetryPages[columnIndex] == 0 && value.length() <= MAX_DICTIONARY_STRING_LENGTH) {
+            int id = lookUpDictionary(columnIndex, value, utf8Length);
+            if (id >= 0) {
+                bufferSlice.setInt(slotOffset, -(id + 1));
+                return;
+            }
+        }
+        int offset = writeStringData(value, utf8Length);
+        bufferSlice.setInt(slotOffset, offset - getVariableLengthDataBase());
+    }
+
+    private int writeStringData(String value, int utf8Length) {
+        int offset = reserveVariableLengthData(PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + utf8Length);
+        bufferSlice.setInt(offset, utf8Length);
+        encodeUtf8(value, offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE);
+        return offset;
+    }
+
+    /**
+     * Returns the id of the dictionary entry of the string, adding an entry if it is new in this page.
+     *
+     * It returns -1 if the dictionary is full.
+     */
+    private int lookUpDictionary(int columnIndex, String value, int utf8Length) {
+        dictionaryLookupCounts[columnIndex]++;
+        int hash = value.hashCode();
+        int mask = dictionaryTable.length - 1;
+        int slot = mixHash(hash) & mask;
+        while (true) {
+            int entry = dictionaryTable[slot];
+            if (entry == 0) {
+                break;
+            }
+            int id = entry - 1;
+            if (dictionaryHashes[id] == hash && dictionaryValues[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (dictionarySize >= MAX_DICTIONARY_SIZE) {
+            return -1;
+        }
+
+        int newId = dictionarySize;
+        if (dictionaryValues.length <= newId) {
+            int newLength = Math.max(dictionaryValues.length * 2, 64);
+            dictionaryValues = Arrays.copyOf(dictionaryValues, newLength);
+            dictionaryHashes = Arrays.copyOf(dictionaryHashes, newLength);
+            dictionarySlots = Arrays.copyOf(dictionarySlots, newLength);
+            dictionaryOffsets = Arrays.copyOf(dictionaryOffsets, newLength);
+        }
+        dictionaryValues[newId] = value;
+        dictionaryHashes[newId] = hash;
+        dictionaryOffsets[newId] = writeStringData(value, utf8Length);
+        dictionarySlots[newId] = slot;
+        dictionaryTable[slot] = newId + 1;
+        dictionarySize++;
+        if (dictionarySize * 2 > dictionaryTable.length) {
+            growDictionaryTable();
+        }
+
+        int entryCount = ++dictionaryEntryCounts[columnIndex];
+        if (entryCount >= MIN_DICTIONARY_ENTRIES_TO_GIVE_UP && entryCount * 2 > dictionaryLookupCounts[columnIndex]) {
+            // the column has too many distinct values to benefit from the dictionary
+            dictionaryRetryPages[columnIndex] = DICTIONARY_RETRY_PAGES;
+        }
+        return newId;
+    }
+
+    private void growDictionaryTable() {
+        dictionaryTable = new int[dictionaryTable.length * 2];
+        int mask = dictionaryTable.length - 1;
+        for (int id = 0; id < dictionarySize; id++) {
+            int slot = mixHash(dictionaryHashes[id]) & mask;
+            while (dictionaryTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            dictionaryTable[slot] = id + 1;
+            dictionarySlots[id] = slot;
+        }
+    }
+
+    // Spreads String.hashCode, whose lower bits are alike for strings differing only in the last characters.
+    private static int mixHash(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Removes the dictionary entries added by the record being written, whose data is not in the page to be flushed.
+     *
+     * Entries are removed in the reverse order of addition, and so emptying their slots leaves no gaps in the probe
+     * sequences of the other entries.
+     */
+    private void removeRecordDictionaryEntries() {
+        for (int i = dictionarySize - 1; i >= recordDictionarySize; i--) {
+            dictionaryTable[dictionarySlots[i]] = 0;
+            dictionaryValues[i] = null;
+        }
+        dictionarySize = recordDictionarySize;
+    }
+
+    // The size to reserve for a string. The dictionary entry is counted in case the string is added to the dictionary.
+    private static int getStringDataSize(int utf8Length) {
+        return PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + utf8Length + PageFormat.DICTIONARY_ENTRY_SIZE;
+    }
+
+    private int getDictionaryTableSize() {
+        if (!hasStringColumns) {
+            return 0;
+        }
+        return PageFormat.DICTIONARY_HEADER_SIZE + dictionarySize * PageFormat.DICTIONARY_ENTRY_SIZE;
+    }
+
+    private void writeJson(int columnIndex, byte[] msgpack, int length) {
+        int offset = reserveVariableLengthData(PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + length);
+        bufferSlice.setInt(offset, length);
+        bufferSlice.setBytes(offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE, msgpack, 0, length);
+        bufferSlice.setInt(getOffset(columnIndex), offset - getVariableLengthDataBase());
         clearNull(columnIndex);
     }
 
@@ -178,12 +543,150 @@ public class PageBuilder implements AutoCloseable {
     }
 
     private int getOffset(int columnIndex) {
+        if (columnar) {
+            return columnarValueOffsets[columnIndex] + count * columnSizes[columnIndex];
+        }
         return position + columnOffsets[columnIndex];
     }
 
+    // Fixed slots of variable-length columns store offsets of the data from this base.
+    // It is the head of the record in the row layout, and the head of the page in the columnar layout.
+    private int getVariableLengthDataBase() {
+        if (columnar) {
+            return 0;
+        }
+        return position;
+    }
+
+    private int getVariableLengthDataOffset(int columnIndex) {
+        int slot = bufferSlice.getInt(getOffset(columnIndex));
+        if (slot < 0) {
+            return dictionaryOffsets[-slot - 1];
+        }
+        return getVariableLengthDataBase() + slot;
+    }
+
+    // Capacity is ensured by addRecord before the record is written, or by ensureVariableLengthDataCapacity
+    // in the direct-write mode.
+    private int reserveVariableLengthData(int size) {
+        int offset;
+        if (columnar) {
+            offset = columnarVariableLengthDataPosition;
+            columnarVariableLengthDataPosition += size;
+        } else {
+            offset = position + nextVariableLengthDataOffset;
+            nextVariableLengthDataOffset += size;
+        }
+        pageVariableLengthDataSize += size;
+        recordVariableLengthDataSize += size;
+        return offset;
+    }
+
+    private boolean hasCapacityFor(int variableLengthDataSize) {
+        if (columnar) {
+            return columnarVariableLengthDataPosition + getDictionaryTableSize() + variableLengthDataSize <= buffer.capacity();
+        }
+        return position + nextVariableLengthDataOffset + getDictionaryTableSize() + variableLengthDataSize <= buffer.capacity();
+    }
+
+    private void ensureVariableLengthDataCapacity(int variableLengthDataSize) {
+        if (!hasCapacityFor(variableLengthDataSize)) {
+            flushAndTakeOverRecord(variableLengthDataSize);
+        }
+    }
+
+    /**
+     * Moves the record being written in the direct-write mode to a new buffer, and flushes the records before it.
+     */
+    private void flushAndTakeOverRecord(int variableLengthDataSize) {
+        // copy the values out because the dictionary of the last page may overwrite them
+        byte[][] values = new byte[columnSizes.length][];
+        String[] dictionaryStrings = new String[columnSizes.length];
+        int takenOverSize = 0;
+        for (int i = 0; i < columnSizes.length; i++) {
+            if ((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0) {
+                continue;
+            }
+            int slot = variableLengthColumns[i] ? bufferSlice.getInt(getOffset(i)) : 0;
+            if (slot < 0) {
+                // strings in the dictionary are looked up again in the dictionary of the new page
+                dictionaryStrings[i] = dictionaryValues[-slot - 1];
+                takenOverSize += getStringDataSize(utf8Length(dictionaryStrings[i]));
+            } else if (variableLengthColumns[i]) {
+                int dataOffset = getVariableLengthDataOffset(i);
+                values[i] = new byte[PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + bufferSlice.getInt(dataOffset)];
+                bufferSlice.getBytes(dataOffset, values[i]);
+                takenOverSize += values[i].length;
+            } else {
+                values[i] = new byte[columnSizes[i]];
+                bufferSlice.getBytes(getOffset(i), values[i]);
+            }
+        }
+
+        Buffer lastBuffer = buffer;
+        Page lastPage = null;
+        if (count > 0) {
+            pageVariableLengthDataSize -= recordVariableLengthDataSize;
+            removeRecordDictionaryEntries();
+            lastPage = finishPage();
+        }
+
+        newBuffer(takenOverSize + variableLengthDataSize);
+        for (int i = 0; i < columnSizes.length; i++) {
+            if (dictionaryStrings[i] != null) {
+                writeString(i, dictionaryStrings[i], utf8Length(dictionaryStrings[i]));
+            } else if (values[i] == null) {
+                continue;
+            } else if (variableLengthColumns[i]) {
+                int offset = reserveVariableLengthData(values[i].length);
+                bufferSlice.setBytes(offset, values[i]);
+                bufferSlice.setInt(getOffset(i), offset - getVariableLengthDataBase());
+            } else {
+                bufferSlice.setBytes(getOffset(i), values[i]);
+            }
+        }
+
+        if (lastPage != null) {
+            output.add(lastPage);
+        } else {
+            lastBuffer.release();
+        }
+    }
+
+    private boolean isRecordStarted() {
+        for (byte b : setBitSet) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void addRecord() {
-        // record
-        row.write(this);
+        if (!directWrite) {
+            int variableLengthDataSize = row.getVariableLengthDataSize();
+            if (!hasCapacityFor(variableLengthDataSize)) {
+                flush();
+                if (!hasCapacityFor(variableLengthDataSize)) {
+                    // the record is larger than an empty page
+                    buffer.release();
+                    newBuffer(variableLengthDataSize);
+                }
+            }
+
+            // record
+            row.write(this);
+        } else {
+            checkAllColumnsSet();
+            Arrays.fill(setBitSet, (byte) 0);
+        }
+        recordVariableLengthDataSize = 0;
+        recordDictionarySize = dictionarySize;
+
+        if (columnar) {
+            addColumnarRecord();
+            return;
+        }
 
         // record header
         bufferSlice.setInt(position, nextVariableLengthDataOffset);  // nextVariableLengthDataOffset means record size
@@ -195,31 +698,342 @@ public class PageBuilder implements AutoCloseable {
         Arrays.fill(nullBitSet, (byte) -1);
 
         // flush if next record will not fit in this buffer
-        if (buffer.capacity() < position + nextVariableLengthDataOffset + referenceSize) {
+        if (buffer.capacity() < position + nextVariableLengthDataOffset + getDictionaryTableSize()) {
             flush();
         }
     }
 
+    /**
+     * Discards the values set for the record being written, as if they were not set.
+     *
+     * Plugins which skip invalid records in the direct-write mode must call it, so that strings, JSON values and
+     * dictionary entries of the skipped record are not left in the page. In the default mode, values are staged
+     * until addRecord, and set values are kept for the next addRecord.
+     */
+    public void discardRecord() {
+        if (!directWrite) {
+            return;
+        }
+        if (columnar) {
+            columnarVariableLengthDataPosition -= recordVariableLengthDataSize;
+        } else {
+            nextVariableLengthDataOffset = fixedRecordSize;
+        }
+        pageVariableLengthDataSize -= recordVariableLengthDataSize;
+        recordVariableLengthDataSize = 0;
+        removeRecordDictionaryEntries();
+        Arrays.fill(nullBitSet, (byte) -1);
+        Arrays.fill(setBitSet, (byte) 0);
+    }
+
+    private void addColumnarRecord() {
+        // scatter the null bitset to null bitsets of the columns
+        int byteIndex = count >>> 3;
+        int bit = 1 << (count & 7);
+        for (int i = 0; i < columnarNullBitSetOffsets.length; i++) {
+            if ((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0) {
+                setColumnarNull(i, byteIndex, bit);
+            }
+        }
+        count++;
+
+        Arrays.fill(nullBitSet, (byte) -1);
+
+        // flush if all column regions are filled
+        if (recordCapacity <= count) {
+            flush();
+        }
+    }
+
+    private void setColumnarNull(int columnIndex, int byteIndex, int bit) {
+        int offset = columnarNullBitSetOffsets[columnIndex] + byteIndex;
+        bufferSlice.setByte(offset, bufferSlice.getByte(offset) | bit);
+    }
+
+    /**
+     * Stages boolean values of a column for the next addRecords.
+     *
+     * The arrays are referenced until addRecords, and must not be modified before it.
+     *
+     * @param column  the column to set
+     * @param values  the values of the records
+     * @param nulls  whether the values are null, or null if no values are null
+     * @param count  the number of records, which must be equal to the count passed to addRecords
+     */
+    public void appendBooleans(Column column, boolean[] values, boolean[] nulls, int count) {
+        checkBatchType(column, Types.BOOLEAN);
+        stageBatch(column.getIndex(), values, values.length, null, nulls, count);
+    }
+
+    /**
+     * Stages long values of a column for the next addRecords.
+     *
+     * @see #appendBooleans(Column, boolean[], boolean[], int)
+     */
+    public void appendLongs(Column column, long[] values, boolean[] nulls, int count) {
+        checkBatchType(column, Types.LONG);
+        stageBatch(column.getIndex(), values, values.length, null, nulls, count);
+    }
+
+    /**
+     * Stages double values of a column for the next addRecords.
+     *
+     * @see #appendBooleans(Column, boolean[], boolean[], int)
+     */
+    public void appendDoubles(Column column, double[] values, boolean[] nulls, int count) {
+        checkBatchType(column, Types.DOUBLE);
+        stageBatch(column.getIndex(), values, values.length, null, nulls, count);
+    }
+
+    /**
+     * Stages timestamp values of a column, as seconds from the epoch and nanoseconds in the second, for the next addRecords.
+     *
+     * @see #appendBooleans(Column, boolean[], boolean[], int)
+     */
+    public void appendTimestamps(Column column, long[] epochSeconds, int[] nanos, boolean[] nulls, int count) {
+        checkBatchType(column, Types.TIMESTAMP);
+        if (nanos.length < count) {
+            throw new IllegalArgumentException("Array of " + nanos.length + " nanoseconds is shorter than " + count + " records");
+        }
+        stageBatch(column.getIndex(), epochSeconds, epochSeconds.length, nanos, nulls, count);
+    }
+
+    /**
+     * Stages string values of a column for the next addRecords. Null elements are null values.
+     *
+     * @see #appendBooleans(Column, boolean[], boolean[], int)
+     */
+    public void appendStrings(Column column, String[] values, int count) {
+        checkBatchType(column, Types.STRING);
+        stageBatch(column.getIndex(), values, values.length, null, null, count);
+    }
+
+    private static void checkBatchType(Column column, Type type) {
+        if (!column.getType().equals(type)) {
+            throw new IllegalArgumentException(
+                    "Column " + column.getName() + " is " + column.getType().getName() + ", which can't be appended as " + type.getName());
+        }
+    }
+
+    private void stageBatch(int columnIndex, Object values, int length, int[] nanos, boolean[] nulls, int count) {
+        if (length < count || (nulls != null && nulls.length < count)) {
+            throw new IllegalArgumentException("Array of " + length + " values is shorter than " + count + " records");
+        }
+        batchValues[columnIndex] = values;
+        batchNanos[columnIndex] = nanos;
+        batchNulls[columnIndex] = nulls;
+        batchCounts[columnIndex] = count;
+    }
+
+    /**
+     * Adds records of the values staged by append* methods.
+     *
+     * Records are written into pages column by column in the columnar layout, and the capacity of the page is
+     * checked once for as many records as fit in it. Columns which are not staged are null, including JSON columns.
+     * Values set by set* methods are not used, and are kept for the next addRecord.
+     *
+     * @param count  the number of records to add
+     */
+    public void addRecords(int count) {
+        for (int i = 0; i < batchValues.length; i++) {
+            if (batchValues[i] != null && batchCounts[i] != count) {
+                throw new IllegalArgumentException(
+                        "Column " + schema.getColumnName(i) + " has " + batchCounts[i] + " values staged for " + count + " records");
+            }
+        }
+        if (directWrite && isRecordStarted()) {
+            throw new IllegalStateException("addRecords is called while a record is being written");
+        }
+
+        int[] variableLengthDataSizes = getBatchVariableLengthDataSizes(count);
+        int added = 0;
+        while (added < count) {
+            int fitting = countFittingRecords(added, count, variableLengthDataSizes);
+            if (fitting == 0) {
+                if (this.count > 0) {
+                    flush();
+                } else {
+                    // the record is larger than an empty page
+                    buffer.release();
+                    newBuffer(variableLengthDataSizes == null ? 0 : variableLengthDataSizes[added]);
+                }
+                continue;
+            }
+            if (columnar) {
+                writeColumnarBatch(added, fitting);
+            } else {
+                writeRowBatch(added, fitting);
+            }
+            added += fitting;
+            recordVariableLengthDataSize = 0;
+            recordDictionarySize = dictionarySize;
+
+            // flush if next record will not fit in this buffer
+            if (columnar ? recordCapacity <= this.count : buffer.capacity() < position + fixedRecordSize + getDictionaryTableSize()) {
+                flush();
+            }
+        }
+
+        Arrays.fill(batchValues, null);
+        Arrays.fill(batchNanos, null);
+        Arrays.fill(batchNulls, null);
+    }
+
+    // Returns the size of variable-length data to reserve for each record, or null if no string columns are staged.
+    private int[] getBatchVariableLengthDataSizes(int count) {
+        int[] sizes = null;
+        for (Object values : batchValues) {
+            if (values instanceof String[]) {
+                if (sizes == null) {
+                    sizes = new int[count];
+                }
+                String[] strings = (String[]) values;
+                for (int i = 0; i < count; i++) {
+                    if (strings[i] != null) {
+                        sizes[i] += getStringDataSize(utf8Length(strings[i]));
+                    }
+                }
+            }
+        }
+        return sizes;
+    }
+
+    private int countFittingRecords(int from, int to, int[] variableLengthDataSizes) {
+        int maxCount = to - from;
+        int available;
+        int recordSize;
+        if (columnar) {
+            maxCount = Math.min(maxCount, recordCapacity - count);
+            available = buffer.capacity() - columnarVariableLengthDataPosition - getDictionaryTableSize();
+            recordSize = 0;
+        } else {
+            available = buffer.capacity() - position - getDictionaryTableSize();
+            recordSize = fixedRecordSize;
+        }
+        if (variableLengthDataSizes == null) {
+            if (recordSize == 0) {
+                return maxCount;
+            }
+            return Math.min(maxCount, available / recordSize);
+        }
+        int fitting = 0;
+        while (fitting < maxCount) {
+            available -= recordSize + variableLengthDataSizes[from + fitting];
+            if (available < 0) {
+                break;
+            }
+            fitting++;
+        }
+        return fitting;
+    }
+
+    private void writeColumnarBatch(int from, int length) {
+        for (int i = 0; i < batchValues.length; i++) {
+            boolean[] nulls = batchNulls[i];
+            boolean staged = batchValues[i] != null;
+            for (int r = 0; r < length; r++) {
+                int recordIndex = count + r;
+                if (staged && (nulls == null || !nulls[from + r])) {
+                    if (writeBatchValue(i, from + r, columnarValueOffsets[i] + recordIndex * columnSizes[i])) {
+                        continue;
+                    }
+                }
+                setColumnarNull(i, recordIndex >>> 3, 1 << (recordIndex & 7));
+            }
+        }
+        count += length;
+    }
+
+    private void writeRowBatch(int from, int length) {
+        for (int r = 0; r < length; r++) {
+            for (int i = 0; i < batchValues.length; i++) {
+                boolean[] nulls = batchNulls[i];
+                if (batchValues[i] != null && (nulls == null || !nulls[from + r])) {
+                    if (writeBatchValue(i, from + r, position + columnOffsets[i])) {
+                        clearNull(i);
+                    }
+                }
+            }
+            bufferSlice.setInt(position, nextVariableLengthDataOffset);
+            bufferSlice.setBytes(position + 4, nullBitSet);
+            count++;
+
+            this.position += nextVariableLengthDataOffset;
+            this.nextVariableLengthDataOffset = fixedRecordSize;
+            Arrays.fill(nullBitSet, (byte) -1);
+        }
+    }
+
+    // Returns false if the value is null.
+    private boolean writeBatchValue(int columnIndex, int index, int slotOffset) {
+        Object values = batchValues[columnIndex];
+        if (values instanceof long[]) {
+            bufferSlice.setLong(slotOffset, ((long[]) values)[index]);
+            if (batchNanos[columnIndex] != null) {
+                bufferSlice.setInt(slotOffset + 8, batchNanos[columnIndex][index]);
+            }
+        } else if (values instanceof double[]) {
+            bufferSlice.setDouble(slotOffset, ((double[]) values)[index]);
+        } else if (values instanceof boolean[]) {
+            bufferSlice.setByte(slotOffset, ((boolean[]) values)[index] ? (byte) 1 : (byte) 0);
+        } else {
+            String value = ((String[]) values)[index];
+            if (value == null) {
+                return false;
+            }
+            writeString(columnIndex, slotOffset, value, utf8Length(value));
+        }
+        return true;
+    }
+
     private void doFlush() {
         if (buffer != null && count > 0) {
-            // write page header
-            bufferSlice.setInt(0, count);
-            buffer.limit(position);
-
-            // flush page
-            Page page = Page.wrap(buffer)
-                    .setStringReferences(stringReferences)
-                    .setValueReferences(valueReferences);
-            buffer = null;
-            bufferSlice = null;
-            output.add(page);
+            output.add(finishPage());
+        }
+    }
+
+    private Page finishPage() {
+        // write page header
+        bufferSlice.setInt(0, count);
+        bufferSlice.setInt(PageFormat.PAGE_HEADER_LAYOUT_OFFSET, getLayout().getId());
+        bufferSlice.setInt(PageFormat.PAGE_HEADER_RECORD_CAPACITY_OFFSET, recordCapacity);
+        int limit = columnar ? columnarVariableLengthDataPosition : position;
+        // entries added by a record which is not added yet point to data which is not in the page
+        int entries = recordDictionarySize;
+        if (entries > 0) {
+            // write the dictionary after all other data
+            bufferSlice.setInt(PageFormat.PAGE_HEADER_DICTIONARY_OFFSET, limit);
+            bufferSlice.setInt(limit, entries);
+            for (int i = 0; i < entries; i++) {
+                bufferSlice.setInt(limit + PageFormat.DICTIONARY_HEADER_SIZE + i * PageFormat.DICTIONARY_ENTRY_SIZE, dictionaryOffsets[i]);
+            }
+            limit += PageFormat.DICTIONARY_HEADER_SIZE + entries * PageFormat.DICTIONARY_ENTRY_SIZE;
+            pageVariableLengthDataSize += entries * PageFormat.DICTIONARY_ENTRY_SIZE;
+        } else {
+            bufferSlice.setInt(PageFormat.PAGE_HEADER_DICTIONARY_OFFSET, 0);
         }
+        buffer.limit(limit);
+        this.variableLengthDataSizePerRecord = pageVariableLengthDataSize / count;
+        adaptivePageSize.pageFinished(limit, count);
+
+        // flush page
+        Page page = Page.wrap(buffer)
+                .setStringReferences(Collections.<String>emptyList())
+                .setValueReferences(Collections.<ImmutableValue>emptyList());
+        buffer = null;
+        bufferSlice = null;
+        return page;
     }
 
     public void flush() {
+        if (directWrite && buffer != null && count > 0 && isRecordStarted()) {
+            // keep the record being written
+            flushAndTakeOverRecord(0);
+            return;
+        }
         doFlush();
         if (buffer == null) {
-            newBuffer();
+            newBuffer(0);
         }
     }
 
@@ -238,8 +1052,54 @@ public class PageBuilder implements AutoCloseable {
         output.close();
     }
 
+    static int utf8Length(String value) {
+        int length = value.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                utf8Length += 1;
+            } else if (!Character.isSurrogate(c)) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 2;  // 4 bytes for 2 chars
+                i++;
+            }
+            // a malformed surrogate is replaced with '?' as String#getBytes does
+        }
+        return utf8Length;
+    }
+
+    private void encodeUtf8(String value, int offset) {
+        int length = value.length();
+        int p = offset;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bufferSlice.setByte(p++, c);
+            } else if (c < 0x800) {
+                bufferSlice.setByte(p++, 0xc0 | (c >> 6));
+                bufferSlice.setByte(p++, 0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                bufferSlice.setByte(p++, 0xe0 | (c >> 12));
+                bufferSlice.setByte(p++, 0x80 | ((c >> 6) & 0x3f));
+                bufferSlice.setByte(p++, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bufferSlice.setByte(p++, 0xf0 | (codePoint >> 18));
+                bufferSlice.setByte(p++, 0x80 | ((codePoint >> 12) & 0x3f));
+                bufferSlice.setByte(p++, 0x80 | ((codePoint >> 6) & 0x3f));
+                bufferSlice.setByte(p++, 0x80 | (codePoint & 0x3f));
+            } else {
+                bufferSlice.setByte(p++, '?');
+            }
+        }
+    }
+
     /**
-     * Row is a container to stage values before adding into reference lists such as |stringReferences|.
+     * Row is a container to stage values before writing them into the page buffer.
      *
      * |Row| works as a buffer against plugins that may add values incorrectly without |PageBuilder#addRecord|.
      * It accepts just one value per column while |PageBuilder| can double-store values regardless of columns.
@@ -303,10 +1163,22 @@ public class PageBuilder implements AutoCloseable {
             values[columnIndex].setJson(value);
         }
 
+        private void setJsonAsMsgpackBytes(int columnIndex, ByteBuffer msgpackBytes) {
+            values[columnIndex].setJsonAsMsgpackBytes(msgpackBytes);
+        }
+
         private void setTimestamp(int columnIndex, Timestamp value) {
             values[columnIndex].setTimestamp(value);
         }
 
+        private int getVariableLengthDataSize() {
+            int size = 0;
+            for (ColumnValue v : values) {
+                size += v.getVariableLengthDataSize();
+            }
+            return size;
+        }
+
         private void write(PageBuilder pageBuilder) {
             for (ColumnValue v : values) {
                 v.write(pageBuilder);
@@ -325,10 +1197,14 @@ public class PageBuilder implements AutoCloseable {
 
         void setJson(Value value);
 
+        void setJsonAsMsgpackBytes(ByteBuffer msgpackBytes);
+
         void setTimestamp(Timestamp value);
 
         void setNull();
 
+        int getVariableLengthDataSize();
+
         void write(PageBuilder pageBuilder);
     }
 
@@ -360,6 +1236,10 @@ public class PageBuilder implements AutoCloseable {
             throw new IllegalStateException("Not reach here");
         }
 
+        public void setJsonAsMsgpackBytes(ByteBuffer msgpackBytes) {
+            throw new IllegalStateException("Not reach here");
+        }
+
         public void setTimestamp(Timestamp value) {
             throw new IllegalStateException("Not reach here");
         }
@@ -368,6 +1248,10 @@ public class PageBuilder implements AutoCloseable {
             isNull = true;
         }
 
+        public int getVariableLengthDataSize() {
+            return 0;
+        }
+
         public void write(PageBuilder pageBuilder) {
             if (!isNull) {
                 writeNotNull(pageBuilder);
@@ -438,6 +1322,7 @@ public class PageBuilder implements AutoCloseable {
 
     private static class StringColumnValue extends AbstractColumnValue {
         private String value;
+        private int utf8Length;
 
         StringColumnValue(Column column) {
             super(column);
@@ -446,17 +1331,28 @@ public class PageBuilder implements AutoCloseable {
         @Override
         public void setString(String value) {
             this.value = value;
+            this.utf8Length = utf8Length(value);
             this.isNull = false;
         }
 
+        @Override
+        public int getVariableLengthDataSize() {
+            if (isNull) {
+                return 0;
+            }
+            return getStringDataSize(utf8Length);
+        }
+
         @Override
         public void writeNotNull(PageBuilder pageBuilder) {
-            pageBuilder.writeString(column.getIndex(), value);
+            pageBuilder.writeString(column.getIndex(), value, utf8Length);
         }
     }
 
     private static class JsonColumnValue extends AbstractColumnValue {
-        private Value value;
+        // the value is serialized when it's set so that its size is known before writing the record
+        private final MsgpackBuffer msgpack = new MsgpackBuffer();
+        private final MessagePacker packer = MessagePack.newDefaultPacker(msgpack);
 
         JsonColumnValue(Column column) {
             super(column);
@@ -464,135 +1360,74 @@ public class PageBuilder implements AutoCloseable {
 
         @Override
         public void setJson(Value value) {
-            this.value = value;
+            msgpack.reset();
+            try {
+                value.writeTo(packer);
+                packer.flush();
+            } catch (IOException ex) {
+                // unexpected
+                throw new RuntimeException(ex);
+            }
             this.isNull = false;
         }
 
         @Override
-        public void writeNotNull(PageBuilder pageBuilder) {
-            pageBuilder.writeJson(column.getIndex(), value);
-        }
-    }
-
-    private static class TimestampColumnValue extends AbstractColumnValue {
-        private Timestamp value;
-
-        TimestampColumnValue(Column column) {
-            super(column);
+        public void setJsonAsMsgpackBytes(ByteBuffer msgpackBytes) {
+            msgpack.reset();
+            msgpack.write(msgpackBytes);
+            this.isNull = false;
         }
 
         @Override
-        public void setTimestamp(Timestamp value) {
-            this.value = value;
-            this.isNull = false;
+        public int getVariableLengthDataSize() {
+            if (isNull) {
+                return 0;
+            }
+            return PageFormat.VARIABLE_LENGTH_COLUMN_SIZE + msgpack.size();
         }
 
         @Override
         public void writeNotNull(PageBuilder pageBuilder) {
-            pageBuilder.writeTimestamp(column.getIndex(), value);
+            pageBuilder.writeJson(column.getIndex(), msgpack.array(), msgpack.size());
         }
     }
 
-    /* TODO for variable-length types
-    private void flushAndTakeOverRemaingData()
-    {
-        if (page != null) {
-            // page header
-            page.setInt(0, count);
-
-            Page lastPage = page;
-
-            this.page = allocator.allocatePage(Page.PAGE_HEADER_SIZE + fixedRecordSize + nextVariableLengthDataOffset);
-            page.setBytes(Page.PAGE_HEADER_SIZE, lastPage, position, nextVariableLengthDataOffset);
-            this.count = 0;
-            this.position = Page.PAGE_HEADER_SIZE;
-
-            output.add(lastPage);
+    private static class MsgpackBuffer extends ByteArrayOutputStream {
+        MsgpackBuffer() {
+            super(256);
         }
-    }
-
-    public int getVariableLengthDataOffset()
-    {
-        return nextVariableLengthDataOffset;
-    }
-
-    public VariableLengthDataWriter setVariableLengthData(int columnIndex, int intData)
-    {
-        // Page.VARIABLE_LENGTH_COLUMN_SIZE is 4 bytes
-        page.setInt(position + columnOffsets[columnIndex], intData);
-        return new VariableLengthDataWriter(nextVariableLengthDataOffset);
-    }
-
-    Page ensureVariableLengthDataCapacity(int requiredOffsetFromPosition)
-    {
-        if (page.capacity() < position + requiredOffsetFromPosition) {
-            flushAndTakeOverRemaingData();
-        }
-        return page;
-    }
-
-    public class VariableLengthDataWriter
-    {
-        private int offsetFromPosition;
 
-        VariableLengthDataWriter(int offsetFromPosition)
-        {
-            this.offsetFromPosition = offsetFromPosition;
+        private byte[] array() {
+            return buf;
         }
 
-        public void writeByte(byte value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 1);
-            page.setByte(position + offsetFromPosition, value);
-            offsetFromPosition += 1;
-        }
-
-        public void writeShort(short value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 2);
-            page.setShort(position + offsetFromPosition, value);
-            offsetFromPosition += 2;
-        }
-
-        public void writeInt(int value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 4);
-            page.setInt(position + offsetFromPosition, value);
-            offsetFromPosition += 4;
-        }
-
-        public void writeLong(long value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 8);
-            page.setLong(position + offsetFromPosition, value);
-            offsetFromPosition += 8;
+        private void write(ByteBuffer source) {
+            ByteBuffer duplicated = source.duplicate();
+            int length = duplicated.remaining();
+            if (buf.length < count + length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+            }
+            duplicated.get(buf, count, length);
+            count += length;
         }
+    }
 
-        public void writeFloat(float value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 4);
-            page.setFloat(position + offsetFromPosition, value);
-            offsetFromPosition += 4;
-        }
+    private static class TimestampColumnValue extends AbstractColumnValue {
+        private Timestamp value;
 
-        public void writeDouble(double value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 8);
-            page.setDouble(position + offsetFromPosition, value);
-            offsetFromPosition += 8;
+        TimestampColumnValue(Column column) {
+            super(column);
         }
 
-        public void writeBytes(byte[] data)
-        {
-            writeBytes(data, 0, data.length);
+        @Override
+        public void setTimestamp(Timestamp value) {
+            this.value = value;
+            this.isNull = false;
         }
 
-        public void writeBytes(byte[] data, int off, int len)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + len);
-            page.setBytes(position + offsetFromPosition, data, off, len);
-            offsetFromPosition += len;
+        @Override
+        public void writeNotNull(PageBuilder pageBuilder) {
+            pageBuilder.writeTimestamp(column.getIndex(), value);
         }
     }
-    */
 }
@@ -1,20 +1,58 @@
 package org.embulk.spi;
 
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import java.nio.ByteBuffer;
+
 abstract class PageFormat {
     // PageHeader
-    // +---+
-    // | 4 |
-    // +---+
+    // +---+---+---+---+
+    // | 4 | 4 | 4 | 4 |
+    // +---+---+---+---+
     // count (number of records)
+    // layout (LAYOUT_ROW or LAYOUT_COLUMNAR)
+    // record capacity (number of records which each column region can store. used only by LAYOUT_COLUMNAR)
+    // dictionary offset (offset of the string dictionary from the head of the page, or 0 if the page has no dictionary)
 
     private PageFormat() {}
 
-    static final int PAGE_HEADER_SIZE = 4;
+    static final int PAGE_HEADER_SIZE = 16;
+
+    static final int PAGE_HEADER_LAYOUT_OFFSET = 4;
+
+    static final int PAGE_HEADER_RECORD_CAPACITY_OFFSET = 8;
+
+    static final int PAGE_HEADER_DICTIONARY_OFFSET = 12;
 
-    // PageBuilder.setVariableLengthData and PageReader.readVariableLengthData
-    // uses 4 bytes integer
+    static final int LAYOUT_ROW = 0;
+
+    static final int LAYOUT_COLUMNAR = 1;
+
+    // Variable-length data
+    // +---+-------+
+    // | 4 |  len  |
+    // +---+-------+
+    // length, bytes
+    //
+    // Fixed slots of variable-length columns store the offset of the data, relative to the head of
+    // the record in the row layout, and to the head of the page in the columnar layout. In the row
+    // layout, variable-length data follows the fixed slots and is counted in the record size.
+    // Strings are encoded in UTF-8, and JSON values are serialized in MessagePack.
     static final int VARIABLE_LENGTH_COLUMN_SIZE = 4;
 
+    // String dictionary
+    // +---+---+---+-----
+    // | 4 | 4 | 4 | ...
+    // +---+---+---+-----
+    // number of entries, offset of entry 0, offset of entry 1, ...
+    //
+    // The dictionary follows all other data in the page. Each entry is an offset of variable-length data
+    // from the head of the page. A fixed slot of a string column stores -(id + 1) instead of an offset
+    // if the value refers to the dictionary entry of the id.
+    static final int DICTIONARY_HEADER_SIZE = 4;
+
+    static final int DICTIONARY_ENTRY_SIZE = 4;
+
     static int nullBitSetSize(Schema schema) {
         return (schema.getColumnCount() + 7) / 8;
     }
@@ -39,4 +77,70 @@ abstract class PageFormat {
 
         return offsets;
     }
+
+    static int[] columnSizes(Schema schema) {
+        int[] sizes = new int[schema.getColumnCount()];
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            sizes[i] = schema.getColumnType(i).getFixedStorageSize();
+        }
+        return sizes;
+    }
+
+    // Columnar layout
+    // +--------+-----------------+---------------+-----------------+---------------+-----
+    // | header | column 0        | column 0      | column 1        | column 1      | ...
+    // |        | null bitset     | values        | null bitset     | values        |
+    // +--------+-----------------+---------------+-----------------+---------------+-----
+    //
+    // A null bitset has one bit per record, and is padded to 8 bytes. Values are fixed slots of
+    // record capacity * fixed storage size bytes, and are padded to 8 bytes as well.
+    // Variable-length data follows the column regions.
+
+    static int columnarNullBitSetSize(int recordCapacity) {
+        return ((recordCapacity + 63) >>> 6) << 3;
+    }
+
+    static int columnarPageSize(Schema schema, int recordCapacity) {
+        int offset = PAGE_HEADER_SIZE;
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            offset += columnarNullBitSetSize(recordCapacity);
+            offset += align8(recordCapacity * schema.getColumnType(i).getFixedStorageSize());
+        }
+        return offset;
+    }
+
+    static int columnarRecordCapacity(Schema schema, int pageSize, int variableLengthDataSizePerRecord) {
+        int columnCount = schema.getColumnCount();
+        long available = (long) pageSize - PAGE_HEADER_SIZE - columnCount * 16L;  // 16 is for the worst paddings
+        long bitsPerRecord = (schema.getFixedStorageSize() + (long) variableLengthDataSizePerRecord) * 8L + columnCount;
+        int capacity = (int) Math.max(available * 8 / bitsPerRecord, 1L);
+        while (capacity > 1 && pageSize < columnarPageSize(schema, capacity)) {
+            capacity--;
+        }
+        return capacity;
+    }
+
+    static void columnarOffsets(Schema schema, int recordCapacity, int[] nullBitSetOffsets, int[] valueOffsets) {
+        int offset = PAGE_HEADER_SIZE;
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            nullBitSetOffsets[i] = offset;
+            offset += columnarNullBitSetSize(recordCapacity);
+            valueOffsets[i] = offset;
+            offset += align8(recordCapacity * schema.getColumnType(i).getFixedStorageSize());
+        }
+    }
+
+    static Slice wrapBuffer(Buffer buffer, int length) {
+        if (buffer.hasArray()) {
+            return Slices.wrappedBuffer(buffer.array(), buffer.offset(), length);
+        }
+        // direct memory
+        ByteBuffer byteBuffer = buffer.toByteBuffer();
+        byteBuffer.limit(length);
+        return Slices.wrappedBuffer(byteBuffer);
+    }
+
+    private static int align8(int size) {
+        return (size + 7) & ~7;
+    }
 }
@@ -0,0 +1,40 @@
+package org.embulk.spi;
+
+/**
+ * PageLayout specifies how PageBuilder lays records out in a Page.
+ *
+ * PageReader detects the layout from the page header so that a reader can consume pages in any layout.
+ */
+public enum PageLayout {
+    /**
+     * Records are stored one after another. Each record has its own header, null bitset and fixed slots.
+     */
+    ROW(PageFormat.LAYOUT_ROW),
+
+    /**
+     * Values and null bitsets of each column are stored in a contiguous region. It lets consumers that
+     * touch only a few columns of a wide schema scan memory sequentially.
+     */
+    COLUMNAR(PageFormat.LAYOUT_COLUMNAR);
+
+    private final int id;
+
+    private PageLayout(int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    static PageLayout of(int id) {
+        switch (id) {
+            case PageFormat.LAYOUT_ROW:
+                return ROW;
+            case PageFormat.LAYOUT_COLUMNAR:
+                return COLUMNAR;
+            default:
+                throw new IllegalStateException("Unknown page layout: " + id);
+        }
+    }
+}
@@ -1,33 +1,59 @@
 package org.embulk.spi;
 
 import io.airlift.slice.Slice;
-import io.airlift.slice.Slices;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
 import org.msgpack.value.Value;
 
 public class PageReader implements AutoCloseable {
     private final Schema schema;
     private final int[] columnOffsets;
+    private final int[] columnSizes;
 
     private Page page = SENTINEL;
+    private Buffer pageBuffer = null;
     private Slice pageSlice = null;
     private int pageRecordCount = 0;
+    private boolean columnar;
+    private int recordCapacity;
+    private final int[] columnarNullBitSetOffsets;
+    private final int[] columnarValueOffsets;
+    private int[] recordPositions;  // lazily built for bulk accessors on row-layout pages
+    private int dictionaryOffset;
+    private int dictionarySize;
+    private String[] dictionaryStrings = new String[0];  // lazily decoded entries of the dictionary
 
     private int readCount = 0;
     private int position;
     private final byte[] nullBitSet;
 
-    private static final Page SENTINEL = Page.wrap(Buffer.wrap(new byte[4]));  // buffer().release() does nothing
+    private CharsetDecoder utf8Decoder;
+    private CharBuffer charSequenceBuffer;
+
+    private static final Page SENTINEL = Page.wrap(Buffer.wrap(new byte[PageFormat.PAGE_HEADER_SIZE]));  // buffer().release() does nothing
 
     public PageReader(Schema schema) {
         this.schema = schema;
         this.columnOffsets = PageFormat.columnOffsets(schema);
+        this.columnSizes = PageFormat.columnSizes(schema);
         this.nullBitSet = new byte[PageFormat.nullBitSetSize(schema)];
+        this.columnarNullBitSetOffsets = new int[schema.getColumnCount()];
+        this.columnarValueOffsets = new int[schema.getColumnCount()];
     }
 
     public static int getRecordCount(Page page) {
         Buffer pageBuffer = page.buffer();
-        Slice pageSlice = Slices.wrappedBuffer(pageBuffer.array(), pageBuffer.offset(), pageBuffer.limit());
+        Slice pageSlice = PageFormat.wrapBuffer(pageBuffer, pageBuffer.limit());
         return pageSlice.getInt(0);  // see page format
     }
 
@@ -36,13 +62,31 @@ public class PageReader implements AutoCloseable {
         this.page = SENTINEL;
 
         Buffer pageBuffer = page.buffer();
-        Slice pageSlice = Slices.wrappedBuffer(pageBuffer.array(), pageBuffer.offset(), pageBuffer.limit());
+        Slice pageSlice = PageFormat.wrapBuffer(pageBuffer, pageBuffer.limit());
 
         pageRecordCount = pageSlice.getInt(0);  // see page format
         readCount = 0;
         position = PageFormat.PAGE_HEADER_SIZE;
+        recordPositions = null;
+
+        Arrays.fill(dictionaryStrings, 0, dictionarySize, null);
+        dictionaryOffset = pageSlice.getInt(PageFormat.PAGE_HEADER_DICTIONARY_OFFSET);
+        dictionarySize = dictionaryOffset > 0 ? pageSlice.getInt(dictionaryOffset) : 0;
+        if (dictionaryStrings.length < dictionarySize) {
+            dictionaryStrings = new String[dictionarySize];
+        }
+
+        columnar = pageSlice.getInt(PageFormat.PAGE_HEADER_LAYOUT_OFFSET) == PageFormat.LAYOUT_COLUMNAR;
+        if (columnar) {
+            int capacity = pageSlice.getInt(PageFormat.PAGE_HEADER_RECORD_CAPACITY_OFFSET);
+            if (capacity != recordCapacity) {
+                recordCapacity = capacity;
+                PageFormat.columnarOffsets(schema, recordCapacity, columnarNullBitSetOffsets, columnarValueOffsets);
+            }
+        }
 
         this.page = page;
+        this.pageBuffer = pageBuffer;
         this.pageSlice = pageSlice;
     }
 
@@ -50,14 +94,35 @@ public class PageReader implements AutoCloseable {
         return schema;
     }
 
+    /**
+     * Returns the layout of the current page.
+     */
+    public PageLayout getPageLayout() {
+        return columnar ? PageLayout.COLUMNAR : PageLayout.ROW;
+    }
+
+    /**
+     * Returns the number of records in the current page.
+     */
+    public int getPageRecordCount() {
+        return pageRecordCount;
+    }
+
     public boolean isNull(Column column) {
         return isNull(column.getIndex());
     }
 
     public boolean isNull(int columnIndex) {
+        if (columnar) {
+            return isColumnarNull(columnIndex, readCount - 1);
+        }
         return (nullBitSet[columnIndex >>> 3] & (1 << (columnIndex & 7))) != 0;
     }
 
+    private boolean isColumnarNull(int columnIndex, int recordIndex) {
+        return (pageSlice.getByte(columnarNullBitSetOffsets[columnIndex] + (recordIndex >>> 3)) & (1 << (recordIndex & 7))) != 0;
+    }
+
     public boolean getBoolean(Column column) {
         // TODO check type?
         return getBoolean(column.getIndex());
@@ -94,8 +159,117 @@ public class PageReader implements AutoCloseable {
         if (isNull(columnIndex)) {
             return null;
         }
-        int index = pageSlice.getInt(getOffset(columnIndex));
-        return page.getStringReference(index);
+        int slot = pageSlice.getInt(getOffset(columnIndex));
+        if (slot < 0) {
+            return getDictionaryString(-slot - 1);
+        }
+        return decodeString(getVariableLengthDataBase() + slot);
+    }
+
+    private String decodeString(int offset) {
+        int length = pageSlice.getInt(offset);
+        if (pageBuffer.hasArray()) {
+            return new String(pageBuffer.array(), pageBuffer.offset() + offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE,
+                              length, StandardCharsets.UTF_8);
+        }
+        return new String(copyVariableLengthData(offset, length), StandardCharsets.UTF_8);
+    }
+
+    // Copies variable-length data of a page in direct memory, which has no array to decode from
+    private byte[] copyVariableLengthData(int offset, int length) {
+        byte[] bytes = new byte[length];
+        pageSlice.getBytes(offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE, bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the id of the dictionary entry of a string column, or -1 if the value is null or is not in the dictionary.
+     *
+     * PageBuilder stores repeated strings of a page in a per-page dictionary. Values which have the same id in a page
+     * are the same string, so that consumers can cache work for each entry, such as an escaped string or the result of
+     * a comparison, until the next call of setPage. Ids are not consistent across pages.
+     */
+    public int getStringDictionaryId(Column column) {
+        // TODO check type?
+        return getStringDictionaryId(column.getIndex());
+    }
+
+    public int getStringDictionaryId(int columnIndex) {
+        if (isNull(columnIndex)) {
+            return -1;
+        }
+        int slot = pageSlice.getInt(getOffset(columnIndex));
+        return slot < 0 ? -slot - 1 : -1;
+    }
+
+    /**
+     * Returns the number of entries in the dictionary of the current page.
+     */
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    /**
+     * Returns the string of an entry in the dictionary of the current page.
+     *
+     * The string is decoded once per page, and the same instance is returned for the same id.
+     */
+    public String getDictionaryString(int id) {
+        if (id < 0 || dictionarySize <= id) {
+            throw new IndexOutOfBoundsException("Dictionary id " + id + " is out of the dictionary of size " + dictionarySize);
+        }
+        String value = dictionaryStrings[id];
+        if (value == null) {
+            value = decodeString(getDictionaryEntryOffset(id));
+            dictionaryStrings[id] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns a read-only view of the UTF-8 bytes of a string column without copying them.
+     *
+     * The view is valid until the next call of setPage or close.
+     */
+    public ByteBuffer getStringAsUtf8Bytes(Column column) {
+        // TODO check type?
+        return getStringAsUtf8Bytes(column.getIndex());
+    }
+
+    public ByteBuffer getStringAsUtf8Bytes(int columnIndex) {
+        return getVariableLengthData(columnIndex);
+    }
+
+    /**
+     * Returns a string column as a CharSequence without creating a String.
+     *
+     * The returned CharSequence is reused by this PageReader. It is valid until the next call of this method.
+     */
+    public CharSequence getStringAsCharSequence(Column column) {
+        // TODO check type?
+        return getStringAsCharSequence(column.getIndex());
+    }
+
+    public CharSequence getStringAsCharSequence(int columnIndex) {
+        ByteBuffer bytes = getStringAsUtf8Bytes(columnIndex);
+        if (bytes == null) {
+            return null;
+        }
+        if (utf8Decoder == null) {
+            utf8Decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        if (charSequenceBuffer == null || charSequenceBuffer.capacity() < bytes.remaining()) {
+            // UTF-8 never decodes to more chars than bytes
+            charSequenceBuffer = CharBuffer.allocate(Math.max(bytes.remaining(), 64));
+        }
+        charSequenceBuffer.clear();
+        utf8Decoder.reset();
+        utf8Decoder.decode(bytes, charSequenceBuffer, true);
+        utf8Decoder.flush(charSequenceBuffer);
+        charSequenceBuffer.flip();
+        return charSequenceBuffer;
     }
 
     public Timestamp getTimestamp(Column column) {
@@ -122,104 +296,331 @@ public class PageReader implements AutoCloseable {
         if (isNull(columnIndex)) {
             return null;
         }
-        int index = pageSlice.getInt(getOffset(columnIndex));
-        return page.getValueReference(index);
+        int offset = getVariableLengthDataOffset(columnIndex);
+        int length = pageSlice.getInt(offset);
+        try (MessageUnpacker unpacker = pageBuffer.hasArray()
+                ? MessagePack.newDefaultUnpacker(
+                        pageBuffer.array(), pageBuffer.offset() + offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE, length)
+                : MessagePack.newDefaultUnpacker(copyVariableLengthData(offset, length))) {
+            return unpacker.unpackValue();
+        } catch (IOException ex) {
+            // unexpected
+            throw new RuntimeException(ex);
+        }
     }
 
-    private int getOffset(int columnIndex) {
-        return position + columnOffsets[columnIndex];
+    /**
+     * Returns a read-only view of a JSON column serialized in MessagePack without deserializing it.
+     *
+     * The view is valid until the next call of setPage or close. It can be passed to
+     * PageBuilder#setJsonAsMsgpackBytes to copy the value to another page.
+     */
+    public ByteBuffer getJsonAsMsgpackBytes(Column column) {
+        // TODO check type?
+        return getJsonAsMsgpackBytes(column.getIndex());
     }
 
-    public boolean nextRecord() {
-        if (pageRecordCount <= readCount) {
-            return false;
+    public ByteBuffer getJsonAsMsgpackBytes(int columnIndex) {
+        return getVariableLengthData(columnIndex);
+    }
+
+    /**
+     * Reads boolean values of a column of all records in the current page.
+     *
+     * The cursor of nextRecord is not moved. Values at null positions are undefined.
+     *
+     * @param column  the column to read
+     * @param values  the array to store values, at least as long as the number of records in the page
+     * @param nulls  the array to store whether the value is null, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readBooleans(Column column, boolean[] values, boolean[] nulls) {
+        checkType(column, Types.BOOLEAN);
+        checkLength(values.length, "values");
+        int columnIndex = column.getIndex();
+        readNulls(columnIndex, nulls);
+        for (int i = 0; i < pageRecordCount; i++) {
+            values[i] = pageSlice.getByte(getOffset(columnIndex, i)) != (byte) 0;
         }
+        return pageRecordCount;
+    }
 
-        if (readCount > 0) {
-            // advance position excepting the first record
-            int lastRecordSize = pageSlice.getInt(position);
-            position += lastRecordSize;
+    /**
+     * Reads long values of a column of all records in the current page.
+     *
+     * The cursor of nextRecord is not moved. Values at null positions are undefined.
+     *
+     * @param column  the column to read
+     * @param values  the array to store values, at least as long as the number of records in the page
+     * @param nulls  the array to store whether the value is null, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readLongs(Column column, long[] values, boolean[] nulls) {
+        checkType(column, Types.LONG);
+        checkLength(values.length, "values");
+        int columnIndex = column.getIndex();
+        readNulls(columnIndex, nulls);
+        for (int i = 0; i < pageRecordCount; i++) {
+            values[i] = pageSlice.getLong(getOffset(columnIndex, i));
+        }
+        return pageRecordCount;
+    }
+
+    /**
+     * Reads double values of a column of all records in the current page.
+     *
+     * The cursor of nextRecord is not moved. Values at null positions are undefined.
+     *
+     * @param column  the column to read
+     * @param values  the array to store values, at least as long as the number of records in the page
+     * @param nulls  the array to store whether the value is null, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readDoubles(Column column, double[] values, boolean[] nulls) {
+        checkType(column, Types.DOUBLE);
+        checkLength(values.length, "values");
+        int columnIndex = column.getIndex();
+        readNulls(columnIndex, nulls);
+        for (int i = 0; i < pageRecordCount; i++) {
+            values[i] = pageSlice.getDouble(getOffset(columnIndex, i));
         }
+        return pageRecordCount;
+    }
 
-        readCount++;
-        pageSlice.getBytes(position + 4, nullBitSet, 0, nullBitSet.length);
+    /**
+     * Reads timestamp values of a column of all records in the current page.
+     *
+     * The cursor of nextRecord is not moved. Values at null positions are undefined.
+     *
+     * @param column  the column to read
+     * @param epochSeconds  the array to store seconds from the epoch, at least as long as the number of records in the page
+     * @param nanos  the array to store nanoseconds in the second, at least as long as the number of records in the page
+     * @param nulls  the array to store whether the value is null, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readTimestamps(Column column, long[] epochSeconds, int[] nanos, boolean[] nulls) {
+        checkType(column, Types.TIMESTAMP);
+        checkLength(epochSeconds.length, "epochSeconds");
+        checkLength(nanos.length, "nanos");
+        int columnIndex = column.getIndex();
+        readNulls(columnIndex, nulls);
+        for (int i = 0; i < pageRecordCount; i++) {
+            int offset = getOffset(columnIndex, i);
+            epochSeconds[i] = pageSlice.getLong(offset);
+            nanos[i] = pageSlice.getInt(offset + 8);
+        }
+        return pageRecordCount;
+    }
 
-        return true;
+    /**
+     * Reads string values of a column of all records in the current page.
+     *
+     * The cursor of nextRecord is not moved. Null values are stored as null. Strings in the dictionary of the page
+     * are decoded once per page.
+     *
+     * @param column  the column to read
+     * @param values  the array to store values, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readStrings(Column column, String[] values) {
+        checkType(column, Types.STRING);
+        checkLength(values.length, "values");
+        int columnIndex = column.getIndex();
+        for (int i = 0; i < pageRecordCount; i++) {
+            if (isNull(columnIndex, i)) {
+                values[i] = null;
+                continue;
+            }
+            int slot = pageSlice.getInt(getOffset(columnIndex, i));
+            if (slot < 0) {
+                values[i] = getDictionaryString(-slot - 1);
+            } else {
+                values[i] = decodeString((columnar ? 0 : getRecordPositions()[i]) + slot);
+            }
+        }
+        return pageRecordCount;
     }
 
-    @Override
-    public void close() {
-        page.buffer().release();
-        page = SENTINEL;
+    /**
+     * Reads whether values of a column of all records in the current page are null.
+     *
+     * The cursor of nextRecord is not moved.
+     *
+     * @param column  the column to read
+     * @param nulls  the array to store whether the value is null, at least as long as the number of records in the page
+     * @return the number of records in the current page
+     */
+    public int readNulls(Column column, boolean[] nulls) {
+        readNulls(column.getIndex(), nulls);
+        return pageRecordCount;
+    }
+
+    /**
+     * Stores indexes of records whose value of a column is not null in the current page.
+     *
+     * The selection can be passed to seekRecord to visit only the selected records, or be used to pick values
+     * read by the bulk readers.
+     *
+     * @param column  the column to check
+     * @param selection  the array to store the indexes, at least as long as the number of records in the page
+     * @return the number of indexes stored in selection
+     */
+    public int selectNotNull(Column column, int[] selection) {
+        checkLength(selection.length, "selection");
+        int columnIndex = column.getIndex();
+        int selected = 0;
+        for (int i = 0; i < pageRecordCount; i++) {
+            if (!isNull(columnIndex, i)) {
+                selection[selected++] = i;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Moves the cursor to the record at the index in the current page so that getters read the record.
+     *
+     * nextRecord moves the cursor to the record after it.
+     *
+     * @param recordIndex  the index of the record, from 0 to the number of records in the page - 1
+     */
+    public void seekRecord(int recordIndex) {
+        if (recordIndex < 0 || pageRecordCount <= recordIndex) {
+            throw new IndexOutOfBoundsException("Record index " + recordIndex + " is out of the page of " + pageRecordCount + " records");
+        }
+        readCount = recordIndex + 1;
+        if (!columnar) {
+            position = getRecordPositions()[recordIndex];
+            pageSlice.getBytes(position + 4, nullBitSet, 0, nullBitSet.length);
+        }
     }
 
-    /* TODO for variable-length types
-    public VariableLengthDataReader getVariableLengthData(int columnIndex, int variableLengthDataOffset)
-    {
-        return new VariableLengthDataReader(variableLengthDataOffset);
+    private boolean isNull(int columnIndex, int recordIndex) {
+        if (columnar) {
+            return isColumnarNull(columnIndex, recordIndex);
+        }
+        int nullByteOffset = 4 + (columnIndex >>> 3);
+        return (pageSlice.getByte(getRecordPositions()[recordIndex] + nullByteOffset) & (1 << (columnIndex & 7))) != 0;
     }
 
-    public class VariableLengthDataReader
-    {
-        private int offsetFromPosition;
+    private void readNulls(int columnIndex, boolean[] nulls) {
+        checkLength(nulls.length, "nulls");
+        if (columnar) {
+            for (int i = 0; i < pageRecordCount; i++) {
+                nulls[i] = isColumnarNull(columnIndex, i);
+            }
+        } else {
+            int[] positions = getRecordPositions();
+            int nullByteOffset = 4 + (columnIndex >>> 3);
+            int nullBit = 1 << (columnIndex & 7);
+            for (int i = 0; i < pageRecordCount; i++) {
+                nulls[i] = (pageSlice.getByte(positions[i] + nullByteOffset) & nullBit) != 0;
+            }
+        }
+    }
 
-        VariableLengthDataReader(int offsetFromPosition)
-        {
-            this.offsetFromPosition = offsetFromPosition;
+    private static void checkType(Column column, Type type) {
+        if (!column.getType().equals(type)) {
+            throw new IllegalArgumentException(
+                    "Column " + column.getName() + " is " + column.getType().getName() + ", which can't be read as " + type.getName());
         }
+    }
+
+    private void checkLength(int length, String name) {
+        if (length < pageRecordCount) {
+            throw new IllegalArgumentException("Array " + name + " of " + length + " elements is shorter than " + pageRecordCount + " records");
+        }
+    }
+
+    private int[] getRecordPositions() {
+        if (recordPositions == null) {
+            int[] positions = new int[pageRecordCount];
+            int recordPosition = PageFormat.PAGE_HEADER_SIZE;
+            for (int i = 0; i < pageRecordCount; i++) {
+                positions[i] = recordPosition;
+                recordPosition += pageSlice.getInt(recordPosition);
+            }
+            recordPositions = positions;
+        }
+        return recordPositions;
+    }
 
-        public byte readByte()
-        {
-            byte value = page.getByte(position + offsetFromPosition);
-            offsetFromPosition += 1;
-            return value;
+    private ByteBuffer getVariableLengthData(int columnIndex) {
+        if (isNull(columnIndex)) {
+            return null;
         }
+        int offset = getVariableLengthDataOffset(columnIndex);
+        int length = pageSlice.getInt(offset);
+        int dataOffset = offset + PageFormat.VARIABLE_LENGTH_COLUMN_SIZE;
+        if (pageBuffer.hasArray()) {
+            return ByteBuffer.wrap(pageBuffer.array(), pageBuffer.offset() + dataOffset, length).slice().asReadOnlyBuffer();
+        }
+        ByteBuffer view = pageBuffer.toByteBuffer();
+        view.position(dataOffset);
+        view.limit(dataOffset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
 
-        public short readShort()
-        {
-            short value = page.getShort(position + offsetFromPosition);
-            offsetFromPosition += 2;
-            return value;
+    private int getVariableLengthDataOffset(int columnIndex) {
+        int slot = pageSlice.getInt(getOffset(columnIndex));
+        if (slot < 0) {
+            return getDictionaryEntryOffset(-slot - 1);
         }
+        return getVariableLengthDataBase() + slot;
+    }
 
-        public int readInt()
-        {
-            int value = page.getInt(position + offsetFromPosition);
-            offsetFromPosition += 4;
-            return value;
+    // Fixed slots of variable-length columns store offsets of the data from this base.
+    // It is the head of the record in the row layout, and the head of the page in the columnar layout.
+    private int getVariableLengthDataBase() {
+        if (columnar) {
+            return 0;
         }
+        return position;
+    }
+
+    private int getDictionaryEntryOffset(int id) {
+        return pageSlice.getInt(dictionaryOffset + PageFormat.DICTIONARY_HEADER_SIZE + id * PageFormat.DICTIONARY_ENTRY_SIZE);
+    }
 
-        public long readLong()
-        {
-            long value = page.getLong(position + offsetFromPosition);
-            offsetFromPosition += 8;
-            return value;
+    private int getOffset(int columnIndex) {
+        if (columnar) {
+            return columnarValueOffsets[columnIndex] + (readCount - 1) * columnSizes[columnIndex];
         }
+        return position + columnOffsets[columnIndex];
+    }
 
-        public float readFloat()
-        {
-            float value = page.getFloat(position + offsetFromPosition);
-            offsetFromPosition += 4;
-            return value;
+    private int getOffset(int columnIndex, int recordIndex) {
+        if (columnar) {
+            return columnarValueOffsets[columnIndex] + recordIndex * columnSizes[columnIndex];
         }
+        return getRecordPositions()[recordIndex] + columnOffsets[columnIndex];
+    }
 
-        public double readDouble()
-        {
-            double value = page.getDouble(position + offsetFromPosition);
-            offsetFromPosition += 8;
-            return value;
+    public boolean nextRecord() {
+        if (pageRecordCount <= readCount) {
+            return false;
         }
 
-        public void readBytes(byte[] data)
-        {
-            readBytes(data, 0, data.length);
+        if (columnar) {
+            readCount++;
+            return true;
         }
 
-        public void readBytes(byte[] data, int off, int len)
-        {
-            page.getBytes(position + offsetFromPosition, data, off, len);
-            offsetFromPosition += len;
+        if (readCount > 0) {
+            // advance position excepting the first record
+            int lastRecordSize = pageSlice.getInt(position);
+            position += lastRecordSize;
         }
+
+        readCount++;
+        pageSlice.getBytes(position + 4, nullBitSet, 0, nullBitSet.length);
+
+        return true;
+    }
+
+    @Override
+    public void close() {
+        page.buffer().release();
+        page = SENTINEL;
     }
-    */
 }
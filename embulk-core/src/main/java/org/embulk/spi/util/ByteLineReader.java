@@ -0,0 +1,245 @@
+package org.embulk.spi.util;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+
+/**
+ * A line reader which finds line delimiters in bytes of buffers, and decodes only the bytes of each line.
+ *
+ * It works only with charsets which encode CR and LF as the single bytes 0x0D and 0x0A, and never use these bytes in
+ * other characters. Lines end at LF, CR or CRLF as {@link java.io.BufferedReader#readLine} does. A BOM at the
+ * beginning of a UTF-8 file is skipped. Malformed bytes are replaced when lines are decoded.
+ *
+ * nextLine() gives the bytes of a line without decoding them, so that parsers which understand bytes can decode only
+ * the parts they need. The bytes are valid until the next call of nextLine(), readLine() or nextFile().
+ *
+ * A buffer backed by an array is scanned in the array, and a line in it is given without a copy. A buffer without an
+ * array, such as a memory-mapped one, is scanned in place through its ByteBuffer, and only the bytes of each line are
+ * copied to an array.
+ *
+ * This class is not thread-safe.
+ */
+public class ByteLineReader {
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final FileInput in;
+    private final Charset charset;
+
+    private Buffer buffer = Buffer.EMPTY;
+    private byte[] bytes = EMPTY_BYTES;  // the array of the current buffer
+    private ByteBuffer direct;  // the contents of the current buffer if it has no array, or null
+    private int pos;
+    private int limit;
+    private byte[] line = new byte[256];  // bytes of a line which spans buffers
+    private int lineLength;
+    private boolean lineTaken;  // line holds the last line, which is cleared by the next call
+    private boolean skipLf;
+
+    private byte[] lineBytes = EMPTY_BYTES;  // the last line is lineBytes[lineOffset, lineEnd)
+    private int lineOffset;
+    private int lineEnd;
+
+    public ByteLineReader(FileInput in, Charset charset) {
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("Lines can't be split by bytes in charset " + charset);
+        }
+        this.in = in;
+        this.charset = charset;
+    }
+
+    public static boolean isSupported(Charset charset) {
+        return charset.equals(UTF_8) || charset.equals(US_ASCII) || charset.equals(ISO_8859_1);
+    }
+
+    public boolean nextFile() {
+        releaseBuffer();
+        lineLength = 0;
+        lineTaken = false;
+        skipLf = false;
+        boolean has = in.nextFile();
+        if (has && charset.equals(UTF_8)) {
+            skipBom();
+        }
+        return has;
+    }
+
+    public String readLine() {
+        if (!nextLine()) {
+            return null;
+        }
+        return new String(lineBytes, lineOffset, lineEnd - lineOffset, charset);
+    }
+
+    /**
+     * Reads the next line without decoding it. Returns false at the end of the file.
+     */
+    public boolean nextLine() {
+        if (lineTaken) {
+            lineLength = 0;
+            lineTaken = false;
+        }
+        while (true) {
+            if (pos >= limit) {
+                if (!nextBuffer()) {
+                    // the last line without a delimiter
+                    if (lineLength > 0) {
+                        takeLine();
+                        return true;
+                    }
+                    return false;
+                }
+                continue;
+            }
+            if (skipLf) {
+                skipLf = false;
+                if (byteAt(pos) == '\n') {
+                    pos++;
+                    continue;
+                }
+            }
+
+            int start = pos;
+            int i = start;
+            if (direct == null) {
+                while (i < limit && bytes[i] != '\n' && bytes[i] != '\r') {
+                    i++;
+                }
+            } else {
+                while (i < limit && direct.get(i) != '\n' && direct.get(i) != '\r') {
+                    i++;
+                }
+            }
+            if (i >= limit) {
+                appendBuffer(start, limit - start);
+                pos = limit;
+                continue;
+            }
+            skipLf = (byteAt(i) == '\r');
+            pos = i + 1;
+            if (lineLength == 0 && direct == null) {
+                // the line is in the array of a buffer
+                lineBytes = bytes;
+                lineOffset = start;
+                lineEnd = i;
+                return true;
+            }
+            appendBuffer(start, i - start);
+            takeLine();
+            return true;
+        }
+    }
+
+    public byte[] getLineBytes() {
+        return lineBytes;
+    }
+
+    public int getLineOffset() {
+        return lineOffset;
+    }
+
+    public int getLineLength() {
+        return lineEnd - lineOffset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void close() {
+        releaseBuffer();
+        in.close();
+    }
+
+    private void skipBom() {
+        int matched = 0;
+        while (matched < UTF8_BOM.length) {
+            if (pos >= limit) {
+                if (!nextBuffer()) {
+                    break;
+                }
+                continue;
+            }
+            if (byteAt(pos) != UTF8_BOM[matched]) {
+                break;
+            }
+            pos++;
+            matched++;
+        }
+        if (matched < UTF8_BOM.length) {
+            // not a BOM, but the beginning of the first line which may span buffers
+            appendLine(UTF8_BOM, 0, matched);
+        }
+    }
+
+    private boolean nextBuffer() {
+        releaseBuffer();
+        Buffer b = in.poll();
+        if (b == null) {
+            return false;
+        }
+        buffer = b;
+        if (b.hasArray()) {
+            bytes = b.array();
+            pos = b.offset();
+            limit = b.offset() + b.limit();
+        } else {
+            direct = b.toByteBuffer();
+            pos = 0;
+            limit = b.limit();
+        }
+        return true;
+    }
+
+    private void releaseBuffer() {
+        buffer.release();
+        buffer = Buffer.EMPTY;
+        bytes = EMPTY_BYTES;
+        direct = null;
+        pos = 0;
+        limit = 0;
+    }
+
+    private byte byteAt(int index) {
+        return direct == null ? bytes[index] : direct.get(index);
+    }
+
+    // Appends bytes of the current buffer to the line.
+    private void appendBuffer(int offset, int length) {
+        if (direct == null) {
+            appendLine(bytes, offset, length);
+            return;
+        }
+        ensureLineCapacity(length);
+        ByteBuffer source = direct.duplicate();
+        source.position(offset);
+        source.get(line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void ensureLineCapacity(int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+    }
+
+    private void appendLine(byte[] source, int offset, int length) {
+        ensureLineCapacity(length);
+        System.arraycopy(source, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void takeLine() {
+        lineBytes = line;
+        lineOffset = 0;
+        lineEnd = lineLength;
+        lineTaken = true;
+    }
+}
@@ -0,0 +1,302 @@
+package org.embulk.spi.util;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Conversions parses long, double and boolean values from ranges of characters or bytes without creating Strings.
+ *
+ * Values are accepted in the same way as Long.parseLong and Double.parseDouble. An invalid value, or a value which
+ * needs more than the fast path, is given to them, so that the result and the message of a NumberFormatException are
+ * the same. A double is computed without the JDK if it has at most 18 significant digits and is exactly rounded by a
+ * multiplication or a division by a power of ten. Bytes are characters of an ASCII-compatible charset. They are
+ * decoded with the charset only to be given to the JDK.
+ */
+public class Conversions {
+    private Conversions() {}
+
+    // strings which are true for boolean columns. other strings are false or the default value
+    private static final String[] TRUE_STRINGS = {
+        "true", "True", "TRUE",
+        "yes", "Yes", "YES",
+        "t", "T", "y", "Y",
+        "on", "On", "ON",
+        "1",
+    };
+
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    public static long parseLong(CharSequence chars) {
+        return parseLong(chars, 0, chars.length());
+    }
+
+    public static long parseLong(char[] chars, int offset, int length) {
+        return parseLong(CharBuffer.wrap(chars, offset, length), 0, length);
+    }
+
+    public static long parseLong(CharSequence chars, int offset, int length) {
+        final int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+            negative = chars.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return Long.parseLong(chars.subSequence(offset, end).toString());
+        }
+        // accumulated negatively so that Long.MIN_VALUE doesn't overflow
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = chars.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) {
+                // not an ASCII digit, or overflow
+                return Long.parseLong(chars.subSequence(offset, end).toString());
+            }
+            value = value * 10 - digit;
+        }
+        return negative ? value : -value;
+    }
+
+    public static long parseLong(byte[] bytes, int offset, int length, Charset charset) {
+        final int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return Long.parseLong(new String(bytes, offset, length, charset));
+        }
+        // accumulated negatively so that Long.MIN_VALUE doesn't overflow
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) {
+                // not an ASCII digit, or overflow
+                return Long.parseLong(new String(bytes, offset, length, charset));
+            }
+            value = value * 10 - digit;
+        }
+        return negative ? value : -value;
+    }
+
+    public static double parseDouble(CharSequence chars) {
+        return parseDouble(chars, 0, chars.length());
+    }
+
+    public static double parseDouble(char[] chars, int offset, int length) {
+        return parseDouble(CharBuffer.wrap(chars, offset, length), 0, length);
+    }
+
+    public static double parseDouble(CharSequence chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        // Double.parseDouble trims the value
+        while (i < end && chars.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && chars.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+            negative = chars.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigit = false;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            final char c = chars.charAt(i);
+            if (c == '.' && !inFraction) {
+                inFraction = true;
+                continue;
+            }
+            final int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            hasDigit = true;
+            if (mantissa != 0 || digit != 0) {
+                if (digits >= MAX_FAST_DIGITS) {
+                    return Double.parseDouble(chars.subSequence(offset, offset + length).toString());
+                }
+                mantissa = mantissa * 10 + digit;
+                digits++;
+            }
+            if (inFraction) {
+                exponent--;
+            }
+        }
+        if (hasDigit && i < end && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+                negativeExponent = chars.charAt(i) == '-';
+                i++;
+            }
+            final int start = i;
+            int e = 0;
+            for (; i < end && chars.charAt(i) >= '0' && chars.charAt(i) <= '9'; i++) {
+                e = Math.min(e * 10 + (chars.charAt(i) - '0'), 10000);
+            }
+            if (i == start) {
+                // no digits in the exponent
+                return Double.parseDouble(chars.subSequence(offset, offset + length).toString());
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!hasDigit || i != end) {
+            // invalid, or special values such as NaN, hexadecimal values and suffixes
+            return Double.parseDouble(chars.subSequence(offset, offset + length).toString());
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(chars.subSequence(offset, offset + length).toString());
+        }
+        return exactDouble(negative, mantissa, exponent);
+    }
+
+    public static double parseDouble(byte[] bytes, int offset, int length, Charset charset) {
+        int i = offset;
+        int end = offset + length;
+        // Double.parseDouble trims the value
+        while (i < end && (bytes[i] & 0xff) <= ' ') {
+            i++;
+        }
+        while (end > i && (bytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigit = false;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            final byte c = bytes[i];
+            if (c == '.' && !inFraction) {
+                inFraction = true;
+                continue;
+            }
+            final int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            hasDigit = true;
+            if (mantissa != 0 || digit != 0) {
+                if (digits >= MAX_FAST_DIGITS) {
+                    return Double.parseDouble(new String(bytes, offset, length, charset));
+                }
+                mantissa = mantissa * 10 + digit;
+                digits++;
+            }
+            if (inFraction) {
+                exponent--;
+            }
+        }
+        if (hasDigit && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            final int start = i;
+            int e = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                e = Math.min(e * 10 + (bytes[i] - '0'), 10000);
+            }
+            if (i == start) {
+                // no digits in the exponent
+                return Double.parseDouble(new String(bytes, offset, length, charset));
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!hasDigit || i != end) {
+            // invalid, or special values such as NaN, hexadecimal values and suffixes
+            return Double.parseDouble(new String(bytes, offset, length, charset));
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(bytes, offset, length, charset));
+        }
+        return exactDouble(negative, mantissa, exponent);
+    }
+
+    // Both the mantissa and the power of ten are exact doubles, and so the result is rounded correctly.
+    private static double exactDouble(boolean negative, long mantissa, int exponent) {
+        final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns true if the value is one of the strings which are true for boolean columns, such as "true", "yes", "on"
+     * and "1".
+     */
+    public static boolean isTrue(CharSequence chars) {
+        return isTrue(chars, 0, chars.length());
+    }
+
+    public static boolean isTrue(char[] chars, int offset, int length) {
+        return isTrue(CharBuffer.wrap(chars, offset, length), 0, length);
+    }
+
+    public static boolean isTrue(CharSequence chars, int offset, int length) {
+        for (String trueString : TRUE_STRINGS) {
+            if (trueString.length() == length && matches(trueString, chars, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isTrue(byte[] bytes, int offset, int length) {
+        for (String trueString : TRUE_STRINGS) {
+            if (trueString.length() == length && matches(trueString, bytes, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String string, CharSequence chars, int offset) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != chars.charAt(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String string, byte[] bytes, int offset) {
+        // true strings are ASCII, and so they are the same bytes in ASCII-compatible charsets
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
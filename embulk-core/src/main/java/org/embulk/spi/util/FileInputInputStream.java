@@ -8,6 +8,7 @@ public class FileInputInputStream extends InputStream {
     private final FileInput in;
     private int pos;
     private Buffer buffer = Buffer.EMPTY;
+    private final byte[] oneByte = new byte[1];  // for buffers not backed by an array
 
     public FileInputInputStream(FileInput in) {
         this.in = in;
@@ -34,7 +35,13 @@ public class FileInputInputStream extends InputStream {
                 return -1;
             }
         }
-        byte b = buffer.array()[buffer.offset() + pos];
+        byte b;
+        if (buffer.hasArray()) {
+            b = buffer.array()[buffer.offset() + pos];
+        } else {
+            buffer.getBytes(pos, oneByte, 0, 1);
+            b = oneByte[0];
+        }
         pos++;
         if (pos >= buffer.limit()) {
             releaseBuffer();
@@ -17,8 +17,6 @@ import org.embulk.config.Task;
 import org.embulk.spi.FileInput;
 
 public class LineDecoder implements AutoCloseable, Iterable<String> {
-    // TODO optimize
-
     public static interface DecoderTask extends Task {
         @Config("charset")
         @ConfigDefault("\"utf-8\"")
@@ -35,10 +33,19 @@ public class LineDecoder implements AutoCloseable, Iterable<String> {
 
     private final FileInputInputStream inputStream;
     private final BufferedReader reader;
+    private final ByteLineReader byteReader;  // not null if lines are split by bytes instead of the reader
     private final Charset charset;
 
     public LineDecoder(FileInput in, DecoderTask task) {
         this.charset = task.getCharset();
+        if (ByteLineReader.isSupported(charset) && !task.getLineDelimiterRecognized().isPresent()) {
+            // CR and LF are single bytes which don't appear in other characters of these charsets
+            this.byteReader = new ByteLineReader(in, charset);
+            this.inputStream = null;
+            this.reader = null;
+            return;
+        }
+        this.byteReader = null;
         CharsetDecoder decoder = charset
                 .newDecoder()
                 .onMalformedInput(CodingErrorAction.REPLACE)  // TODO configurable?
@@ -50,6 +57,9 @@ public class LineDecoder implements AutoCloseable, Iterable<String> {
     }
 
     public boolean nextFile() {
+        if (byteReader != null) {
+            return byteReader.nextFile();
+        }
         boolean has = inputStream.nextFile();
         if (has && charset.equals(UTF_8)) {
             skipBom();
@@ -86,6 +96,9 @@ public class LineDecoder implements AutoCloseable, Iterable<String> {
     }
 
     public String poll() {
+        if (byteReader != null) {
+            return byteReader.readLine();
+        }
         try {
             return reader.readLine();
         } catch (IOException ex) {
@@ -95,6 +108,10 @@ public class LineDecoder implements AutoCloseable, Iterable<String> {
     }
 
     public void close() {
+        if (byteReader != null) {
+            byteReader.close();
+            return;
+        }
         try {
             reader.close();
         } catch (IOException ex) {
@@ -0,0 +1,246 @@
+package org.embulk.spi.util;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+
+/**
+ * ReadAheadFileInput reads buffers of another FileInput on a background thread ahead of the reader.
+ *
+ * The background thread fills a queue bounded by the number of buffers and their total bytes. It opens the next file
+ * of the input before the reader finishes the current file, so that waiting for the input overlaps decoding and
+ * parsing. A buffer larger than the byte limit is still queued if the queue is empty. An exception of the background
+ * thread is rethrown to the reader after the buffers read before it. The underlying input is used only by the
+ * background thread until stop() returns, and close() closes it after stopping the thread.
+ */
+public class ReadAheadFileInput implements FileInput {
+    private static final Object END_OF_FILE = new Object();
+    private static final Object END_OF_INPUT = new Object();
+
+    private static class FileStart {
+        private final Optional<String> hint;
+
+        FileStart(Optional<String> hint) {
+            this.hint = hint;
+        }
+    }
+
+    private static class Failure {
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final FileInput input;
+    private final int maxBuffers;
+    private final long maxBytes;
+    private final Thread readerThread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    // guarded by lock
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private int queuedBuffers;
+    private long queuedBytes;
+    private boolean stopped;
+
+    // used by the thread which reads this input
+    private boolean started;
+    private boolean inFile;
+    private boolean finished;
+    private Optional<String> currentHint = Optional.empty();
+
+    public ReadAheadFileInput(FileInput input, int maxBuffers, long maxBytes, String threadName) {
+        if (maxBuffers <= 0) {
+            throw new IllegalArgumentException("Number of buffers to read ahead must be positive: " + maxBuffers);
+        }
+        this.input = input;
+        this.maxBuffers = maxBuffers;
+        this.maxBytes = maxBytes;
+        this.readerThread = new Thread(new Runnable() {
+                public void run() {
+                    readAhead();
+                }
+            }, threadName);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (input.nextFile()) {
+                if (!put(new FileStart(input.hintOfCurrentInputFileNameForLogging()))) {
+                    return;
+                }
+                while (true) {
+                    Buffer buffer = input.poll();
+                    if (buffer == null) {
+                        break;
+                    }
+                    if (!put(buffer)) {
+                        return;
+                    }
+                }
+                if (!put(END_OF_FILE)) {
+                    return;
+                }
+            }
+            put(END_OF_INPUT);
+        } catch (Throwable ex) {
+            put(new Failure(ex));
+        }
+    }
+
+    // Returns false if the queue is stopped, after releasing the buffer.
+    private boolean put(Object entry) {
+        lock.lock();
+        try {
+            if (entry instanceof Buffer) {
+                long bytes = ((Buffer) entry).limit();
+                while (!stopped && queuedBuffers > 0 && (queuedBuffers >= maxBuffers || queuedBytes + bytes > maxBytes)) {
+                    notFull.await();
+                }
+                if (stopped) {
+                    ((Buffer) entry).release();
+                    return false;
+                }
+                queuedBuffers++;
+                queuedBytes += bytes;
+            } else if (stopped) {
+                return false;
+            }
+            queue.addLast(entry);
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException ex) {
+            if (entry instanceof Buffer) {
+                ((Buffer) entry).release();
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object take() {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !stopped) {
+                notEmpty.awaitUninterruptibly();
+            }
+            if (stopped) {
+                throw new IllegalStateException("Reading ahead has stopped");
+            }
+            Object entry = queue.peekFirst();
+            if (entry instanceof Failure) {
+                // kept so that the failure is rethrown again
+                Throwable cause = ((Failure) entry).cause;
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+            queue.pollFirst();
+            if (entry instanceof Buffer) {
+                queuedBuffers--;
+                queuedBytes -= ((Buffer) entry).limit();
+                notFull.signal();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean nextFile() {
+        // skips the rest of the current file
+        while (inFile) {
+            Object entry = take();
+            if (entry == END_OF_FILE) {
+                inFile = false;
+            } else {
+                ((Buffer) entry).release();
+            }
+        }
+        if (finished) {
+            return false;
+        }
+        started = true;
+        Object entry = take();
+        if (entry == END_OF_INPUT) {
+            finished = true;
+            currentHint = Optional.empty();
+            return false;
+        }
+        inFile = true;
+        currentHint = ((FileStart) entry).hint;
+        return true;
+    }
+
+    @Override
+    public Buffer poll() {
+        if (!started) {
+            throw new IllegalStateException("nextFile() must be called before poll()");
+        }
+        if (!inFile) {
+            return null;
+        }
+        Object entry = take();
+        if (entry == END_OF_FILE) {
+            inFile = false;
+            return null;
+        }
+        return (Buffer) entry;
+    }
+
+    /**
+     * Stops the background thread, and waits until it stops using the underlying input. Buffers which are not read
+     * are released. The background thread is interrupted so that it doesn't finish a blocking read of the input
+     * before stopping.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            while (!queue.isEmpty()) {
+                Object entry = queue.pollFirst();
+                if (entry instanceof Buffer) {
+                    ((Buffer) entry).release();
+                }
+            }
+            queuedBuffers = 0;
+            queuedBytes = 0;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        readerThread.interrupt();
+        try {
+            readerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+        input.close();
+    }
+
+    @Override
+    public Optional<String> hintOfCurrentInputFileNameForLogging() {
+        return currentHint;
+    }
+}
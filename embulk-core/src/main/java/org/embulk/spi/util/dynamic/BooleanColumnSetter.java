@@ -1,20 +1,12 @@
 package org.embulk.spi.util.dynamic;
 
-import com.google.common.collect.ImmutableSet;
 import org.embulk.spi.Column;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.Conversions;
 import org.msgpack.value.Value;
 
 public class BooleanColumnSetter extends AbstractDynamicColumnSetter {
-    private static final ImmutableSet<String> TRUE_STRINGS =
-            ImmutableSet.of(
-                    "true", "True", "TRUE",
-                    "yes", "Yes", "YES",
-                    "t", "T", "y", "Y",
-                    "on", "On",
-                    "ON", "1");
-
     public BooleanColumnSetter(PageBuilder pageBuilder, Column column,
             DefaultValueSetter defaultValue) {
         super(pageBuilder, column, defaultValue);
@@ -42,7 +34,7 @@ public class BooleanColumnSetter extends AbstractDynamicColumnSetter {
 
     @Override
     public void set(String v) {
-        if (TRUE_STRINGS.contains(v)) {
+        if (Conversions.isTrue(v)) {
             pageBuilder.setBoolean(column, true);
         } else {
             defaultValue.setBoolean(pageBuilder, column);
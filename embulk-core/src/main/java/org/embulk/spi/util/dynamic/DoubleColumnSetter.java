@@ -3,6 +3,7 @@ package org.embulk.spi.util.dynamic;
 import org.embulk.spi.Column;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.Conversions;
 import org.msgpack.value.Value;
 
 public class DoubleColumnSetter extends AbstractDynamicColumnSetter {
@@ -35,7 +36,7 @@ public class DoubleColumnSetter extends AbstractDynamicColumnSetter {
     public void set(String v) {
         double dv;
         try {
-            dv = Double.parseDouble(v);
+            dv = Conversions.parseDouble(v);
         } catch (NumberFormatException e) {
             defaultValue.setDouble(pageBuilder, column);
             return;
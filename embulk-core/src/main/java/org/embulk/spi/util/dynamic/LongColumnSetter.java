@@ -5,6 +5,7 @@ import java.math.RoundingMode;
 import org.embulk.spi.Column;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.Conversions;
 import org.msgpack.value.Value;
 
 public class LongColumnSetter extends AbstractDynamicColumnSetter {
@@ -46,7 +47,7 @@ public class LongColumnSetter extends AbstractDynamicColumnSetter {
     public void set(String v) {
         long lv;
         try {
-            lv = Long.parseLong(v);
+            lv = Conversions.parseLong(v);
         } catch (NumberFormatException e) {
             defaultValue.setLong(pageBuilder, column);
             return;
@@ -0,0 +1,67 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TestBufferMemoryBudget {
+    @Test
+    public void testUnlimited() {
+        BufferMemoryBudget budget = new BufferMemoryBudget(Long.MAX_VALUE, Long.MAX_VALUE, 0);
+        assertFalse(budget.isLimited());
+        BufferMemoryBudget.Usage usage1 = budget.acquire(100);
+        BufferMemoryBudget.Usage usage2 = budget.acquire(200);
+        assertEquals(300, budget.getStats().getCurrentBytes());
+        budget.release(usage1, 100);
+        assertEquals(200, budget.getStats().getCurrentBytes());
+        assertEquals(300, budget.getStats().getPeakBytes());
+        budget.release(usage2, 200);
+        assertEquals(0, budget.getStats().getCurrentBytes());
+        assertEquals(0, budget.getStats().getWaitCount());
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final BufferMemoryBudget budget = new BufferMemoryBudget(300, Long.MAX_VALUE, 60000);
+        assertTrue(budget.isLimited());
+        final BufferMemoryBudget.Usage usage = budget.acquire(200);
+        budget.acquire(100);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                budget.acquire(100);  // the first allocation of a thread never waits
+                budget.acquire(100);
+                acquired.countDown();
+            }
+        };
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(100, budget.getStats().getWaitingBytes());
+        budget.release(usage, 200);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        thread.join();
+
+        assertEquals(300, budget.getStats().getCurrentBytes());
+        assertEquals(400, budget.getStats().getPeakBytes());
+        assertEquals(0, budget.getStats().getWaitingBytes());
+        assertEquals(1, budget.getStats().getWaitCount());
+        assertEquals(0, budget.getStats().getOverLimitCount());
+    }
+
+    @Test
+    public void testLimitPerThread() {
+        BufferMemoryBudget budget = new BufferMemoryBudget(Long.MAX_VALUE, 150, 0);
+        budget.acquire(100);
+        budget.acquire(100);  // goes over the limit without waiting
+        assertEquals(200, budget.getStats().getCurrentBytes());
+        assertEquals(1, budget.getStats().getWaitCount());
+        assertEquals(1, budget.getStats().getOverLimitCount());
+    }
+}
@@ -0,0 +1,138 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Page;
+import org.junit.Test;
+
+public class TestGatherPageQueue {
+    @Test
+    public void testTakeUntilAllProducersAreDone() throws Exception {
+        GatherPageQueue queue = new GatherPageQueue(2, 2);
+        Page page1 = newPage();
+        Page page2 = newPage();
+        queue.put(page1);
+        queue.done();
+        queue.put(page2);
+        assertSame(page1, queue.take());
+        assertSame(page2, queue.take());
+        queue.done();
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testProducerThreads() throws Exception {
+        final GatherPageQueue queue = new GatherPageQueue(3, 4);
+        final int countPerProducer = 2000;
+        List<Thread> producers = new ArrayList<>();
+        final List<Page> put = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final List<Page> pages = new ArrayList<>();
+            for (int j = 0; j < countPerProducer; j++) {
+                pages.add(newPage());
+            }
+            put.addAll(pages);
+            producers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (Page page : pages) {
+                            queue.put(page);
+                        }
+                        queue.done();
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        Set<Page> taken = new HashSet<>();
+        while (true) {
+            Page page = queue.take();
+            if (page == null) {
+                break;
+            }
+            taken.add(page);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(new HashSet<>(put), taken);
+
+        PageQueueStats stats = new PageQueueStats();
+        queue.addStatsTo(stats);
+        assertEquals(4 * countPerProducer, stats.getPageCount());
+    }
+
+    @Test
+    public void testCloseStopsBothSides() throws Exception {
+        GatherPageQueue queue = new GatherPageQueue(2, 2);
+        queue.put(newPage());
+        queue.done();
+        queue.closeIfIncomplete();
+        try {
+            queue.take();
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        try {
+            queue.put(newPage());
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCloseIfIncompleteAfterAllDone() throws Exception {
+        GatherPageQueue queue = new GatherPageQueue(2, 1);
+        Page page = newPage();
+        queue.put(page);
+        queue.done();
+        queue.closeIfIncomplete();
+        assertSame(page, queue.take());
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testAddProducer() throws Exception {
+        GatherPageQueue queue = new GatherPageQueue(2, 1);
+        queue.addProducer();
+        queue.done();
+        Page page = newPage();
+        queue.put(page);
+        assertSame(page, queue.take());
+        queue.done();
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testFailWithCause() throws Exception {
+        GatherPageQueue queue = new GatherPageQueue(2, 1);
+        RuntimeException cause = new RuntimeException("input failed");
+        queue.fail(cause);
+        try {
+            queue.take();
+            fail();
+        } catch (IllegalStateException ex) {
+            assertSame(cause, ex.getCause());
+        }
+    }
+
+    private static Page newPage() {
+        return Page.wrap(Buffer.allocate(1));
+    }
+}
@@ -0,0 +1,145 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.embulk.config.DataSourceImpl;
+import org.embulk.exec.LocalExecutorPlugin.ScatterExecutor;
+import org.embulk.exec.LocalExecutorPlugin.ScatterRouting;
+import org.embulk.exec.LocalExecutorPlugin.SpeculativeExecutor;
+import org.embulk.exec.LocalExecutorPlugin.SpeculativeExecutor.TaskAttempts;
+import org.embulk.spi.ProcessState;
+import org.embulk.spi.TaskState;
+import org.junit.Test;
+
+public class TestLocalExecutorPlugin {
+    @Test
+    public void testOrderByCosts() {
+        assertArrayEquals(new int[] {0, 1, 2, 3}, LocalExecutorPlugin.orderByCosts(Optional.<long[]>empty(), 4));
+        assertArrayEquals(new int[] {2, 1, 3, 0}, LocalExecutorPlugin.orderByCosts(Optional.of(new long[] {1, 5, 9, 5}), 4));
+        assertArrayEquals(new int[] {}, LocalExecutorPlugin.orderByCosts(Optional.of(new long[] {}), 0));
+    }
+
+    @Test
+    public void testGatherTaskIndexes() {
+        int[] inputTaskCounts = new int[3];
+        for (int i = 0; i < 7; i++) {
+            inputTaskCounts[LocalExecutorPlugin.GatherExecutor.getOutputTaskIndex(i, 7, 3)]++;
+        }
+        assertArrayEquals(new int[] {3, 2, 2}, inputTaskCounts);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(inputTaskCounts[i], LocalExecutorPlugin.GatherExecutor.getInputTaskCountOf(i, 7, 3));
+        }
+    }
+
+    private static ProcessState newProcessState(final int inputTaskCount, final int outputTaskCount) {
+        final TaskState[] inputTaskStates = new TaskState[inputTaskCount];
+        final TaskState[] outputTaskStates = new TaskState[outputTaskCount];
+        for (int i = 0; i < inputTaskCount; i++) {
+            inputTaskStates[i] = new TaskState();
+        }
+        for (int i = 0; i < outputTaskCount; i++) {
+            outputTaskStates[i] = new TaskState();
+        }
+        return new ProcessState() {
+            public void initialize(int inputTaskCount, int outputTaskCount) {}
+
+            public TaskState getInputTaskState(int inputTaskIndex) {
+                return inputTaskStates[inputTaskIndex];
+            }
+
+            public TaskState getOutputTaskState(int outputTaskIndex) {
+                return outputTaskStates[outputTaskIndex];
+            }
+        };
+    }
+
+    @Test
+    public void testScatterRoutingOnResume() {
+        ProcessState state = newProcessState(2, 6);
+        assertEquals(ScatterRouting.LEAST_LOADED, ScatterExecutor.getTaskRouting(ScatterRouting.LEAST_LOADED, state, 1, 3));
+
+        // output task 4 is the second output task of input task 1
+        state.getOutputTaskState(4).setTaskReport(new DataSourceImpl(null));
+        assertEquals(ScatterRouting.ROUND_ROBIN, ScatterExecutor.getTaskRouting(ScatterRouting.LEAST_LOADED, state, 1, 3));
+        assertEquals(ScatterRouting.LEAST_LOADED, ScatterExecutor.getTaskRouting(ScatterRouting.LEAST_LOADED, state, 0, 3));
+        assertEquals(ScatterRouting.ROUND_ROBIN, ScatterExecutor.getTaskRouting(ScatterRouting.ROUND_ROBIN, state, 0, 3));
+    }
+
+    @Test
+    public void testStraggler() {
+        long second = 1000L * 1000 * 1000;
+        assertEquals(3 * second, SpeculativeExecutor.getMedian(Arrays.asList(5 * second, 1 * second, 3 * second)));
+        assertTrue(SpeculativeExecutor.isStraggler(5 * second, 3 * second, 1.5));
+        assertFalse(SpeculativeExecutor.isStraggler(4 * second, 3 * second, 1.5));
+        assertFalse(SpeculativeExecutor.isStraggler(second / 10, second / 100, 1.5));  // too short to start another attempt
+    }
+
+    @Test
+    public void testFirstCommitWins() throws Exception {
+        TaskAttempts attempts = new TaskAttempts(0);
+        assertEquals(1, attempts.addAttempt());
+        assertEquals(-1, attempts.addAttempt());  // only one speculative attempt
+
+        assertTrue(attempts.claimCommit(1));
+        assertTrue(attempts.isLost(0));
+        assertFalse(attempts.claimCommit(0));
+        assertFalse(attempts.attemptFinished(1, true, null));
+        assertTrue(attempts.attemptFinished(0, false, new IllegalStateException("lost")));
+        attempts.complete();
+        assertNull(attempts.getResult().get());
+    }
+
+    @Test
+    public void testFailedCommitLetsOtherAttemptCommit() throws Exception {
+        TaskAttempts attempts = new TaskAttempts(0);
+        assertEquals(1, attempts.addAttempt());
+
+        IllegalStateException error = new IllegalStateException("commit failed");
+        assertTrue(attempts.claimCommit(0));
+        attempts.releaseCommit();
+        assertFalse(attempts.attemptFinished(0, false, error));
+        assertFalse(attempts.isLost(1));
+        assertTrue(attempts.attemptFinished(1, false, new IllegalStateException("input failed")));
+        attempts.complete();
+        assertSame(error, attempts.getResult().get());
+    }
+
+    @Test
+    public void testCommitInterruptsLostAttempt() throws Exception {
+        TaskAttempts attempts = new TaskAttempts(0);
+        assertEquals(1, attempts.addAttempt());
+
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread straggler = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(60000);  // hangs
+                    } catch (InterruptedException ex) {
+                        interrupted.set(true);
+                    }
+                }
+            });
+        attempts.attemptStarted(0, straggler);
+        attempts.attemptStarted(1, Thread.currentThread());
+        straggler.start();
+
+        assertTrue(attempts.claimCommit(1));
+        attempts.interruptLostAttempts(1);
+        straggler.join();
+        assertTrue(interrupted.get());
+        assertFalse(Thread.currentThread().isInterrupted());  // the winner isn't interrupted
+
+        assertFalse(attempts.attemptFinished(0, false, new IllegalStateException("interrupted")));
+        assertTrue(attempts.attemptFinished(1, true, null));
+        attempts.complete();
+        assertNull(attempts.getResult().get());
+    }
+}
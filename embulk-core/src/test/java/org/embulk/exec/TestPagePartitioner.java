@@ -0,0 +1,90 @@
+package org.embulk.exec;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfigException;
+import org.embulk.spi.TestPageBuilderReader.MockPageOutput;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPagePartitioner {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testPartitionByKey() {
+        Schema schema = Schema.builder().add("tenant", STRING).add("id", LONG).build();
+        MockPageOutput input = new MockPageOutput();
+        try (PageBuilder builder = new PageBuilder(runtime.getBufferAllocator(), schema, input)) {
+            for (int i = 0; i < 1000; i++) {
+                if (i % 10 == 0) {
+                    builder.setNull(0);
+                } else {
+                    builder.setString(0, "tenant" + (i % 7));
+                }
+                builder.setLong(1, i);
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+
+        MockPageOutput[] outputs = new MockPageOutput[] {new MockPageOutput(), new MockPageOutput(), new MockPageOutput()};
+        try (PagePartitioner partitioner = new PagePartitioner(runtime.getBufferAllocator(), schema, Arrays.asList("tenant"), outputs)) {
+            for (Page page : input.pages) {
+                partitioner.add(page);
+            }
+            partitioner.finish();
+        }
+
+        Map<String, Integer> partitionsOfTenants = new HashMap<>();
+        int count = 0;
+        for (int partition = 0; partition < outputs.length; partition++) {
+            try (PageReader reader = new PageReader(schema)) {
+                for (Page page : outputs[partition].pages) {
+                    reader.setPage(page);
+                    while (reader.nextRecord()) {
+                        long id = reader.getLong(1);
+                        String tenant = reader.getString(0);
+                        assertEquals(id % 10 == 0 ? null : "tenant" + (id % 7), tenant);
+                        Integer previous = partitionsOfTenants.put(String.valueOf(tenant), partition);
+                        assertTrue(previous == null || previous.intValue() == partition);
+                        count++;
+                    }
+                }
+            }
+        }
+        assertEquals(1000, count);
+        assertEquals(8, partitionsOfTenants.size());  // 7 tenants and null
+    }
+
+    @Test
+    public void testUnknownKeyColumn() {
+        Schema schema = Schema.builder().add("tenant", STRING).add("id", LONG).build();
+        assertArrayEquals(new int[] {1, 0}, PagePartitioner.lookupKeyColumns(schema, Arrays.asList("id", "tenant")));
+        try {
+            PagePartitioner.lookupKeyColumns(schema, Arrays.asList("tenant", "user"));
+            fail();
+        } catch (SchemaConfigException ex) {
+            assertEquals("Column 'user' is not found", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPartitionIsNonNegative() {
+        assertTrue(PagePartitioner.getPartition(Integer.MIN_VALUE, 3) >= 0);
+        assertTrue(PagePartitioner.getPartition(-1, 3) >= 0);
+    }
+}
@@ -0,0 +1,93 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Page;
+import org.junit.Test;
+
+public class TestPageQueue {
+    @Test
+    public void testPutAndTake() throws Exception {
+        PageQueue queue = new PageQueue(2);
+        Page page1 = newPage();
+        Page page2 = newPage();
+        queue.put(page1);
+        queue.put(page2);
+        queue.done();
+        assertSame(page1, queue.take());
+        assertSame(page2, queue.take());
+        assertNull(queue.take());
+
+        PageQueueStats stats = new PageQueueStats();
+        queue.addStatsTo(stats);
+        assertEquals(2, stats.getPageCount());
+        assertEquals(2, stats.getPeakOccupancy());
+        assertEquals(1.5, stats.getAverageOccupancy(), 0.0);
+        assertEquals(0, stats.getFullCount());
+    }
+
+    @Test
+    public void testProducerAndConsumerThreads() throws Exception {
+        final PageQueue queue = new PageQueue(3);
+        final int count = 10000;
+        final List<Page> taken = new ArrayList<>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Page page = queue.take();
+                        if (page == null) {
+                            return;
+                        }
+                        taken.add(page);
+                    }
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                } finally {
+                    queue.close();
+                }
+            }
+        };
+        consumer.start();
+
+        List<Page> put = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Page page = newPage();
+            put.add(page);
+            queue.put(page);
+        }
+        queue.done();
+        consumer.join();
+
+        assertEquals(put, taken);
+        PageQueueStats stats = new PageQueueStats();
+        queue.addStatsTo(stats);
+        assertEquals(count, stats.getPageCount());
+        assertTrue(stats.getPeakOccupancy() <= 3);
+    }
+
+    @Test
+    public void testPutAfterClose() throws Exception {
+        PageQueue queue = new PageQueue(1);
+        queue.put(newPage());
+        assertFalse(queue.isClosed());
+        queue.close();
+        assertTrue(queue.isClosed());
+        queue.put(newPage());  // doesn't wait for the closed consumer
+        queue.releaseRemaining();
+        queue.done();
+        assertNull(queue.take());
+    }
+
+    private static Page newPage() {
+        return Page.wrap(Buffer.allocate(1));
+    }
+}
@@ -0,0 +1,104 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPipelinedPageOutput {
+    private static class RecordingPageOutput implements PageOutput {
+        private final List<Page> pages = new ArrayList<>();
+        private final int failAt;
+        private volatile Thread thread;
+        private volatile boolean finished;
+        private volatile boolean closed;
+
+        RecordingPageOutput(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void add(Page page) {
+            thread = Thread.currentThread();
+            if (pages.size() == failAt) {
+                throw new IllegalStateException("failed");
+            }
+            pages.add(page);
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private ExecutorService executor;
+    private PageQueueStats stats;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        stats = new PageQueueStats();
+    }
+
+    @After
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testPassPagesThroughStages() {
+        RecordingPageOutput output = new RecordingPageOutput(-1);
+        PipelinedPageOutput stage2 = new PipelinedPageOutput(output, executor, 2, stats, "stage2");
+        PipelinedPageOutput stage1 = new PipelinedPageOutput(stage2, executor, 2, stats, "stage1");
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Page page = Page.wrap(Buffer.allocate(1));
+            pages.add(page);
+            stage1.add(page);
+        }
+        stage1.finish();
+        assertTrue(output.finished);
+        assertEquals(pages, output.pages);
+        assertFalse(output.thread == Thread.currentThread());
+
+        stage1.close();
+        assertTrue(output.closed);
+        assertEquals(2, stats.getQueueCount());
+        assertEquals(2000, stats.getPageCount());
+    }
+
+    @Test
+    public void testRethrowExceptionOfStage() {
+        RecordingPageOutput output = new RecordingPageOutput(5);
+        PipelinedPageOutput stage = new PipelinedPageOutput(output, executor, 2, stats, "stage");
+        try {
+            for (int i = 0; i < 100; i++) {
+                stage.add(Page.wrap(Buffer.allocate(1)));
+            }
+            stage.finish();
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("failed", ex.getMessage());
+        }
+        assertFalse(output.finished);
+        stage.close();
+        assertTrue(output.closed);
+    }
+}
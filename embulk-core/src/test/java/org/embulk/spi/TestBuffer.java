@@ -1,8 +1,10 @@
 package org.embulk.spi;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import org.junit.Test;
 
 public class TestBuffer {
@@ -19,4 +21,28 @@ public class TestBuffer {
         assertFalse(b1.hashCode() == b2.hashCode());
         assertTrue(b2.hashCode() == b3.hashCode());
     }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        Buffer direct = Buffer.wrap(ByteBuffer.allocateDirect(5));
+        assertFalse(direct.hasArray());
+        direct.setBytes(0, new byte[] { 1, 2, 3, 2, 3 }, 0, 5);
+
+        Buffer heap = Buffer.wrap(new byte[] { 1, 2, 3, 2, 3 });
+        assertTrue(heap.hasArray());
+        assertTrue(direct.equals(heap));
+        assertTrue(heap.equals(direct));
+        assertTrue(direct.hashCode() == heap.hashCode());
+
+        Buffer copied = Buffer.wrap(ByteBuffer.allocateDirect(2));
+        copied.setBytes(0, direct, 3, 2);
+        byte[] bytes = new byte[2];
+        copied.getBytes(0, bytes, 0, 2);
+        assertArrayEquals(new byte[] { 2, 3 }, bytes);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDirectBufferHasNoArray() throws Exception {
+        Buffer.wrap(ByteBuffer.allocateDirect(1)).array();
+    }
 }
@@ -6,15 +6,21 @@ import static org.embulk.spi.type.Types.JSON;
 import static org.embulk.spi.type.Types.LONG;
 import static org.embulk.spi.type.Types.STRING;
 import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.msgpack.value.ValueFactory.newBoolean;
 import static org.msgpack.value.ValueFactory.newInteger;
 import static org.msgpack.value.ValueFactory.newMap;
 import static org.msgpack.value.ValueFactory.newString;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.spi.time.Timestamp;
@@ -49,6 +55,7 @@ public class TestPageBuilderReader {
     }
 
     private BufferAllocator bufferAllocator;
+    private PageLayout layout = PageLayout.ROW;
     private PageReader reader;
     private PageBuilder builder;
 
@@ -108,6 +115,150 @@ public class TestPageBuilderReader {
                 "test1", "test1");
     }
 
+    @Test
+    public void testMultiByteStrings() {
+        check(Schema.builder().add("col1", STRING).add("col2", STRING).build(),
+                "あいう", "",
+                "café", "😀");
+    }
+
+    @Test
+    public void testColumnarStrings() {
+        this.layout = PageLayout.COLUMNAR;
+        testDuplicateStringsMultiColumns();
+        testMultiByteStrings();
+    }
+
+    @Test
+    public void testStringViews() {
+        Schema schema = Schema.builder().add("col1", STRING).add("col2", STRING).build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            Page page = buildPage(schema, "café", null);
+            this.reader = new PageReader(schema);
+            reader.setPage(page);
+            assertTrue(reader.nextRecord());
+
+            ByteBuffer bytes = reader.getStringAsUtf8Bytes(0);
+            assertTrue(bytes.isReadOnly());
+            byte[] copied = new byte[bytes.remaining()];
+            bytes.get(copied);
+            assertArrayEquals("café".getBytes(StandardCharsets.UTF_8), copied);
+            assertEquals("café", reader.getStringAsCharSequence(0).toString());
+            assertNull(reader.getStringAsUtf8Bytes(1));
+            assertNull(reader.getStringAsCharSequence(1));
+            reader.close();
+            this.reader = null;
+        }
+    }
+
+    @Test
+    public void testStringDictionary() {
+        Schema schema = Schema.builder().add("col1", STRING).add("col2", STRING).build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            Page page = buildPage(schema, "JP", "a", "US", "b", "JP", null, "US", "JP");
+            this.reader = new PageReader(schema);
+            reader.setPage(page);
+            assertEquals(4, reader.getDictionarySize());  // "JP", "a", "US" and "b"
+
+            assertTrue(reader.nextRecord());
+            int jp = reader.getStringDictionaryId(0);
+            assertEquals("JP", reader.getString(0));
+            assertEquals("JP", reader.getDictionaryString(jp));
+            assertTrue(reader.nextRecord());
+            int us = reader.getStringDictionaryId(0);
+            assertFalse(jp == us);
+            assertTrue(reader.nextRecord());
+            assertEquals(jp, reader.getStringDictionaryId(0));
+            assertEquals(-1, reader.getStringDictionaryId(1));
+            assertTrue(reader.nextRecord());
+            assertEquals(us, reader.getStringDictionaryId(0));
+            assertEquals(jp, reader.getStringDictionaryId(1));
+            assertTrue(reader.getString(0) == reader.getDictionaryString(us));
+            assertArrayEquals("US".getBytes(StandardCharsets.UTF_8), toBytes(reader.getStringAsUtf8Bytes(0)));
+            assertFalse(reader.nextRecord());
+            reader.close();
+            this.reader = null;
+        }
+    }
+
+    @Test
+    public void testStringDictionaryGivesUpUniqueStrings() {
+        Schema schema = Schema.builder().add("col1", STRING).add("col2", STRING).build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            List<Object> objects = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                objects.add("category" + (i % 3));
+                objects.add("unique" + i);
+            }
+            List<Page> pages = buildPages(schema, objects.toArray());
+            this.reader = new PageReader(schema);
+            int i = 0;
+            for (Page page : pages) {
+                reader.setPage(page);
+                assertTrue(reader.getDictionarySize() < 100);
+                while (reader.nextRecord()) {
+                    assertTrue(reader.getStringDictionaryId(0) >= 0);
+                    assertEquals("category" + (i % 3), reader.getString(0));
+                    assertEquals("unique" + i, reader.getString(1));
+                    i++;
+                }
+            }
+            assertEquals(200, i);
+            reader.close();
+            this.reader = null;
+        }
+    }
+
+    @Test
+    public void testStringDictionaryStaysGivenUpInNextPages() {
+        Schema schema = Schema.builder().add("col1", STRING).add("col2", STRING).build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            MockPageOutput output = new MockPageOutput();
+            builder = new PageBuilder(bufferAllocator, schema, output, pageLayout);
+            for (int i = 0; i < 100; i++) {
+                builder.setString(0, "category" + (i % 3));
+                builder.setString(1, "unique" + i);
+                builder.addRecord();
+            }
+            // pages with one record each
+            for (int i = 0; i < 20; i++) {
+                builder.flush();
+                builder.setString(0, "category0");
+                builder.setString(1, "next" + i);
+                builder.addRecord();
+            }
+            builder.finish();
+            builder.close();
+            builder = null;
+
+            assertEquals(21, output.pages.size());
+            reader = new PageReader(schema);
+            reader.setPage(output.pages.get(1));
+            assertEquals(1, reader.getDictionarySize());  // "category0" only
+            assertTrue(reader.nextRecord());
+            assertEquals(-1, reader.getStringDictionaryId(1));
+            assertEquals("next0", reader.getString(1));
+
+            // the column tries the dictionary again after some pages
+            reader.setPage(output.pages.get(20));
+            assertEquals(2, reader.getDictionarySize());
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.getStringDictionaryId(1) >= 0);
+            assertEquals("next19", reader.getString(1));
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
     @Test
     public void testTimestamp() {
         check(Schema.builder().add("col1", TIMESTAMP).build(),
@@ -119,6 +270,35 @@ public class TestPageBuilderReader {
         check(Schema.builder().add("col1", JSON).build(), getJsonSampleData());
     }
 
+    @Test
+    public void testColumnarJson() {
+        this.layout = PageLayout.COLUMNAR;
+        testJson();
+    }
+
+    @Test
+    public void testCopyJsonAsMsgpackBytes() {
+        Schema schema = Schema.builder().add("col1", JSON).add("col2", JSON).build();
+        Page page = buildPage(schema, getJsonSampleData(), null);
+        this.reader = new PageReader(schema);
+        reader.setPage(page);
+        assertTrue(reader.nextRecord());
+        assertNull(reader.getJsonAsMsgpackBytes(1));
+
+        MockPageOutput output = new MockPageOutput();
+        try (PageBuilder copier = new PageBuilder(bufferAllocator, schema, output)) {
+            copier.setJsonAsMsgpackBytes(0, reader.getJsonAsMsgpackBytes(0));
+            copier.setJsonAsMsgpackBytes(1, reader.getJsonAsMsgpackBytes(1));
+            copier.addRecord();
+            copier.finish();
+        }
+        reader.setPage(output.pages.get(0));
+        assertTrue(reader.nextRecord());
+        assertEquals(getJsonSampleData(), reader.getJson(0));
+        assertTrue(reader.isNull(1));
+        assertFalse(reader.nextRecord());
+    }
+
     @Test
     public void testNull() {
         check(Schema.builder()
@@ -147,6 +327,297 @@ public class TestPageBuilderReader {
                 140.15, "val2", Long.MAX_VALUE, true, Timestamp.ofEpochMilli(10), getJsonSampleData());
     }
 
+    @Test
+    public void testColumnarMixedTypes() {
+        this.layout = PageLayout.COLUMNAR;
+        testMixedTypes();
+    }
+
+    @Test
+    public void testColumnarNull() {
+        this.layout = PageLayout.COLUMNAR;
+        testNull();
+    }
+
+    @Test
+    public void testColumnarRenewPage() {
+        this.layout = PageLayout.COLUMNAR;
+        testRenewPage();
+    }
+
+    @Test
+    public void testDirectMemoryPages() {
+        final BufferAllocator heapAllocator = bufferAllocator;
+        this.bufferAllocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return heapAllocator.allocate();
+            }
+
+            @Override
+            public Buffer allocate(int minimumCapacity) {
+                return heapAllocator.allocate(minimumCapacity);
+            }
+
+            @Override
+            public Buffer allocatePage(int minimumCapacity) {
+                return Buffer.wrap(ByteBuffer.allocateDirect(Math.max(32 * 1024, minimumCapacity)));
+            }
+        };
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            testMixedTypes();
+            testMultiByteStrings();
+            testStringViews();
+        }
+    }
+
+    @Test
+    public void testAdaptivePageSize() {
+        this.bufferAllocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return Buffer.allocate(4096);
+            }
+
+            @Override
+            public Buffer allocate(int minimumCapacity) {
+                return Buffer.allocate(Math.max(4096, minimumCapacity));
+            }
+
+            @Override
+            public Buffer allocatePage(int minimumCapacity, int preferredCapacity) {
+                return allocate(Math.max(minimumCapacity, Math.min(preferredCapacity, 1024 * 1024)));
+            }
+        };
+        StringBuilder largeString = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            largeString.append('x');
+        }
+        List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            objects.add((long) i);
+            objects.add(largeString.toString() + i);
+        }
+
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            List<Page> pages = buildPages(Schema.builder().add("col1", LONG).add("col2", STRING).build(), objects.toArray());
+            // the first page of 4096 bytes holds only a few records, and later pages grow to hold hundreds of records
+            assertTrue(PageReader.getRecordCount(pages.get(0)) < 5);
+            assertTrue(PageReader.getRecordCount(pages.get(1)) > 100);
+            assertTrue(pages.size() < 10);
+        }
+    }
+
+    @Test
+    public void testColumnarEmptySchemaFallsBackToRow() {
+        MockPageOutput output = new MockPageOutput();
+        this.builder = new PageBuilder(bufferAllocator, Schema.builder().build(), output, PageLayout.COLUMNAR);
+        assertEquals(PageLayout.ROW, builder.getLayout());
+    }
+
+    @Test
+    public void testReadLongsAndDoubles() {
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            Schema schema = Schema.builder().add("col1", LONG).add("col2", DOUBLE).add("col3", BOOLEAN).build();
+            Page page = buildPage(schema,
+                    1L, 0.5, true,
+                    null, 1.5, null,
+                    3L, null, false);
+            this.reader = new PageReader(schema);
+            reader.setPage(page);
+            assertEquals(pageLayout, reader.getPageLayout());
+            assertEquals(3, reader.getPageRecordCount());
+
+            long[] longs = new long[3];
+            double[] doubles = new double[3];
+            boolean[] booleans = new boolean[3];
+            boolean[] nulls = new boolean[3];
+            assertEquals(3, reader.readLongs(schema.getColumn(0), longs, nulls));
+            assertEquals(1L, longs[0]);
+            assertTrue(nulls[1]);
+            assertEquals(3L, longs[2]);
+            assertEquals(3, reader.readDoubles(schema.getColumn(1), doubles, nulls));
+            assertEquals(0.5, doubles[0], 0.0);
+            assertEquals(1.5, doubles[1], 0.0);
+            assertTrue(nulls[2]);
+            assertEquals(3, reader.readBooleans(schema.getColumn(2), booleans, nulls));
+            assertTrue(booleans[0]);
+            assertTrue(nulls[1]);
+            assertFalse(booleans[2]);
+
+            // bulk accessors don't move the cursor
+            assertTrue(reader.nextRecord());
+            assertEquals(1L, reader.getLong(0));
+            reader.close();
+            this.reader = null;
+            builder.close();
+            this.builder = null;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadLongsOfStringColumn() {
+        Schema schema = Schema.builder().add("col1", STRING).build();
+        Page page = buildPage(schema, "a", "b");
+        this.reader = new PageReader(schema);
+        reader.setPage(page);
+        reader.readLongs(schema.getColumn(0), new long[2], new boolean[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadLongsIntoShortArray() {
+        Schema schema = Schema.builder().add("col1", LONG).build();
+        Page page = buildPage(schema, 1L, 2L);
+        this.reader = new PageReader(schema);
+        reader.setPage(page);
+        reader.readLongs(schema.getColumn(0), new long[2], new boolean[1]);
+    }
+
+    @Test
+    public void testReadTimestampsAndStringsWithSelection() {
+        for (PageLayout pageLayout : PageLayout.values()) {
+            this.layout = pageLayout;
+            Schema schema = Schema.builder().add("col1", TIMESTAMP).add("col2", STRING).build();
+            Page page = buildPage(schema,
+                    Timestamp.ofEpochSecond(10, 5), "a",
+                    null, "b",
+                    Timestamp.ofEpochSecond(-20, 7), null,
+                    Timestamp.ofEpochSecond(30, 0), "a");
+            this.reader = new PageReader(schema);
+            reader.setPage(page);
+
+            long[] seconds = new long[4];
+            int[] nanos = new int[4];
+            boolean[] nulls = new boolean[4];
+            assertEquals(4, reader.readTimestamps(schema.getColumn(0), seconds, nanos, nulls));
+            assertEquals(10L, seconds[0]);
+            assertEquals(5, nanos[0]);
+            assertTrue(nulls[1]);
+            assertEquals(-20L, seconds[2]);
+            assertEquals(7, nanos[2]);
+            assertEquals(30L, seconds[3]);
+
+            String[] strings = new String[4];
+            assertEquals(4, reader.readStrings(schema.getColumn(1), strings));
+            assertArrayEquals(new String[] {"a", "b", null, "a"}, strings);
+            assertEquals(4, reader.readNulls(schema.getColumn(1), nulls));
+            assertFalse(nulls[1]);
+            assertTrue(nulls[2]);
+
+            int[] selection = new int[4];
+            assertEquals(3, reader.selectNotNull(schema.getColumn(0), selection));
+            assertArrayEquals(new int[] {0, 2, 3}, Arrays.copyOf(selection, 3));
+
+            reader.seekRecord(2);
+            assertEquals(Timestamp.ofEpochSecond(-20, 7), reader.getTimestamp(0));
+            assertTrue(reader.isNull(1));
+            assertTrue(reader.nextRecord());
+            assertEquals("a", reader.getString(1));
+            assertFalse(reader.nextRecord());
+            reader.seekRecord(0);
+            assertEquals("a", reader.getString(1));
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.isNull(0));
+            assertEquals("b", reader.getString(1));
+
+            reader.close();
+            this.reader = null;
+            builder.close();
+            this.builder = null;
+        }
+    }
+
+    @Test
+    public void testAddRecords() {
+        for (PageLayout pageLayout : PageLayout.values()) {
+            Schema schema = Schema.builder().add("col1", LONG).add("col2", DOUBLE).add("col3", STRING).add("col4", TIMESTAMP).add("col5", JSON).build();
+            MockPageOutput output = new MockPageOutput();
+            this.builder = new PageBuilder(bufferAllocator, schema, output, pageLayout);
+            builder.appendLongs(schema.getColumn(0), new long[] {1L, 2L, 3L}, new boolean[] {false, true, false}, 3);
+            builder.appendDoubles(schema.getColumn(1), new double[] {0.5, 1.5, 2.5}, null, 3);
+            builder.appendStrings(schema.getColumn(2), new String[] {"a", null, "a"}, 3);
+            builder.appendTimestamps(schema.getColumn(3), new long[] {10L, 20L, 30L}, new int[] {1, 2, 3}, null, 3);
+            builder.addRecords(3);
+            builder.setLong(0, 4L);
+            builder.addRecord();
+            builder.finish();
+            builder.close();
+            this.builder = null;
+
+            assertEquals(1, output.pages.size());
+            this.reader = new PageReader(schema);
+            reader.setPage(output.pages.get(0));
+            assertEquals(4, reader.getPageRecordCount());
+            assertTrue(reader.nextRecord());
+            assertEquals(1L, reader.getLong(0));
+            assertEquals(0.5, reader.getDouble(1), 0.0);
+            assertEquals("a", reader.getString(2));
+            assertEquals(Timestamp.ofEpochSecond(10L, 1), reader.getTimestamp(3));
+            assertTrue(reader.isNull(4));
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.isNull(0));
+            assertTrue(reader.isNull(2));
+            assertTrue(reader.nextRecord());
+            assertEquals(3L, reader.getLong(0));
+            assertEquals(2.5, reader.getDouble(1), 0.0);
+            assertEquals("a", reader.getString(2));
+            assertEquals(Timestamp.ofEpochSecond(30L, 3), reader.getTimestamp(3));
+            assertTrue(reader.nextRecord());
+            assertEquals(4L, reader.getLong(0));
+            assertTrue(reader.isNull(1));
+            assertFalse(reader.nextRecord());
+            reader.close();
+            this.reader = null;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendLongsToStringColumn() {
+        Schema schema = Schema.builder().add("col1", STRING).build();
+        this.builder = new PageBuilder(bufferAllocator, schema, new MockPageOutput(), PageLayout.COLUMNAR);
+        builder.appendLongs(schema.getColumn(0), new long[] {1L}, null, 1);
+    }
+
+    @Test
+    public void testAddRecordsAcrossPages() {
+        for (PageLayout pageLayout : PageLayout.values()) {
+            Schema schema = Schema.builder().add("col1", LONG).add("col2", STRING).build();
+            int count = 100000;
+            long[] longs = new long[count];
+            String[] strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                longs[i] = i;
+                strings[i] = "value" + i;
+            }
+            MockPageOutput output = new MockPageOutput();
+            this.builder = new PageBuilder(bufferAllocator, schema, output, pageLayout);
+            builder.appendLongs(schema.getColumn(0), longs, null, count);
+            builder.appendStrings(schema.getColumn(1), strings, count);
+            builder.addRecords(count);
+            builder.finish();
+            builder.close();
+            this.builder = null;
+
+            assertTrue(output.pages.size() > 1);
+            this.reader = new PageReader(schema);
+            int i = 0;
+            for (Page page : output.pages) {
+                reader.setPage(page);
+                while (reader.nextRecord()) {
+                    assertEquals(i, reader.getLong(0));
+                    assertEquals("value" + i, reader.getString(1));
+                    i++;
+                }
+            }
+            assertEquals(count, i);
+            reader.close();
+            this.reader = null;
+        }
+    }
+
     private void check(Schema schema, Object... objects) {
         Page page = buildPage(schema, objects);
         checkPage(schema, page, objects);
@@ -160,7 +631,7 @@ public class TestPageBuilderReader {
 
     private List<Page> buildPages(Schema schema, final Object... objects) {
         MockPageOutput output = new MockPageOutput();
-        this.builder = new PageBuilder(bufferAllocator, schema, output);
+        this.builder = new PageBuilder(bufferAllocator, schema, output, layout);
         int idx = 0;
         while (idx < objects.length) {
             for (int column = 0; column < builder.getSchema().getColumnCount(); ++column) {
@@ -352,6 +823,129 @@ public class TestPageBuilderReader {
         reader.close();
     }
 
+    @Test
+    public void testDirectWriteDetectsUnsetColumns() {
+        MockPageOutput output = new MockPageOutput();
+        Schema schema = Schema.builder()
+                .add("col0", LONG)
+                .add("col1", STRING)
+                .build();
+
+        builder = new PageBuilder(bufferAllocator, schema, output, PageLayout.ROW, true);
+        builder.setLong(0, 1L);
+        builder.setString(1, "v1");
+        builder.addRecord();
+        builder.setString(1, "v2");
+        try {
+            builder.addRecord();
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("Column col0 is not set before addRecord", ex.getMessage());
+        }
+        builder.setNull(0);
+        builder.addRecord();
+        builder.finish();
+        builder.close();
+
+        reader = new PageReader(schema);
+        reader.setPage(output.pages.get(0));
+        assertTrue(reader.nextRecord());
+        assertEquals(1L, reader.getLong(0));
+        assertEquals("v1", reader.getString(1));
+        assertTrue(reader.nextRecord());
+        assertTrue(reader.isNull(0));
+        assertEquals("v2", reader.getString(1));
+        assertFalse(reader.nextRecord());
+        reader.close();
+    }
+
+    @Test
+    public void testDirectWriteTakesOverRecordToNextPage() {
+        this.bufferAllocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return Buffer.allocate(128);
+            }
+
+            @Override
+            public Buffer allocate(int minimumCapacity) {
+                return Buffer.allocate(Math.max(128, minimumCapacity));
+            }
+        };
+        Schema schema = Schema.builder()
+                .add("col0", LONG)
+                .add("col1", STRING)
+                .add("col2", STRING)
+                .build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            MockPageOutput output = new MockPageOutput();
+            builder = new PageBuilder(bufferAllocator, schema, output, pageLayout, true);
+            for (int i = 0; i < 20; i++) {
+                builder.setLong(0, i);
+                builder.setString(1, "record" + i);
+                builder.setString(2, "a long string value which does not fit in the rest of the page " + i);
+                builder.addRecord();
+            }
+            builder.finish();
+            builder.close();
+            assertTrue(output.pages.size() > 1);
+
+            reader = new PageReader(schema);
+            int i = 0;
+            for (Page page : output.pages) {
+                reader.setPage(page);
+                while (reader.nextRecord()) {
+                    assertEquals(i, reader.getLong(0));
+                    assertEquals("record" + i, reader.getString(1));
+                    assertEquals("a long string value which does not fit in the rest of the page " + i, reader.getString(2));
+                    i++;
+                }
+            }
+            assertEquals(20, i);
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDirectWriteDiscardsRecord() {
+        Schema schema = Schema.builder()
+                .add("col0", LONG)
+                .add("col1", STRING)
+                .build();
+        for (PageLayout pageLayout : PageLayout.values()) {
+            MockPageOutput output = new MockPageOutput();
+            builder = new PageBuilder(bufferAllocator, schema, output, pageLayout, true);
+            builder.setLong(0, 1L);
+            builder.setString(1, "v1");
+            builder.addRecord();
+            // a record skipped after a new string is added to the dictionary
+            builder.setLong(0, 2L);
+            builder.setString(1, "skipped");
+            builder.discardRecord();
+            builder.setNull(0);
+            builder.setString(1, "v1");
+            builder.addRecord();
+            builder.setString(1, "skipped at the end");
+            builder.discardRecord();
+            builder.finish();
+            builder.close();
+
+            assertEquals(1, output.pages.size());
+            reader = new PageReader(schema);
+            reader.setPage(output.pages.get(0));
+            assertEquals(1, reader.getDictionarySize());
+            assertEquals("v1", reader.getDictionaryString(0));
+            assertTrue(reader.nextRecord());
+            assertEquals(1L, reader.getLong(0));
+            assertEquals("v1", reader.getString(1));
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.isNull(0));
+            assertEquals("v1", reader.getString(1));
+            assertFalse(reader.nextRecord());
+            reader.close();
+        }
+    }
+
     @Test
     public void testRepeatableClose() {
         MockPageOutput output = new MockPageOutput();
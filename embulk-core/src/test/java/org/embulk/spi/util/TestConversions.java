@@ -0,0 +1,112 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestConversions {
+    private static long parseLongFromBytes(String value) {
+        // the value is in the middle of the bytes
+        byte[] bytes = ("[" + value + "]").getBytes(StandardCharsets.UTF_8);
+        return Conversions.parseLong(bytes, 1, bytes.length - 2, StandardCharsets.UTF_8);
+    }
+
+    private static double parseDoubleFromBytes(String value) {
+        byte[] bytes = ("[" + value + "]").getBytes(StandardCharsets.UTF_8);
+        return Conversions.parseDouble(bytes, 1, bytes.length - 2, StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameDouble(String value) {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(value));
+        assertEquals(value, expected, Double.doubleToRawLongBits(Conversions.parseDouble(value)));
+        assertEquals(value, expected, Double.doubleToRawLongBits(parseDoubleFromBytes(value)));
+        char[] chars = ("[" + value + "]").toCharArray();
+        assertEquals(value, expected, Double.doubleToRawLongBits(Conversions.parseDouble(chars, 1, value.length())));
+    }
+
+    @Test
+    public void testParseLong() {
+        for (String value : new String[] {"0", "-0", "+12", "-34", "9223372036854775807", "-9223372036854775808", "000000000000000000000042"}) {
+            assertEquals(Long.parseLong(value), Conversions.parseLong(value));
+            assertEquals(Long.parseLong(value), parseLongFromBytes(value));
+            assertEquals(Long.parseLong(value), Conversions.parseLong(("[" + value + "]").toCharArray(), 1, value.length()));
+        }
+        // non-ASCII digits are accepted by the JDK
+        assertEquals(123L, Conversions.parseLong("١٢٣"));
+        assertEquals(123L, parseLongFromBytes("١٢٣"));
+    }
+
+    @Test
+    public void testParseLongErrors() {
+        for (String value : new String[] {"", "-", "+", "1.0", " 1", "9223372036854775808", "-9223372036854775809", "1a"}) {
+            String expected = null;
+            try {
+                Long.parseLong(value);
+                fail();
+            } catch (NumberFormatException ex) {
+                expected = ex.getMessage();
+            }
+            try {
+                parseLongFromBytes(value);
+                fail();
+            } catch (NumberFormatException ex) {
+                assertEquals(expected, ex.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] values = {
+            "0", "-0", "-0.0", "1", "1.5", ".5", "5.", " 3.25\t", "1e22", "1e23", "1e-22", "1e-23", "0.1", "0.30000000000000004",
+            "9007199254740993", "123456789012345678901", "1.7976931348623157e308", "4.9e-324", "1e400", "-1e-400",
+            "NaN", "-Infinity", "0x1p3", "1.5f", "2d",
+        };
+        for (String value : values) {
+            assertSameDouble(value);
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            assertSameDouble(Double.toString(Double.longBitsToDouble(random.nextLong())));
+            assertSameDouble(String.format("%." + random.nextInt(10) + "f", random.nextDouble() * 1000000));
+        }
+    }
+
+    @Test
+    public void testParseDoubleErrors() {
+        for (String value : new String[] {"", " ", ".", "-", "1e", "1e+", "e5", "1.2.3", "1,5", "١"}) {
+            String expected = null;
+            try {
+                Double.parseDouble(value);
+                fail();
+            } catch (NumberFormatException ex) {
+                expected = ex.getMessage();
+            }
+            try {
+                parseDoubleFromBytes(value);
+                fail();
+            } catch (NumberFormatException ex) {
+                assertEquals(expected, ex.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testIsTrue() {
+        for (String value : new String[] {"true", "True", "TRUE", "yes", "Yes", "YES", "t", "T", "y", "Y", "on", "On", "ON", "1"}) {
+            assertTrue(Conversions.isTrue(value));
+            byte[] bytes = (" " + value).getBytes(StandardCharsets.UTF_8);
+            assertTrue(Conversions.isTrue(bytes, 1, bytes.length - 1));
+        }
+        for (String value : new String[] {"", "false", "tRUE", "0", "no", "yes "}) {
+            assertFalse(Conversions.isTrue(value));
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            assertFalse(Conversions.isTrue(bytes, 0, bytes.length));
+        }
+    }
+}
@@ -3,12 +3,16 @@ package org.embulk.spi.util;
 import static org.junit.Assert.assertEquals;
 
 import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigSource;
 import org.embulk.spi.Buffer;
@@ -267,4 +271,69 @@ public class TestLineDecoder {
                 bufferList(StandardCharsets.UTF_8, "test1\r\ntest2\rtest3\ntest4"));
         assertEquals(ImmutableList.of("test1", "test2\rtest3\ntest4"), decoded);
     }
+
+    @SuppressWarnings("checkstyle:AbbreviationAsWordInName")
+    @Test
+    public void testDecodeUTF8WithBom() throws Exception {
+        assertEquals(ImmutableList.of("t1", "t2"), doDecode(
+                StandardCharsets.UTF_8, Newline.LF,
+                bufferList(StandardCharsets.UTF_8, "\uFEFFt1\nt2")));
+        List<Buffer> splitBom = new ArrayList<Buffer>();
+        splitBom.add(Buffer.wrap(new byte[] { (byte) 0xEF }));
+        splitBom.add(Buffer.wrap(new byte[] { (byte) 0xBB, (byte) 0xBF, 't', '1' }));
+        assertEquals(ImmutableList.of("t1"), doDecode(StandardCharsets.UTF_8, Newline.LF, splitBom));
+        // bytes which look like the beginning of a BOM are a part of the first line
+        List<Buffer> notBom = new ArrayList<Buffer>();
+        notBom.add(Buffer.wrap(new byte[] { (byte) 0xEF, (byte) 0xBB }));
+        notBom.add(Buffer.wrap(new byte[] { 't', '1', '\n', 't', '2' }));
+        assertEquals(ImmutableList.of("\uFFFDt1", "t2"), doDecode(StandardCharsets.UTF_8, Newline.LF, notBom));
+    }
+
+    @SuppressWarnings("checkstyle:AbbreviationAsWordInName")
+    @Test
+    public void testDecodeChunksUTF8CR() throws Exception {
+        List<String> decoded = doDecode(
+                StandardCharsets.UTF_8, Newline.CR,
+                bufferList(StandardCharsets.UTF_8, "て1\r", "\r", "す2\r", "\n\n", "と3\r"));
+        assertEquals(ImmutableList.of("て1", "", "す2", "", "と3"), decoded);
+    }
+
+    @Test
+    public void testDecodeLatin1() throws Exception {
+        List<String> decoded = doDecode(
+                StandardCharsets.ISO_8859_1, Newline.LF,
+                bufferList(StandardCharsets.ISO_8859_1, "caf\u00e9\nd\u00e9j\u00e0", " vu\n"));
+        assertEquals(ImmutableList.of("caf\u00e9", "d\u00e9j\u00e0 vu"), decoded);
+    }
+
+    @SuppressWarnings("checkstyle:AbbreviationAsWordInName")
+    @Test
+    public void testDecodeUTF8SameAsReader() throws Exception {
+        final String chars = "a\u00e9\u3042\r\n";
+        final Random random = new Random(0);
+        for (int n = 0; n < 100; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(100); i > 0; i--) {
+                sb.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            List<Buffer> buffers = new ArrayList<Buffer>();
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = Math.min(bytes.length - offset, 1 + random.nextInt(8));
+                buffers.add(Buffer.wrap(bytes, offset, length));
+                offset += length;
+            }
+            assertEquals(sb.toString(), readLines(sb.toString()), doDecode(StandardCharsets.UTF_8, Newline.CRLF, buffers));
+        }
+    }
+
+    private static List<String> readLines(String source) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(source));
+        List<String> lines = new ArrayList<String>();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
 }
@@ -0,0 +1,130 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+import org.junit.Test;
+
+public class TestReadAheadFileInput {
+    private static class CountingBuffer extends Buffer {
+        private final AtomicInteger releaseCount;
+
+        CountingBuffer(int size, AtomicInteger releaseCount) {
+            super(new byte[size], 0, size);
+            limit(size);
+            this.releaseCount = releaseCount;
+        }
+
+        @Override
+        public void release() {
+            releaseCount.incrementAndGet();
+        }
+    }
+
+    private static List<List<Buffer>> newFiles(int fileCount, int bufferCount, AtomicInteger releaseCount) {
+        List<List<Buffer>> files = new ArrayList<>();
+        for (int i = 0; i < fileCount; i++) {
+            List<Buffer> buffers = new ArrayList<>();
+            for (int j = 0; j < bufferCount; j++) {
+                buffers.add(new CountingBuffer(10, releaseCount));
+            }
+            files.add(buffers);
+        }
+        return files;
+    }
+
+    @Test
+    public void testReadFilesInOrder() {
+        AtomicInteger releaseCount = new AtomicInteger();
+        List<List<Buffer>> files = newFiles(3, 5, releaseCount);
+        try (ReadAheadFileInput input = new ReadAheadFileInput(new ListFileInput(files), 2, 25, "read-ahead")) {
+            for (List<Buffer> file : files) {
+                assertTrue(input.nextFile());
+                for (Buffer buffer : file) {
+                    assertSame(buffer, input.poll());
+                }
+                assertNull(input.poll());
+                assertNull(input.poll());
+            }
+            assertFalse(input.nextFile());
+            assertFalse(input.nextFile());
+        }
+        assertEquals(0, releaseCount.get());
+    }
+
+    @Test
+    public void testSkipRestOfFile() {
+        AtomicInteger releaseCount = new AtomicInteger();
+        List<List<Buffer>> files = newFiles(2, 5, releaseCount);
+        try (ReadAheadFileInput input = new ReadAheadFileInput(new ListFileInput(files), 3, 1000, "read-ahead")) {
+            assertTrue(input.nextFile());
+            assertSame(files.get(0).get(0), input.poll());
+            assertTrue(input.nextFile());
+            assertSame(files.get(1).get(0), input.poll());
+            assertEquals(4, releaseCount.get());
+        }
+        assertEquals(8, releaseCount.get());  // not read buffers are released by stop
+    }
+
+    @Test
+    public void testStopInterruptsBlockingRead() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        FileInput blocking = new ListFileInput(Arrays.asList(Arrays.<Buffer>asList())) {
+            @Override
+            public Buffer poll() {
+                reading.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return null;
+            }
+        };
+        ReadAheadFileInput input = new ReadAheadFileInput(blocking, 4, 1000, "read-ahead");
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        input.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testRethrowFailureAfterReadBuffers() {
+        final AtomicInteger releaseCount = new AtomicInteger();
+        final Buffer first = new CountingBuffer(10, releaseCount);
+        final IllegalStateException error = new IllegalStateException("failed");
+        FileInput failing = new ListFileInput(Arrays.asList(Arrays.asList(first))) {
+            private int polled;
+
+            @Override
+            public Buffer poll() {
+                if (polled++ == 1) {
+                    throw error;
+                }
+                return super.poll();
+            }
+        };
+        try (ReadAheadFileInput input = new ReadAheadFileInput(failing, 4, 1000, "read-ahead")) {
+            assertTrue(input.nextFile());
+            assertSame(first, input.poll());
+            try {
+                input.poll();
+                fail();
+            } catch (IllegalStateException ex) {
+                assertSame(error, ex);
+            }
+        }
+    }
+}
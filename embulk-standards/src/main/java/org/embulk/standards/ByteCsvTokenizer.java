@@ -0,0 +1,705 @@
+package org.embulk.standards;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.util.ByteLineReader;
+import org.embulk.spi.util.Conversions;
+import org.embulk.standards.CsvParserPlugin.QuotesInQuotedFields;
+import org.embulk.standards.CsvTokenizer.ColumnState;
+import org.embulk.standards.CsvTokenizer.RecordState;
+
+/**
+ * ByteCsvTokenizer splits lines into columns in the same way as CsvTokenizer, but works on bytes of lines instead of
+ * strings.
+ *
+ * It is used if lines can be split by ByteLineReader and the delimiter, quote and escape are ASCII characters. Then
+ * these characters are single bytes which never appear in other characters. A column is given as a range of bytes of
+ * the line, or of a buffer for quoted values with escapes or newlines, and decoded only when a String is needed.
+ * Bytes in values are searched for the next special character 8 bytes at a time.
+ */
+final class ByteCsvTokenizer implements CsvParserPlugin.Tokenizer {
+    private static final int END_OF_LINE = 0;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final ByteLineReader input;
+    private final Charset charset;
+    private final int delimiterChar;
+    private final byte[] delimiterFollowingBytes;
+    private final int quote;
+    private final int escape;
+    private final byte[] newline;
+    private final boolean trimIfNotQuoted;
+    private final QuotesInQuotedFields quotesInQuotedFields;
+    private final long maxQuotedSizeLimit;
+    private final byte[] commentLineMarker;
+    private final byte[] nullStringOrNull;
+
+    private RecordState recordState = RecordState.END;  // initial state is end of a record. nextRecord() must be called first
+    private long lineNumber = 0;
+
+    private boolean hasLine = false;
+    private byte[] line = new byte[0];  // the current line is line[lineStart, lineEnd)
+    private ByteBuffer lineWords = ByteBuffer.wrap(line);
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int linePos = 0;
+    private boolean wasQuotedColumn = false;
+    private final List<byte[]> quotedValueLines = new ArrayList<>();
+    private final Deque<byte[]> unreadLines = new ArrayDeque<>();
+
+    private byte[] quotedValue = new byte[256];
+    private int quotedValueLength = 0;
+    private int quotedValueCounted = 0;  // characters in quotedValue[0, quotedValueCounted) are counted
+    private long quotedValueChars = 0;
+
+    private byte[] valueBytes = line;  // the last column is valueBytes[valueOffset, valueOffset + valueLength)
+    private int valueOffset = 0;
+    private int valueLength = 0;
+
+    public ByteCsvTokenizer(ByteLineReader input, CsvParserPlugin.PluginTask task) {
+        if (!isSupported(task)) {
+            throw new IllegalArgumentException("CSV can't be tokenized by bytes with charset " + task.getCharset());
+        }
+        this.input = input;
+        this.charset = task.getCharset();
+        String delimiter = task.getDelimiter();
+        if (delimiter.length() == 0) {
+            throw new ConfigException("Empty delimiter is not allowed");
+        } else {
+            this.delimiterChar = delimiter.charAt(0);
+            if (delimiter.length() > 1) {
+                delimiterFollowingBytes = delimiter.substring(1).getBytes(charset);
+            } else {
+                delimiterFollowingBytes = null;
+            }
+        }
+        quote = task.getQuoteChar().or(CsvParserPlugin.QuoteCharacter.noQuote()).getCharacter();
+        escape = task.getEscapeChar().or(CsvParserPlugin.EscapeCharacter.noEscape()).getCharacter();
+        newline = task.getNewline().getString().getBytes(charset);
+        trimIfNotQuoted = task.getTrimIfNotQuoted();
+        quotesInQuotedFields = task.getQuotesInQuotedFields();
+        if (trimIfNotQuoted && quotesInQuotedFields != QuotesInQuotedFields.ACCEPT_ONLY_RFC4180_ESCAPED) {
+            // The combination makes some syntax very ambiguous such as:
+            //     val1,  \"\"val2\"\"  ,val3
+            throw new ConfigException("[quotes_in_quoted_fields != ACCEPT_ONLY_RFC4180_ESCAPED] is not allowed to specify with [trim_if_not_quoted = true]");
+        }
+        maxQuotedSizeLimit = task.getMaxQuotedSizeLimit();
+        commentLineMarker = task.getCommentLineMarker().isPresent() ? task.getCommentLineMarker().get().getBytes(charset) : null;
+        nullStringOrNull = task.getNullString().isPresent() ? task.getNullString().get().getBytes(charset) : null;
+    }
+
+    /**
+     * Returns true if lines of the task can be tokenized by bytes with the same results as CsvTokenizer.
+     */
+    static boolean isSupported(CsvParserPlugin.PluginTask task) {
+        Charset charset = task.getCharset();
+        if (!ByteLineReader.isSupported(charset) || task.getLineDelimiterRecognized().isPresent()) {
+            return false;
+        }
+        for (char c : task.getDelimiter().toCharArray()) {
+            if (c >= 0x80) {
+                return false;
+            }
+        }
+        if (task.getQuoteChar().or(CsvParserPlugin.QuoteCharacter.noQuote()).getCharacter() >= 0x80
+                || task.getEscapeChar().or(CsvParserPlugin.EscapeCharacter.noEscape()).getCharacter() >= 0x80) {
+            return false;
+        }
+        // Strings which are compared with lines must be encoded to the bytes which are decoded to them.
+        CharsetEncoder encoder = charset.newEncoder();
+        return isComparableByBytes(task.getCommentLineMarker(), encoder) && isComparableByBytes(task.getNullString(), encoder);
+    }
+
+    private static boolean isComparableByBytes(Optional<String> string, CharsetEncoder encoder) {
+        return !string.isPresent() || (encoder.canEncode(string.get()) && string.get().indexOf('\uFFFD') < 0);
+    }
+
+    @Override
+    public long getCurrentLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public boolean skipHeaderLine() {
+        boolean skipped = input.nextLine();
+        if (skipped) {
+            lineNumber++;
+        }
+        return skipped;
+    }
+
+    // returns skipped line
+    @Override
+    public String skipCurrentLine() {
+        String skippedLine;
+        if (quotedValueLines.isEmpty()) {
+            skippedLine = hasLine ? new String(line, lineStart, lineEnd - lineStart, charset) : null;
+        } else {
+            // recover lines of quoted value
+            skippedLine = new String(quotedValueLines.remove(0), charset);
+            unreadLines.addAll(quotedValueLines);
+            lineNumber -= quotedValueLines.size();
+            if (hasLine) {
+                unreadLines.add(Arrays.copyOfRange(line, lineStart, lineEnd));
+                lineNumber -= 1;
+            }
+            quotedValueLines.clear();
+        }
+        recordState = RecordState.END;
+        return skippedLine;
+    }
+
+    @Override
+    public boolean nextFile() {
+        boolean next = input.nextFile();
+        if (next) {
+            lineNumber = 0;
+        }
+        return next;
+    }
+
+    @Override
+    public boolean nextRecord() {
+        return nextRecord(true);
+    }
+
+    public boolean nextRecord(boolean skipEmptyLine) {
+        // If at the end of record, read the next line and initialize the state
+        if (recordState != RecordState.END) {
+            throw new CsvTokenizer.TooManyColumnsException("Too many columns");
+        }
+
+        boolean hasNext = nextLine(skipEmptyLine);
+        if (hasNext) {
+            recordState = RecordState.NOT_END;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean nextLine(boolean skipEmptyLine) {
+        while (true) {
+            if (!unreadLines.isEmpty()) {
+                byte[] unread = unreadLines.removeFirst();
+                setLine(unread, 0, unread.length);
+            } else {
+                if (!input.nextLine()) {
+                    hasLine = false;
+                    return false;
+                }
+                setLine(input.getLineBytes(), input.getLineOffset(), input.getLineOffset() + input.getLineLength());
+            }
+            lineNumber++;
+
+            boolean skip = skipEmptyLine && (lineStart == lineEnd || (commentLineMarker != null && lineStartsWith(commentLineMarker)));
+            if (!skip) {
+                return true;
+            }
+        }
+    }
+
+    private void setLine(byte[] bytes, int start, int end) {
+        if (bytes != line) {
+            line = bytes;
+            lineWords = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        hasLine = true;
+        lineStart = start;
+        lineEnd = end;
+        linePos = start;
+    }
+
+    @Override
+    public boolean hasNextColumn() {
+        return recordState == RecordState.NOT_END;
+    }
+
+    public String nextColumn() {
+        readColumn();
+        return getValueString();
+    }
+
+    @Override
+    public String nextColumnOrNull() {
+        return nextColumnValue() ? getValueString() : null;
+    }
+
+    /**
+     * Reads the next column, and returns false if it is null. Otherwise its bytes are available from getValueBytes(),
+     * getValueOffset() and getValueLength() until the next column is read.
+     */
+    @Override
+    public boolean nextColumnValue() {
+        readColumn();
+        if (nullStringOrNull == null) {
+            return valueLength > 0 || wasQuotedColumn;
+        }
+        if (valueLength != nullStringOrNull.length) {
+            return true;
+        }
+        for (int i = 0; i < valueLength; i++) {
+            if (valueBytes[valueOffset + i] != nullStringOrNull[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte[] getValueBytes() {
+        return valueBytes;
+    }
+
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    @Override
+    public String getValueString() {
+        return new String(valueBytes, valueOffset, valueLength, charset);
+    }
+
+    @Override
+    public long parseLongValue() {
+        return Conversions.parseLong(valueBytes, valueOffset, valueLength, charset);
+    }
+
+    @Override
+    public double parseDoubleValue() {
+        return Conversions.parseDouble(valueBytes, valueOffset, valueLength, charset);
+    }
+
+    @Override
+    public boolean isTrueValue() {
+        return Conversions.isTrue(valueBytes, valueOffset, valueLength);
+    }
+
+    public boolean wasQuotedColumn() {
+        return wasQuotedColumn;
+    }
+
+    private void readColumn() {
+        if (!hasNextColumn()) {
+            throw new CsvTokenizer.TooFewColumnsException("Too few columns");
+        }
+
+        // reset last state
+        wasQuotedColumn = false;
+        quotedValueLines.clear();
+
+        // local state
+        int valueStartPos = linePos;
+        int valueEndPos = 0;  // initialized by VALUE state and used by LAST_TRIM_OR_VALUE
+        ColumnState columnState = ColumnState.BEGIN;
+
+        while (true) {
+            final int c = nextChar();
+
+            switch (columnState) {
+                case BEGIN:
+                    if (isDelimiter(c)) {
+                        // empty value
+                        if (delimiterFollowingBytes == null) {
+                            setValue(line, linePos, linePos);
+                            return;
+                        } else if (isDelimiterFollowingFrom(linePos)) {
+                            linePos += delimiterFollowingBytes.length;
+                            setValue(line, linePos, linePos);
+                            return;
+                        }
+                        // not a delimiter
+                    }
+                    if (isEndOfLine(c)) {
+                        // empty value
+                        recordState = RecordState.END;
+                        setValue(line, linePos, linePos);
+                        return;
+
+                    } else if (isSpace(c) && trimIfNotQuoted) {
+                        columnState = ColumnState.FIRST_TRIM;
+
+                    } else if (isQuote(c)) {
+                        valueStartPos = linePos;
+                        wasQuotedColumn = true;
+                        clearQuotedValue();
+                        columnState = ColumnState.QUOTED_VALUE;
+
+                    } else {
+                        columnState = ColumnState.VALUE;
+                    }
+                    break;
+
+                case FIRST_TRIM:
+                    if (isDelimiter(c)) {
+                        // empty value
+                        if (delimiterFollowingBytes == null) {
+                            setValue(line, linePos, linePos);
+                            return;
+                        } else if (isDelimiterFollowingFrom(linePos)) {
+                            linePos += delimiterFollowingBytes.length;
+                            setValue(line, linePos, linePos);
+                            return;
+                        }
+                        // not a delimiter
+                    }
+                    if (isEndOfLine(c)) {
+                        // empty value
+                        recordState = RecordState.END;
+                        setValue(line, linePos, linePos);
+                        return;
+
+                    } else if (isQuote(c)) {
+                        valueStartPos = linePos;
+                        wasQuotedColumn = true;
+                        clearQuotedValue();
+                        columnState = ColumnState.QUOTED_VALUE;
+
+                    } else if (isSpace(c)) {
+                        // skip this character
+
+                    } else {
+                        valueStartPos = linePos - 1;
+                        columnState = ColumnState.VALUE;
+                    }
+                    break;
+
+                case VALUE:
+                    if (isDelimiter(c)) {
+                        if (delimiterFollowingBytes == null) {
+                            setValue(line, valueStartPos, linePos - 1);
+                            return;
+                        } else if (isDelimiterFollowingFrom(linePos)) {
+                            setValue(line, valueStartPos, linePos - 1);
+                            linePos += delimiterFollowingBytes.length;
+                            return;
+                        }
+                        // not a delimiter
+                    }
+                    if (isEndOfLine(c)) {
+                        recordState = RecordState.END;
+                        setValue(line, valueStartPos, linePos);
+                        return;
+
+                    } else if (isSpace(c) && trimIfNotQuoted) {
+                        valueEndPos = linePos - 1;  // this is possibly end of value
+                        columnState = ColumnState.LAST_TRIM_OR_VALUE;
+
+                    } else {
+                        // keep VALUE state until the next character which changes the state
+                        linePos = indexOfAny(linePos, delimiterChar, trimIfNotQuoted ? ' ' : delimiterChar, END_OF_LINE);
+                    }
+                    break;
+
+                case LAST_TRIM_OR_VALUE:
+                    if (isDelimiter(c)) {
+                        if (delimiterFollowingBytes == null) {
+                            setValue(line, valueStartPos, valueEndPos);
+                            return;
+                        } else if (isDelimiterFollowingFrom(linePos)) {
+                            linePos += delimiterFollowingBytes.length;
+                            setValue(line, valueStartPos, valueEndPos);
+                            return;
+                        } else {
+                            // not a delimiter
+                        }
+                    }
+                    if (isEndOfLine(c)) {
+                        recordState = RecordState.END;
+                        setValue(line, valueStartPos, valueEndPos);
+                        return;
+
+                    } else if (isSpace(c)) {
+                        // keep LAST_TRIM_OR_VALUE state
+
+                    } else {
+                        // this spaces are not trailing spaces. go back to VALUE state
+                        columnState = ColumnState.VALUE;
+                    }
+                    break;
+
+                case QUOTED_VALUE:
+                    if (isEndOfLine(c)) {
+                        // multi-line quoted value
+                        appendQuotedValue(line, valueStartPos, linePos);
+                        appendQuotedValue(newline, 0, newline.length);
+                        quotedValueLines.add(Arrays.copyOfRange(line, lineStart, lineEnd));
+                        if (!nextLine(false)) {
+                            throw new CsvTokenizer.InvalidValueException("Unexpected end of line during parsing a quoted value");
+                        }
+                        valueStartPos = lineStart;
+
+                    } else if (isQuote(c)) {
+                        int next = peekNextChar();
+                        final int nextNext = peekNextNextChar();
+                        if (isQuote(next)
+                                && (quotesInQuotedFields != QuotesInQuotedFields.ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS
+                                        || (!isDelimiter(nextNext) && !isEndOfLine(nextNext)))) {
+                            // Escaped by preceding it with another quote.
+                            appendQuotedValue(line, valueStartPos, linePos);
+                            valueStartPos = ++linePos;
+                        } else if (quotesInQuotedFields == QuotesInQuotedFields.ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS
+                                && !(isDelimiter(next) || isEndOfLine(next))) {
+                            // A non-escaped stray "quote character" in the field is processed as a regular character
+                            checkQuotedSize(valueStartPos, linePos);
+                        } else {
+                            appendQuotedValue(line, valueStartPos, linePos - 1);
+                            columnState = ColumnState.AFTER_QUOTED_VALUE;
+                        }
+
+                    } else if (isEscape(c)) {  // isQuote must be checked first in case of quote == escape
+                        int next = peekNextChar();
+                        if (isQuote(next) || isEscape(next)) { // escaped quote
+                            appendQuotedValue(line, valueStartPos, linePos - 1);
+                            appendQuotedValue(line, linePos, linePos + 1);
+                            valueStartPos = ++linePos;
+                        }
+
+                    } else {
+                        // keep QUOTED_VALUE state until the next character which changes the state
+                        linePos = indexOfAny(linePos, quote, escape, END_OF_LINE);
+                        checkQuotedSize(valueStartPos, linePos);
+                    }
+                    break;
+
+                case AFTER_QUOTED_VALUE:
+                    if (isDelimiter(c)) {
+                        if (delimiterFollowingBytes == null) {
+                            setValue(quotedValue, 0, quotedValueLength);
+                            return;
+                        } else if (isDelimiterFollowingFrom(linePos)) {
+                            linePos += delimiterFollowingBytes.length;
+                            setValue(quotedValue, 0, quotedValueLength);
+                            return;
+                        }
+                        // not a delimiter
+                    }
+                    if (isEndOfLine(c)) {
+                        recordState = RecordState.END;
+                        setValue(quotedValue, 0, quotedValueLength);
+                        return;
+
+                    } else if (isSpace(c)) {
+                        // column has trailing spaces and quoted. TODO should this be rejected?
+
+                    } else {
+                        throw new CsvTokenizer.InvalidValueException(String.format("Unexpected extra character '%c' after a value quoted by '%c'",
+                                    charAt(linePos - 1), (char) quote));
+                    }
+                    break;
+
+                default:
+                    assert false;
+            }
+        }
+    }
+
+    private void setValue(byte[] bytes, int from, int to) {
+        valueBytes = bytes;
+        valueOffset = from;
+        valueLength = to - from;
+    }
+
+    private void clearQuotedValue() {
+        quotedValueLength = 0;
+        quotedValueCounted = 0;
+        quotedValueChars = 0;
+    }
+
+    private void appendQuotedValue(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (quotedValueLength + length > quotedValue.length) {
+            quotedValue = Arrays.copyOf(quotedValue, Math.max(quotedValue.length * 2, quotedValueLength + length));
+        }
+        System.arraycopy(bytes, from, quotedValue, quotedValueLength, length);
+        quotedValueLength += length;
+    }
+
+    // CsvTokenizer limits the size of a quoted value in characters.
+    private void checkQuotedSize(int valueStartPos, int end) {
+        if (quotedValueLength + (end - valueStartPos) <= maxQuotedSizeLimit) {
+            // a character has at least one byte
+            return;
+        }
+        quotedValueChars += countChars(quotedValue, quotedValueCounted, quotedValueLength);
+        quotedValueCounted = quotedValueLength;
+        if (quotedValueChars + countChars(line, valueStartPos, end) > maxQuotedSizeLimit) {
+            throw new CsvTokenizer.QuotedSizeLimitExceededException("The size of the quoted value exceeds the limit size (" + maxQuotedSizeLimit + ")");
+        }
+    }
+
+    private int countChars(byte[] bytes, int from, int to) {
+        if (!charset.equals(UTF_8)) {
+            return to - from;
+        }
+        int count = 0;
+        int i = from;
+        while (i < to) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x80) {
+                count++;
+                i++;
+                continue;
+            }
+            int length;
+            int secondMin = 0x80;
+            int secondMax = 0xbf;
+            if (b >= 0xc2 && b <= 0xdf) {
+                length = 2;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                length = 3;
+                secondMin = (b == 0xe0) ? 0xa0 : 0x80;
+                secondMax = (b == 0xed) ? 0x9f : 0xbf;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                length = 4;
+                secondMin = (b == 0xf0) ? 0x90 : 0x80;
+                secondMax = (b == 0xf4) ? 0x8f : 0xbf;
+            } else {
+                return decodedLength(bytes, from, to);
+            }
+            if (i + length > to || (bytes[i + 1] & 0xff) < secondMin || (bytes[i + 1] & 0xff) > secondMax) {
+                return decodedLength(bytes, from, to);
+            }
+            for (int j = 2; j < length; j++) {
+                if ((bytes[i + j] & 0xc0) != 0x80) {
+                    return decodedLength(bytes, from, to);
+                }
+            }
+            count += (length == 4) ? 2 : 1;  // a surrogate pair
+            i += length;
+        }
+        return count;
+    }
+
+    private int decodedLength(byte[] bytes, int from, int to) {
+        // malformed bytes are replaced in the same way as decoding lines
+        return new String(bytes, from, to - from, charset).length();
+    }
+
+    // Returns the index of the first byte in line[from, lineEnd) which is a, b or c, or lineEnd.
+    private int indexOfAny(int from, int a, int b, int c) {
+        final long wordA = ONES * a;
+        final long wordB = ONES * b;
+        final long wordC = ONES * c;
+        int i = from;
+        while (lineEnd - i >= 8) {
+            final long word = lineWords.getLong(i);
+            final long found = zeroBytes(word ^ wordA) | zeroBytes(word ^ wordB) | zeroBytes(word ^ wordC);
+            if (found != 0) {
+                // the lowest flag is exact, and the first byte is the lowest one in little endian
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += 8;
+        }
+        for (; i < lineEnd; i++) {
+            int x = line[i] & 0xff;
+            if (x == a || x == b || x == c) {
+                return i;
+            }
+        }
+        return lineEnd;
+    }
+
+    // Sets the highest bit of each byte which is 0, and maybe of bytes above it.
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    private char charAt(int pos) {
+        int b = line[pos] & 0xff;
+        if (b < 0x80) {
+            return (char) b;
+        }
+        return new String(line, pos, Math.min(4, lineEnd - pos), charset).charAt(0);
+    }
+
+    private int nextChar() {
+        Preconditions.checkState(hasLine, "nextColumn is called after end of file");
+
+        if (linePos >= lineEnd) {
+            return END_OF_LINE;
+        } else {
+            return line[linePos++] & 0xff;
+        }
+    }
+
+    private int peekNextChar() {
+        Preconditions.checkState(hasLine, "peekNextChar is called after end of file");
+
+        if (linePos >= lineEnd) {
+            return END_OF_LINE;
+        } else {
+            return line[linePos] & 0xff;
+        }
+    }
+
+    private int peekNextNextChar() {
+        Preconditions.checkState(hasLine, "peekNextNextChar is called after end of file");
+
+        if (linePos + 1 >= lineEnd) {
+            return END_OF_LINE;
+        } else {
+            return line[linePos + 1] & 0xff;
+        }
+    }
+
+    private boolean lineStartsWith(byte[] prefix) {
+        if (lineEnd - lineStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[lineStart + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSpace(int c) {
+        return c == ' ';
+    }
+
+    private boolean isDelimiterFollowingFrom(int pos) {
+        if (lineEnd < pos + delimiterFollowingBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiterFollowingBytes.length; i++) {
+            if (delimiterFollowingBytes[i] != line[pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDelimiter(int c) {
+        return c == delimiterChar;
+    }
+
+    private boolean isEndOfLine(int c) {
+        return c == END_OF_LINE;
+    }
+
+    private boolean isQuote(int c) {
+        return quote != CsvTokenizer.NO_QUOTE && c == quote;
+    }
+
+    private boolean isEscape(int c) {
+        return escape != CsvTokenizer.NO_ESCAPE && c == escape;
+    }
+}
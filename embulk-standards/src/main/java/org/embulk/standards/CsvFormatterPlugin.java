@@ -1,6 +1,7 @@
 package org.embulk.standards;
 
 import com.google.common.base.Optional;
+import java.util.Arrays;
 import java.util.Map;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
@@ -111,9 +112,16 @@ public class CsvFormatterPlugin implements FormatterPlugin {
         return new PageOutput() {
             private final PageReader pageReader = new PageReader(schema);
             private final String delimiterString = String.valueOf(delimiter);
+            // escaped strings of the dictionary entries of the current page
+            private String[] escapedDictionaryStrings = new String[0];
 
             public void add(Page page) {
                 pageReader.setPage(page);
+                if (escapedDictionaryStrings.length < pageReader.getDictionarySize()) {
+                    escapedDictionaryStrings = new String[pageReader.getDictionarySize()];
+                } else {
+                    Arrays.fill(escapedDictionaryStrings, null);
+                }
                 while (pageReader.nextRecord()) {
                     schema.visitColumns(new ColumnVisitor() {
                             public void booleanColumn(Column column) {
@@ -146,7 +154,12 @@ public class CsvFormatterPlugin implements FormatterPlugin {
                             public void stringColumn(Column column) {
                                 addDelimiter(column);
                                 if (!pageReader.isNull(column)) {
-                                    addValue(pageReader.getString(column));
+                                    int dictionaryId = pageReader.getStringDictionaryId(column);
+                                    if (dictionaryId >= 0) {
+                                        addDictionaryValue(dictionaryId);
+                                    } else {
+                                        addValue(pageReader.getString(column));
+                                    }
                                 } else {
                                     addNullString();
                                 }
@@ -182,6 +195,17 @@ public class CsvFormatterPlugin implements FormatterPlugin {
                                 encoder.addText(setEscapeAndQuoteValue(v, delimiter, quotePolicy, quote, escape, newlineInField, nullString));
                             }
 
+                            private void addDictionaryValue(int dictionaryId) {
+                                // the same string is escaped once per page
+                                String escaped = escapedDictionaryStrings[dictionaryId];
+                                if (escaped == null) {
+                                    escaped = setEscapeAndQuoteValue(pageReader.getDictionaryString(dictionaryId),
+                                            delimiter, quotePolicy, quote, escape, newlineInField, nullString);
+                                    escapedDictionaryStrings[dictionaryId] = escaped;
+                                }
+                                encoder.addText(escaped);
+                            }
+
                             private void addNullString() {
                                 encoder.addText(nullString);
                             }
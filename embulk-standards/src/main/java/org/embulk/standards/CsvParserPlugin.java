@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableSet;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigException;
@@ -17,6 +16,7 @@ import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.FileInput;
 import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageLayout;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.ParserPlugin;
 import org.embulk.spi.Schema;
@@ -25,20 +25,13 @@ import org.embulk.spi.json.JsonParseException;
 import org.embulk.spi.json.JsonParser;
 import org.embulk.spi.time.TimestampParseException;
 import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.util.ByteLineReader;
 import org.embulk.spi.util.LineDecoder;
 import org.embulk.spi.util.Timestamps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class CsvParserPlugin implements ParserPlugin {
-    private static final ImmutableSet<String> TRUE_STRINGS =
-            ImmutableSet.of(
-                    "true", "True", "TRUE",
-                    "yes", "Yes", "YES",
-                    "t", "T", "y", "Y",
-                    "on", "On", "ON",
-                    "1");
-
     public interface PluginTask extends Task, LineDecoder.DecoderTask, TimestampParser.Task {
         @Config("columns")
         SchemaConfig getSchemaConfig();
@@ -204,6 +197,34 @@ public class CsvParserPlugin implements ParserPlugin {
         }
     }
 
+    // Tokenizers of lines decoded to strings, and of bytes of lines
+    interface Tokenizer {
+        long getCurrentLineNumber();
+
+        boolean skipHeaderLine();
+
+        String skipCurrentLine();
+
+        boolean nextFile();
+
+        boolean nextRecord();
+
+        boolean hasNextColumn();
+
+        String nextColumnOrNull();
+
+        // Reads the next column, and returns false if it is null. Otherwise the value is given by the following methods.
+        boolean nextColumnValue();
+
+        String getValueString();
+
+        long parseLongValue();
+
+        double parseDoubleValue();
+
+        boolean isTrueValue();
+    }
+
     public CsvParserPlugin() {
     }
 
@@ -232,13 +253,14 @@ public class CsvParserPlugin implements ParserPlugin {
         PluginTask task = taskSource.loadTask(PluginTask.class);
         final TimestampParser[] timestampParsers = Timestamps.newTimestampColumnParsers(task, task.getSchemaConfig());
         final JsonParser jsonParser = new JsonParser();
-        final CsvTokenizer tokenizer = new CsvTokenizer(new LineDecoder(input, task), task);
+        final Tokenizer tokenizer = newTokenizer(input, task);
         final boolean allowOptionalColumns = task.getAllowOptionalColumns();
         final boolean allowExtraColumns = task.getAllowExtraColumns();
         final boolean stopOnInvalidRecord = task.getStopOnInvalidRecord();
         final int skipHeaderLines = task.getSkipHeaderLines();
 
-        try (final PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, output)) {
+        // Each column is set exactly once per record. Values can be written into the page directly.
+        try (final PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, output, PageLayout.ROW, true)) {
             while (tokenizer.nextFile()) {
                 final String fileName = input.hintOfCurrentInputFileNameForLogging().orElse("-");
 
@@ -260,21 +282,19 @@ public class CsvParserPlugin implements ParserPlugin {
                     try {
                         schema.visitColumns(new ColumnVisitor() {
                                 public void booleanColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
-                                        pageBuilder.setBoolean(column, TRUE_STRINGS.contains(v));
+                                        pageBuilder.setBoolean(column, tokenizer.isTrueValue());
                                     }
                                 }
 
                                 public void longColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
                                         try {
-                                            pageBuilder.setLong(column, Long.parseLong(v));
+                                            pageBuilder.setLong(column, tokenizer.parseLongValue());
                                         } catch (NumberFormatException e) {
                                             // TODO support default value
                                             throw new CsvRecordValidateException(e);
@@ -283,12 +303,11 @@ public class CsvParserPlugin implements ParserPlugin {
                                 }
 
                                 public void doubleColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
                                         try {
-                                            pageBuilder.setDouble(column, Double.parseDouble(v));
+                                            pageBuilder.setDouble(column, tokenizer.parseDoubleValue());
                                         } catch (NumberFormatException e) {
                                             // TODO support default value
                                             throw new CsvRecordValidateException(e);
@@ -297,21 +316,19 @@ public class CsvParserPlugin implements ParserPlugin {
                                 }
 
                                 public void stringColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
-                                        pageBuilder.setString(column, v);
+                                        pageBuilder.setString(column, tokenizer.getValueString());
                                     }
                                 }
 
                                 public void timestampColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
                                         try {
-                                            pageBuilder.setTimestamp(column, timestampParsers[column.getIndex()].parse(v));
+                                            pageBuilder.setTimestamp(column, timestampParsers[column.getIndex()].parse(tokenizer.getValueString()));
                                         } catch (TimestampParseException e) {
                                             // TODO support default value
                                             throw new CsvRecordValidateException(e);
@@ -320,12 +337,11 @@ public class CsvParserPlugin implements ParserPlugin {
                                 }
 
                                 public void jsonColumn(Column column) {
-                                    String v = nextColumn();
-                                    if (v == null) {
+                                    if (!nextColumnValue()) {
                                         pageBuilder.setNull(column);
                                     } else {
                                         try {
-                                            pageBuilder.setJson(column, jsonParser.parse(v));
+                                            pageBuilder.setJson(column, jsonParser.parse(tokenizer.getValueString()));
                                         } catch (JsonParseException e) {
                                             // TODO support default value
                                             throw new CsvRecordValidateException(e);
@@ -333,12 +349,12 @@ public class CsvParserPlugin implements ParserPlugin {
                                     }
                                 }
 
-                                private String nextColumn() {
+                                private boolean nextColumnValue() {
                                     if (allowOptionalColumns && !tokenizer.hasNextColumn()) {
                                         // TODO warning
-                                        return null;
+                                        return false;
                                     }
-                                    return tokenizer.nextColumnOrNull();
+                                    return tokenizer.nextColumnValue();
                                 }
                             });
 
@@ -357,6 +373,7 @@ public class CsvParserPlugin implements ParserPlugin {
                         pageBuilder.addRecord();
 
                     } catch (CsvTokenizer.InvalidFormatException | CsvTokenizer.InvalidValueException | CsvRecordValidateException e) {
+                        pageBuilder.discardRecord();
                         String skippedLine = tokenizer.skipCurrentLine();
                         long lineNumber = tokenizer.getCurrentLineNumber();
                         if (stopOnInvalidRecord) {
@@ -378,6 +395,14 @@ public class CsvParserPlugin implements ParserPlugin {
         }
     }
 
+    static Tokenizer newTokenizer(FileInput input, PluginTask task) {
+        if (ByteCsvTokenizer.isSupported(task)) {
+            // the delimiter, quotes and newlines are found in bytes without decoding lines
+            return new ByteCsvTokenizer(new ByteLineReader(input, task.getCharset()), task);
+        }
+        return new CsvTokenizer(new LineDecoder(input, task), task);
+    }
+
     static class CsvRecordValidateException extends DataException {
         CsvRecordValidateException(Throwable cause) {
             super(cause);
@@ -7,10 +7,11 @@ import java.util.Deque;
 import java.util.List;
 import org.embulk.config.ConfigException;
 import org.embulk.spi.DataException;
+import org.embulk.spi.util.Conversions;
 import org.embulk.spi.util.LineDecoder;
 import org.embulk.standards.CsvParserPlugin.QuotesInQuotedFields;
 
-public class CsvTokenizer {
+public class CsvTokenizer implements CsvParserPlugin.Tokenizer {
     static enum RecordState {
         NOT_END, END,
     }
@@ -41,6 +42,7 @@ public class CsvTokenizer {
     private String line = null;
     private int linePos = 0;
     private boolean wasQuotedColumn = false;
+    private String value = null;  // the last column read by nextColumnValue()
     private List<String> quotedValueLines = new ArrayList<>();
     private Deque<String> unreadLines = new ArrayDeque<>();
 
@@ -402,6 +404,27 @@ public class CsvTokenizer {
         }
     }
 
+    public boolean nextColumnValue() {
+        value = nextColumnOrNull();
+        return value != null;
+    }
+
+    public String getValueString() {
+        return value;
+    }
+
+    public long parseLongValue() {
+        return Conversions.parseLong(value);
+    }
+
+    public double parseDoubleValue() {
+        return Conversions.parseDouble(value);
+    }
+
+    public boolean isTrueValue() {
+        return Conversions.isTrue(value);
+    }
+
     public boolean wasQuotedColumn() {
         return wasQuotedColumn;
     }
@@ -486,13 +509,13 @@ public class CsvTokenizer {
         }
     }
 
-    public class TooManyColumnsException extends InvalidFormatException {
+    public static class TooManyColumnsException extends InvalidFormatException {
         public TooManyColumnsException(String message) {
             super(message);
         }
     }
 
-    public class TooFewColumnsException extends InvalidFormatException {
+    public static class TooFewColumnsException extends InvalidFormatException {
         public TooFewColumnsException(String message) {
             super(message);
         }
@@ -27,6 +27,7 @@ import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.FileInput;
 import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageLayout;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.ParserPlugin;
 import org.embulk.spi.Schema;
@@ -37,6 +38,7 @@ import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.time.TimestampParser;
 import org.embulk.spi.type.TimestampType;
 import org.embulk.spi.type.Types;
+import org.embulk.spi.util.Conversions;
 import org.embulk.spi.util.FileInputInputStream;
 import org.msgpack.core.Preconditions;
 import org.msgpack.value.MapValue;
@@ -152,6 +154,7 @@ public class JsonParserPlugin implements ParserPlugin {
                                 evenOneJsonParsed = true;
                             }
                         } catch (JsonRecordValidateException e) {
+                            pageBuilder.discardRecord();
                             if (stopOnInvalidRecord) {
                                 throw new DataException(String.format("Invalid record in %s: %s", fileName, value.toJson()), e);
                             }
@@ -246,7 +249,7 @@ public class JsonParserPlugin implements ParserPlugin {
                     if (columnValue.isIntegerValue()) {
                         longValue = columnValue.asIntegerValue().toLong();
                     } else {
-                        longValue = Long.parseLong(columnValue.toString());
+                        longValue = Conversions.parseLong(columnValue.toString());
                     }
                     pageBuilder.setLong(column, longValue);
                 }
@@ -257,7 +260,7 @@ public class JsonParserPlugin implements ParserPlugin {
                     if (columnValue.isFloatValue()) {
                         doubleValue = columnValue.asFloatValue().toDouble();
                     } else {
-                        doubleValue = Double.parseDouble(columnValue.toString());
+                        doubleValue = Conversions.parseDouble(columnValue.toString());
                     }
                     pageBuilder.setDouble(column, doubleValue);
                 }
@@ -282,7 +285,8 @@ public class JsonParserPlugin implements ParserPlugin {
     }
 
     private PageBuilder newPageBuilder(Schema schema, PageOutput output) {
-        return new PageBuilder(Exec.getBufferAllocator(), schema, output);
+        // Each column is set exactly once per record. Values can be written into the page directly.
+        return new PageBuilder(Exec.getBufferAllocator(), schema, output, PageLayout.ROW, true);
     }
 
     private Value parseColumnValueWithOffsetInJsonPointer(String valueAsJsonString, String jsonPointer) {
@@ -0,0 +1,112 @@
+package org.embulk.standards;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * LineAlignedRangeInputStream reads lines which start in a byte range of a file.
+ *
+ * <p>A line belongs to the range which contains its first byte. The stream skips the tail of a line which starts
+ * before the range, and reads beyond the end of the range to finish the last line which starts in the range. Ranges
+ * which cover a file without gaps therefore read every line of the file exactly once. Lines are delimited by LF, and
+ * so CRLF works as well.
+ *
+ * <p>The range can be shortened by another thread while it is read, so that the rest of the range is read by another
+ * stream.
+ */
+final class LineAlignedRangeInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final long length;  // length of the file when it is opened
+    private long end;  // guarded by this
+    private long position;  // offset in the file of the next byte of |in|, guarded by this
+    private boolean atLineStart;
+    private boolean closed;
+
+    LineAlignedRangeInputStream(final FileInputStream file, final long start, final long end) throws IOException {
+        // The byte just before the range tells whether the range starts at a line.
+        final long from = start > 0 ? start - 1 : 0;
+        this.length = file.getChannel().size();
+        file.getChannel().position(from);
+        this.in = new BufferedInputStream(file, BUFFER_SIZE);
+        this.end = end;
+        this.position = from;
+        if (start > 0) {
+            skipToNextLine();
+        }
+        this.atLineStart = true;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (position >= end && atLineStart) {
+            return -1;
+        }
+        final int b = in.read();
+        if (b < 0) {
+            return -1;
+        }
+        position++;
+        atLineStart = (b == '\n');
+        return b;
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            // Only the rest of the last line is read beyond the range, which is usually short.
+            int n = 0;
+            while (n < len) {
+                final int c = read();
+                if (c < 0) {
+                    break;
+                }
+                b[off + n] = (byte) c;
+                n++;
+            }
+            return n > 0 ? n : -1;
+        }
+        final int n = in.read(b, off, (int) Math.min(len, end - position));
+        if (n < 0) {
+            return -1;
+        }
+        position += n;
+        atLineStart = (b[off + n - 1] == '\n');
+        return n;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+
+    /**
+     * Shortens the range to the middle of the bytes not read yet, and returns the new end of the range. Returns -1
+     * without changing the range if fewer than {@code minSplitSize} bytes would be left to each half.
+     */
+    synchronized long splitUnread(final long minSplitSize) {
+        final long limit = Math.min(end, length);
+        if (closed || limit - position < minSplitSize * 2) {
+            return -1;
+        }
+        end = position + (limit - position) / 2;
+        return end;
+    }
+
+    private void skipToNextLine() throws IOException {
+        int b;
+        while ((b = in.read()) >= 0) {
+            position++;
+            if (b == '\n') {
+                return;
+            }
+        }
+    }
+}
@@ -24,15 +24,19 @@ import java.util.Set;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigInject;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
 import org.embulk.spi.Exec;
 import org.embulk.spi.FileInputPlugin;
 import org.embulk.spi.TransactionalFileInput;
+import org.embulk.spi.unit.ByteSize;
+import org.embulk.spi.util.InputStreamFileInput;
 import org.embulk.spi.util.InputStreamTransactionalFileInput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,21 +58,84 @@ public class LocalFileInputPlugin implements FileInputPlugin {
 
         void setFiles(List<String> files);
 
+        List<Long> getFileSizes();
+
+        void setFileSizes(List<Long> fileSizes);
+
+        @Config("split_size")
+        @ConfigDefault("null")
+        Optional<ByteSize> getSplitSize();
+
+        @Config("pack_size")
+        @ConfigDefault("null")
+        Optional<ByteSize> getPackSize();
+
+        @Config("memory_map")
+        @ConfigDefault("false")
+        boolean getMemoryMap();
+
+        // Files are read as ranges if they are split. They are empty if files are not split, and then the i-th range is
+        // the whole i-th file.
+        List<Integer> getRangeFileIndexes();
+
+        void setRangeFileIndexes(List<Integer> rangeFileIndexes);
+
+        List<Long> getRangeStarts();
+
+        void setRangeStarts(List<Long> rangeStarts);
+
+        List<Long> getRangeEnds();
+
+        void setRangeEnds(List<Long> rangeEnds);
+
+        // A task reads consecutive ranges. The i-th task reads the next getTaskRangeCounts().get(i) ranges. It is empty if
+        // files are neither split nor packed, and then the i-th task reads the i-th range.
+        List<Integer> getTaskRangeCounts();
+
+        void setTaskRangeCounts(List<Integer> taskRangeCounts);
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
 
+    private volatile RangeProvider openedProvider;
+
     @Override
     public ConfigDiff transaction(final ConfigSource config, final FileInputPlugin.Control control) {
         final PluginTask task = config.loadConfig(PluginTask.class);
 
         // list files recursively
-        final List<String> files = listFiles(task);
+        final List<Long> fileSizes = new ArrayList<>();
+        final List<String> files = listFiles(task, fileSizes);
         logger.info("Loading files {}", files);
         task.setFiles(files);
+        task.setFileSizes(fileSizes);
+
+        final List<Integer> rangeFileIndexes = new ArrayList<>();
+        final List<Long> rangeStarts = new ArrayList<>();
+        final List<Long> rangeEnds = new ArrayList<>();
+        final List<Integer> taskRangeCounts = new ArrayList<>();
+        if (task.getSplitSize().isPresent()) {
+            validateSplittable(config);
+            splitFiles(fileSizes, task.getSplitSize().get().getBytes(), rangeFileIndexes, rangeStarts, rangeEnds);
+            logger.info("Split {} files into {} ranges", files.size(), rangeFileIndexes.size());
+        }
+        if (task.getSplitSize().isPresent() || task.getPackSize().isPresent()) {
+            // Packed files which are not split are stored only as the numbers of files of tasks, not as ranges, so that
+            // the task source doesn't grow by three lists of all files.
+            final long packSize = task.getPackSize().isPresent() ? task.getPackSize().get().getBytes() : 0;
+            taskRangeCounts.addAll(packRanges(fileSizes, rangeFileIndexes, rangeStarts, rangeEnds, packSize));
+            if (task.getPackSize().isPresent()) {
+                logger.info("Packed {} ranges into {} tasks", getRangeCount(fileSizes, rangeFileIndexes), taskRangeCounts.size());
+            }
+        }
+        task.setRangeFileIndexes(rangeFileIndexes);
+        task.setRangeStarts(rangeStarts);
+        task.setRangeEnds(rangeEnds);
+        task.setTaskRangeCounts(taskRangeCounts);
 
-        // number of processors is same with number of files
-        final int taskCount = task.getFiles().size();
+        // number of processors is same with number of files, or number of packs of ranges if files are split or packed
+        final int taskCount = taskRangeCounts.isEmpty() ? task.getFiles().size() : taskRangeCounts.size();
         return resume(task.dump(), taskCount, control);
     }
 
@@ -100,19 +167,57 @@ public class LocalFileInputPlugin implements FileInputPlugin {
     public void cleanup(final TaskSource taskSource, final int taskCount, final List<TaskReport> successTaskReports) {
     }
 
+    @Override
+    public Optional<long[]> hintOfTaskCosts(final TaskSource taskSource, final int taskCount) {
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
+        final List<Long> fileSizes = task.getFileSizes();
+        if (fileSizes == null) {
+            return Optional.empty();
+        }
+
+        // Costs are bytes to read.
+        final long[] costs = new long[taskCount];
+        if (task.getTaskRangeCounts() == null || task.getTaskRangeCounts().isEmpty()) {
+            for (int i = 0; i < taskCount; i++) {
+                costs[i] = fileSizes.get(i);
+            }
+        } else {
+            int rangeIndex = 0;
+            for (int i = 0; i < taskCount; i++) {
+                for (int j = 0; j < task.getTaskRangeCounts().get(i); j++) {
+                    costs[i] += getRangeSize(fileSizes, task.getRangeFileIndexes(), task.getRangeStarts(), task.getRangeEnds(), rangeIndex);
+                    rangeIndex++;
+                }
+            }
+        }
+        return Optional.of(costs);
+    }
+
     @Override
     public TransactionalFileInput open(final TaskSource taskSource, final int taskIndex) {
         final PluginTask task = taskSource.loadTask(PluginTask.class);
 
-        final File file = new File(task.getFiles().get(taskIndex));
+        final int firstRange;
+        final int rangeCount;
+        if (task.getTaskRangeCounts() == null || task.getTaskRangeCounts().isEmpty()) {
+            // A task reads a whole file.
+            firstRange = taskIndex;
+            rangeCount = 1;
+        } else {
+            int sum = 0;
+            for (int i = 0; i < taskIndex; i++) {
+                sum += task.getTaskRangeCounts().get(i);
+            }
+            firstRange = sum;
+            rangeCount = task.getTaskRangeCounts().get(taskIndex);
+        }
 
-        return new InputStreamTransactionalFileInput(
-                task.getBufferAllocator(),
-                new InputStreamTransactionalFileInput.Opener() {
-                    public InputStream open() throws IOException {
-                        return new FileInputStream(file);
-                    }
-                }) {
+        final RangeProvider provider = new RangeProvider(task, firstRange, firstRange + rangeCount);
+        this.openedProvider = provider;
+        if (task.getMemoryMap()) {
+            return new MappedFileInput(provider);
+        }
+        return new InputStreamTransactionalFileInput(task.getBufferAllocator(), provider) {
             @Override
             public void abort() {}
 
@@ -120,19 +225,293 @@ public class LocalFileInputPlugin implements FileInputPlugin {
             public TaskReport commit() {
                 return Exec.newTaskReport();
             }
+        };
+    }
 
-            @Override
-            public Optional<String> hintOfCurrentInputFileNameForLogging() {
-                return Optional.ofNullable(file.getAbsolutePath());
+    @Override
+    public Optional<TaskSource> splitRemainder() {
+        final RangeProvider provider = this.openedProvider;
+        if (provider == null) {
+            return Optional.empty();
+        }
+        return provider.splitRemainder();
+    }
+
+    /**
+     * RangeProvider opens ranges of a task one by one. Another thread can take away ranges not opened yet, and also
+     * the rest of the range being read if files are split by "split_size", which means that a range can start at any
+     * line.
+     */
+    private static final class RangeProvider implements InputStreamFileInput.Provider {
+        private final PluginTask task;
+        private int rangeIndex;  // guarded by this
+        private int rangeLimit;  // guarded by this
+        private LineAlignedRangeInputStream current;  // guarded by this
+        private MappedRange currentMapped;  // guarded by this
+
+        RangeProvider(final PluginTask task, final int firstRange, final int rangeLimit) {
+            this.task = task;
+            this.rangeIndex = firstRange;
+            this.rangeLimit = rangeLimit;
+        }
+
+        @Override
+        public synchronized InputStreamFileInput.InputStreamWithHints openNextWithHints() throws IOException {
+            current = null;
+            if (rangeIndex >= rangeLimit) {
+                return null;
             }
-        };
+            final InputStreamFileInput.InputStreamWithHints next = openRange(rangeIndex);
+            rangeIndex++;
+            return next;
+        }
+
+        /**
+         * Opens the next range to read through memory mapping, or returns null if all ranges are opened.
+         */
+        synchronized MappedRange openNextMapped() throws IOException {
+            currentMapped = null;
+            if (rangeIndex >= rangeLimit) {
+                return null;
+            }
+            currentMapped = new MappedRange(new File(task.getFiles().get(getRangeFileIndex(task, rangeIndex))),
+                                            getRangeStart(task, rangeIndex), getRangeEnd(task, rangeIndex));
+            rangeIndex++;
+            return currentMapped;
+        }
+
+        @Override
+        public void close() {}
+
+        private InputStreamFileInput.InputStreamWithHints openRange(final int index) throws IOException {
+            final File file = new File(task.getFiles().get(getRangeFileIndex(task, index)));
+            final long start = getRangeStart(task, index);
+            final long end = getRangeEnd(task, index);
+            final InputStream stream;
+            if (start == 0 && end == Long.MAX_VALUE && !task.getSplitSize().isPresent()) {
+                stream = new FileInputStream(file);
+            } else {
+                current = new LineAlignedRangeInputStream(new FileInputStream(file), start, end);
+                stream = current;
+            }
+            return new InputStreamFileInput.InputStreamWithHints(stream, file.getAbsolutePath());
+        }
+
+        /**
+         * Hands back the latter half of the ranges not opened yet, or the latter half of the range being read if all
+         * ranges are opened. The returned task source reads them as its task 0.
+         */
+        synchronized Optional<TaskSource> splitRemainder() {
+            final List<Integer> fileIndexes = new ArrayList<>();
+            final List<Long> starts = new ArrayList<>();
+            final List<Long> ends = new ArrayList<>();
+            if (rangeIndex < rangeLimit) {
+                final int splitAt = rangeIndex + (rangeLimit - rangeIndex) / 2;
+                for (int i = splitAt; i < rangeLimit; i++) {
+                    fileIndexes.add(getRangeFileIndex(task, i));
+                    starts.add(getRangeStart(task, i));
+                    ends.add(getRangeEnd(task, i));
+                }
+                rangeLimit = splitAt;
+            } else if (current != null || (currentMapped != null && task.getSplitSize().isPresent())) {
+                final int currentRange = rangeIndex - 1;
+                final long splitAt = current != null ? current.splitUnread(MIN_SPLIT_SIZE) : currentMapped.splitUnread(MIN_SPLIT_SIZE);
+                if (splitAt < 0) {
+                    return Optional.empty();
+                }
+                fileIndexes.add(getRangeFileIndex(task, currentRange));
+                starts.add(splitAt);
+                ends.add(getRangeEnd(task, currentRange));
+            } else {
+                return Optional.empty();
+            }
+
+            final PluginTask remainder = task.dump().loadTask(PluginTask.class);
+            remainder.setRangeFileIndexes(fileIndexes);
+            remainder.setRangeStarts(starts);
+            remainder.setRangeEnds(ends);
+            remainder.setTaskRangeCounts(Collections.singletonList(fileIndexes.size()));
+            logger.info("Handed back {} ranges from {} at {}", fileIndexes.size(),
+                        task.getFiles().get(fileIndexes.get(0)), starts.get(0));
+            return Optional.of(remainder.dump());
+        }
+    }
+
+    /**
+     * MappedFileInput reads ranges which RangeProvider opens through memory mapping. Its buffers are not backed by
+     * arrays.
+     */
+    private static final class MappedFileInput implements TransactionalFileInput {
+        private final RangeProvider provider;
+        private MappedRange current;
+
+        MappedFileInput(final RangeProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public boolean nextFile() {
+            closeCurrent();
+            try {
+                current = provider.openNextMapped();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return current != null;
+        }
+
+        @Override
+        public Buffer poll() {
+            if (current == null) {
+                throw new IllegalStateException("nextFile() must be called before poll()");
+            }
+            try {
+                return current.next();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            closeCurrent();
+        }
+
+        @Override
+        public void abort() {}
+
+        @Override
+        public TaskReport commit() {
+            return Exec.newTaskReport();
+        }
+
+        @Override
+        public Optional<String> hintOfCurrentInputFileNameForLogging() {
+            return current != null ? Optional.of(current.getPath()) : Optional.<String>empty();
+        }
+
+        private void closeCurrent() {
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                current = null;
+            }
+        }
+    }
+
+    private static void validateSplittable(final ConfigSource config) {
+        // A range of a compressed file can't be decoded without decoding the file from its beginning.
+        if (config.get(Object[].class, "decoders", new Object[0]).length > 0) {
+            throw new ConfigException("'split_size' option can't be used with 'decoders'. Compressed files can't be split.");
+        }
+        // Each range is parsed as if it were a file. Header lines exist only in the first range of a file.
+        final ConfigSource parserConfig = config.getNestedOrGetEmpty("parser");
+        if (parserConfig.get(Integer.class, "skip_header_lines", 0) > 0 || parserConfig.get(Boolean.class, "header_line", false)) {
+            throw new ConfigException("'split_size' option can't be used with 'skip_header_lines' nor 'header_line' of the parser.");
+        }
+    }
+
+    /**
+     * Splits files larger than {@code splitSize} into ranges of {@code splitSize} bytes. A file not larger than
+     * {@code splitSize} is a range from 0 to {@code Long.MAX_VALUE} so that it is read as a whole.
+     */
+    static void splitFiles(final List<Long> fileSizes, final long splitSize,
+                           final List<Integer> rangeFileIndexes, final List<Long> rangeStarts, final List<Long> rangeEnds) {
+        if (splitSize <= 0) {
+            throw new ConfigException("'split_size' option must be positive.");
+        }
+        for (int i = 0; i < fileSizes.size(); i++) {
+            final long size = fileSizes.get(i);
+            if (size <= splitSize) {
+                rangeFileIndexes.add(i);
+                rangeStarts.add(0L);
+                rangeEnds.add(Long.MAX_VALUE);
+                continue;
+            }
+            for (long start = 0; start < size; start += splitSize) {
+                rangeFileIndexes.add(i);
+                rangeStarts.add(start);
+                // The last range reads to the end of the file even if the file has grown.
+                rangeEnds.add(start + splitSize < size ? start + splitSize : Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Packs consecutive ranges into tasks so that each task reads at least {@code packSize} bytes, except the last
+     * task. Returns the numbers of ranges of the tasks. Each range is a task if {@code packSize} is 0. Ranges are whole
+     * files if the lists of ranges are empty.
+     */
+    static List<Integer> packRanges(final List<Long> fileSizes, final List<Integer> rangeFileIndexes,
+                                    final List<Long> rangeStarts, final List<Long> rangeEnds, final long packSize) {
+        if (packSize < 0) {
+            throw new ConfigException("'pack_size' option must not be negative.");
+        }
+        final List<Integer> taskRangeCounts = new ArrayList<>();
+        int count = 0;
+        long packed = 0;
+        for (int i = 0; i < getRangeCount(fileSizes, rangeFileIndexes); i++) {
+            count++;
+            packed += getRangeSize(fileSizes, rangeFileIndexes, rangeStarts, rangeEnds, i);
+            if (packed >= packSize) {
+                taskRangeCounts.add(count);
+                count = 0;
+                packed = 0;
+            }
+        }
+        if (count > 0) {
+            taskRangeCounts.add(count);
+        }
+        return taskRangeCounts;
+    }
+
+    private static int getRangeCount(final List<Long> fileSizes, final List<Integer> rangeFileIndexes) {
+        return rangeFileIndexes == null || rangeFileIndexes.isEmpty() ? fileSizes.size() : rangeFileIndexes.size();
+    }
+
+    private static long getRangeSize(final List<Long> fileSizes, final List<Integer> rangeFileIndexes,
+                                     final List<Long> rangeStarts, final List<Long> rangeEnds, final int rangeIndex) {
+        if (rangeFileIndexes == null || rangeFileIndexes.isEmpty()) {
+            return fileSizes.get(rangeIndex);
+        }
+        final long end = rangeEnds.get(rangeIndex);
+        final long start = rangeStarts.get(rangeIndex);
+        return (end == Long.MAX_VALUE ? fileSizes.get(rangeFileIndexes.get(rangeIndex)) : end) - start;
+    }
+
+    private static int getRangeFileIndex(final PluginTask task, final int rangeIndex) {
+        if (task.getRangeFileIndexes() == null || task.getRangeFileIndexes().isEmpty()) {
+            return rangeIndex;
+        }
+        return task.getRangeFileIndexes().get(rangeIndex);
+    }
+
+    private static long getRangeStart(final PluginTask task, final int rangeIndex) {
+        if (task.getRangeFileIndexes() == null || task.getRangeFileIndexes().isEmpty()) {
+            return 0;
+        }
+        return task.getRangeStarts().get(rangeIndex);
+    }
+
+    private static long getRangeEnd(final PluginTask task, final int rangeIndex) {
+        if (task.getRangeFileIndexes() == null || task.getRangeFileIndexes().isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return task.getRangeEnds().get(rangeIndex);
     }
 
     static List<String> listFilesForTesting(final PluginTask task) {
-        return listFiles(task);
+        return listFiles(task, new ArrayList<Long>());
     }
 
-    private static List<String> listFiles(final PluginTask task) {
+    static List<String> listFilesForTesting(final PluginTask task, final List<Long> sizesFound) {
+        return listFiles(task, sizesFound);
+    }
+
+    private static List<String> listFiles(final PluginTask task, final List<Long> sizesFound) {
         // This |pathPrefixResolved| can still be a relative path from the working directory.
         // The path should not be normalized by Path#normalize to eliminate redundant name elements like "." and "..".
         final Path pathPrefixResolved = WORKING_DIRECTORY.resolve(Paths.get(task.getPathPrefix()));
@@ -226,6 +605,8 @@ public class LocalFileInputPlugin implements FileInputPlugin {
 
                     @Override
                     public FileVisitResult visitFile(final Path fileOnVisit, final BasicFileAttributes attrs) {
+                        // |attrs| is of the link itself for a symbolic link if |FOLLOW_LINKS| is not set.
+                        final long size = attrs.isSymbolicLink() ? fileOnVisit.toFile().length() : attrs.size();
                         // NOTE: This |fileOnVisit| contains the path elements of |dirToStartWalking|.
                         try {
                             // Avoid directories from listing.
@@ -249,10 +630,12 @@ public class LocalFileInputPlugin implements FileInputPlugin {
                             if (parent.equals(dirToStartWalking)) {
                                 if (baseFileNameMatcher.matches(fileOnVisit.getFileName())) {
                                     filesFound.add(fileOnVisit.toString());
+                                    sizesFound.add(size);
                                     return FileVisitResult.CONTINUE;
                                 }
                             } else {
                                 filesFound.add(fileOnVisit.toString());
+                                sizesFound.add(size);
                             }
                             return FileVisitResult.CONTINUE;
                         }
@@ -403,5 +786,8 @@ public class LocalFileInputPlugin implements FileInputPlugin {
     private static final Path DOT = Paths.get(".");
     private static final Path DOT_DOT = Paths.get("..");
 
+    // A range being read is not split if fewer bytes than this would be left to each half.
+    private static final long MIN_SPLIT_SIZE = 1024 * 1024;
+
     private static final Logger logger = LoggerFactory.getLogger(LocalFileInputPlugin.class);
 }
@@ -0,0 +1,112 @@
+package org.embulk.standards;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.embulk.spi.Buffer;
+
+/**
+ * MappedRange reads lines which start in a byte range of a file as buffers over memory-mapped windows of the file.
+ *
+ * <p>Lines belong to ranges in the same way as LineAlignedRangeInputStream. Buffers wrap the mapped memory, and so
+ * bytes are not copied from the kernel into a buffer. A window is unmapped when it is garbage-collected after its
+ * buffers are released. It is never unmapped explicitly because a reader may still hold a slice of it.
+ *
+ * <p>The range can be shortened by another thread while it is read, so that the rest of the range is read by another
+ * reader.
+ */
+final class MappedRange implements AutoCloseable {
+    private static final int WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private final String path;
+    private final FileChannel channel;
+    private final long length;  // length of the file when it is opened
+    private long end;  // guarded by this
+    private long position;  // offset in the file of the next byte to return, guarded by this
+    private boolean atLineStart;  // guarded by this
+    private boolean closed;  // guarded by this
+
+    MappedRange(final File file, final long start, final long end) throws IOException {
+        this.path = file.getAbsolutePath();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.length = channel.size();
+            this.end = end;
+            // The byte just before the range tells whether the range starts at a line.
+            this.position = start > 0 ? findNextLine(start - 1) : 0;
+            this.atLineStart = true;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns a buffer over the next bytes, or null at the end of the range.
+     */
+    synchronized Buffer next() throws IOException {
+        if (position >= length || (position >= end && atLineStart)) {
+            return null;
+        }
+        final long limit = position < end ? Math.min(end, length) : length;
+        final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(limit - position, WINDOW_SIZE));
+        if (position >= end) {
+            // Only the rest of the last line is read beyond the range, which is usually short.
+            final int newline = indexOfNewline(window);
+            if (newline >= 0) {
+                window.limit(newline + 1);
+            }
+        }
+        position += window.limit();
+        atLineStart = (window.get(window.limit() - 1) == '\n');
+        return Buffer.wrap(window);
+    }
+
+    /**
+     * Shortens the range to the middle of the bytes not returned yet, and returns the new end of the range. Returns -1
+     * without changing the range if fewer than {@code minSplitSize} bytes would be left to each half.
+     */
+    synchronized long splitUnread(final long minSplitSize) {
+        final long limit = Math.min(end, length);
+        if (closed || limit - position < minSplitSize * 2) {
+            return -1;
+        }
+        end = position + (limit - position) / 2;
+        return end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();  // mapped windows stay valid after the channel is closed
+    }
+
+    private long findNextLine(final long from) throws IOException {
+        long offset = from;
+        while (offset < length) {
+            final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(length - offset, WINDOW_SIZE));
+            final int newline = indexOfNewline(window);
+            if (newline >= 0) {
+                return offset + newline + 1;
+            }
+            offset += window.limit();
+        }
+        return length;
+    }
+
+    private static int indexOfNewline(final ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -48,4 +48,9 @@ public class NullOutputPlugin implements OutputPlugin {
             }
         };
     }
+
+    @Override
+    public boolean hasIsolatedTaskOutputs() {
+        return true;  // nothing is written
+    }
 }
@@ -0,0 +1,158 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+import org.embulk.spi.FileInput;
+import org.embulk.spi.util.ByteLineReader;
+import org.embulk.spi.util.LineDecoder;
+import org.embulk.spi.util.ListFileInput;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestByteCsvTokenizer {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private ConfigSource config;
+
+    @Before
+    public void setup() {
+        config = Exec.newConfigSource()
+            .set("newline", "LF")
+            .set("columns", ImmutableList.of(
+                        ImmutableMap.<String, Object>of("name", "a", "type", "string"),
+                        ImmutableMap.<String, Object>of("name", "b", "type", "string")));
+    }
+
+    private CsvParserPlugin.PluginTask loadTask() {
+        return config.loadConfig(CsvParserPlugin.PluginTask.class);
+    }
+
+    // splits the text into buffers of the given size so that lines and values span buffers
+    private static FileInput newFileInput(CsvParserPlugin.PluginTask task, String text, int bufferSize) {
+        return newFileInput(task, text, bufferSize, false);
+    }
+
+    // buffers have no array if direct is true, as memory-mapped buffers
+    private static FileInput newFileInput(CsvParserPlugin.PluginTask task, String text, int bufferSize, boolean direct) {
+        byte[] bytes = text.getBytes(task.getCharset());
+        List<Buffer> buffers = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += bufferSize) {
+            int length = Math.min(bufferSize, bytes.length - offset);
+            if (direct) {
+                ByteBuffer byteBuffer = ByteBuffer.allocateDirect(length);
+                byteBuffer.put(bytes, offset, length).flip();
+                buffers.add(Buffer.wrap(byteBuffer));
+            } else {
+                buffers.add(Buffer.wrap(bytes, offset, length));
+            }
+        }
+        return new ListFileInput(ImmutableList.of(buffers));
+    }
+
+    // reads records in the same way as CsvParserPlugin, and records skipped lines with the error
+    private static List<String> tokenize(CsvParserPlugin.Tokenizer tokenizer, int columnCount) {
+        List<String> results = new ArrayList<>();
+        assertTrue(tokenizer.nextFile());
+        boolean hasNextRecord = tokenizer.nextRecord();
+        while (hasNextRecord) {
+            try {
+                List<String> record = new ArrayList<>();
+                for (int i = 0; i < columnCount; i++) {
+                    record.add(tokenizer.nextColumnOrNull());
+                }
+                hasNextRecord = tokenizer.nextRecord();
+                results.add(record.toString());
+            } catch (CsvTokenizer.InvalidFormatException | CsvTokenizer.InvalidValueException ex) {
+                String skippedLine = tokenizer.skipCurrentLine();
+                results.add(tokenizer.getCurrentLineNumber() + ": " + ex.getMessage() + ": " + skippedLine);
+                hasNextRecord = tokenizer.nextRecord();
+            }
+        }
+        return results;
+    }
+
+    private void assertSameAsCsvTokenizer(String text) {
+        CsvParserPlugin.PluginTask task = loadTask();
+        assertTrue(ByteCsvTokenizer.isSupported(task));
+        List<String> expected = tokenize(new CsvTokenizer(new LineDecoder(newFileInput(task, text, 1024), task), task), 2);
+        for (int bufferSize : new int[] {1, 3, 7, 1024}) {
+            for (boolean direct : new boolean[] {false, true}) {
+                ByteLineReader reader = new ByteLineReader(newFileInput(task, text, bufferSize, direct), task.getCharset());
+                assertEquals(expected, tokenize(new ByteCsvTokenizer(reader, task), 2));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsCsvTokenizer() throws Exception {
+        assertSameAsCsvTokenizer("aaa,bbb\n\n\"c\"\"c\",\"d\nd\"\nあいう,\"えお\"\n,\"\"\nlong value of the first column,x\n");
+    }
+
+    @Test
+    public void testSameAsCsvTokenizerWithErrors() throws Exception {
+        // too many columns, too few columns, a character after a quote and a quoted value without the end
+        assertSameAsCsvTokenizer("a,b,c\nd\n\"e\"f,g\nh,\"i\nj,k\n");
+    }
+
+    @Test
+    public void testSameAsCsvTokenizerWithOptions() throws Exception {
+        config.set("delimiter", "::")
+            .set("escape", "\\")
+            .set("null_string", "\\N")
+            .set("trim_if_not_quoted", true)
+            .set("comment_line_marker", "#")
+            .set("max_quoted_size_limit", 8);
+        assertSameAsCsvTokenizer("#comment\n a :: b \n\\N::\"c\\\"c\"\n\"0123456あいう\"::d\ne:f::g\n");
+    }
+
+    @Test
+    public void testSameAsCsvTokenizerWithStrayQuotes() throws Exception {
+        config.set("quotes_in_quoted_fields", "ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS");
+        assertSameAsCsvTokenizer("\"a\"b\",\"c\"\"d\"\n\"\"\"e\"\",f\n");
+    }
+
+    @Test
+    public void testValueBytes() throws Exception {
+        CsvParserPlugin.PluginTask task = loadTask();
+        ByteLineReader reader = new ByteLineReader(newFileInput(task, "あ,\"b\"\"c\",\n", 1024), StandardCharsets.UTF_8);
+        ByteCsvTokenizer tokenizer = new ByteCsvTokenizer(reader, task);
+        assertTrue(tokenizer.nextFile());
+        assertTrue(tokenizer.nextRecord());
+
+        assertTrue(tokenizer.nextColumnValue());
+        assertEquals(3, tokenizer.getValueLength());
+        assertEquals((byte) 0xe3, tokenizer.getValueBytes()[tokenizer.getValueOffset()]);
+        assertEquals("あ", tokenizer.getValueString());
+
+        assertTrue(tokenizer.nextColumnValue());
+        assertTrue(tokenizer.wasQuotedColumn());
+        assertEquals("b\"c", tokenizer.getValueString());
+
+        assertFalse(tokenizer.nextColumnValue());  // empty and not quoted
+        assertFalse(tokenizer.nextRecord());
+    }
+
+    @Test
+    public void testNotSupported() throws Exception {
+        assertFalse(ByteCsvTokenizer.isSupported(config.deepCopy().set("charset", "UTF-16LE")
+                        .loadConfig(CsvParserPlugin.PluginTask.class)));
+        assertFalse(ByteCsvTokenizer.isSupported(config.deepCopy().set("line_delimiter_recognized", "LF")
+                        .loadConfig(CsvParserPlugin.PluginTask.class)));
+        assertFalse(ByteCsvTokenizer.isSupported(config.deepCopy().set("delimiter", "、")
+                        .loadConfig(CsvParserPlugin.PluginTask.class)));
+    }
+}
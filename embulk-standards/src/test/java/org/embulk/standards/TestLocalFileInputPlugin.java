@@ -1,17 +1,28 @@
 package org.embulk.standards;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Optional;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
 import org.embulk.spi.Exec;
+import org.embulk.spi.TransactionalFileInput;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -231,6 +242,201 @@ public class TestLocalFileInputPlugin {
         }
     }
 
+    @Test
+    public void testReadSplitRanges() throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(i).append(",").append(String.join("", Collections.nCopies(i % 13, "x"))).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        content.append("last line without newline");
+        final File file = this.workdir.newFile("split.csv");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (final long splitSize : new long[] { 1, 2, 7, 64, 1000, content.length() - 1 }) {
+            final List<Integer> fileIndexes = new ArrayList<>();
+            final List<Long> starts = new ArrayList<>();
+            final List<Long> ends = new ArrayList<>();
+            LocalFileInputPlugin.splitFiles(Arrays.asList(file.length()), splitSize, fileIndexes, starts, ends);
+            assertEquals((content.length() + splitSize - 1) / splitSize, fileIndexes.size());
+
+            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+            for (int i = 0; i < fileIndexes.size(); i++) {
+                try (InputStream in = new LineAlignedRangeInputStream(new FileInputStream(file), starts.get(i), ends.get(i))) {
+                    final byte[] buffer = new byte[5];
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        read.write(buffer, 0, n);
+                    }
+                }
+            }
+            assertEquals(content.toString(), new String(read.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testNotSplitSmallFiles() throws IOException {
+        final List<Integer> fileIndexes = new ArrayList<>();
+        final List<Long> starts = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+        LocalFileInputPlugin.splitFiles(Arrays.asList(4L, 4L), 4, fileIndexes, starts, ends);
+        assertEquals(Arrays.asList(0, 1), fileIndexes);
+        assertEquals(Arrays.asList(0L, 0L), starts);
+        assertEquals(Arrays.asList(Long.MAX_VALUE, Long.MAX_VALUE), ends);
+    }
+
+    @Test
+    public void testPackRanges() {
+        final List<Long> fileSizes = Arrays.asList(10L, 20L, 5L, 100L, 1L, 1L);
+        final List<Integer> fileIndexes = new ArrayList<>();
+        final List<Long> starts = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+        LocalFileInputPlugin.splitFiles(fileSizes, 60, fileIndexes, starts, ends);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 3, 4, 5), fileIndexes);
+
+        // 10 + 20 | 5 + 60 | 40 | 1 + 1
+        assertEquals(Arrays.asList(2, 2, 1, 2), LocalFileInputPlugin.packRanges(fileSizes, fileIndexes, starts, ends, 30));
+        assertEquals(Arrays.asList(1, 1, 1, 1, 1, 1, 1), LocalFileInputPlugin.packRanges(fileSizes, fileIndexes, starts, ends, 0));
+        assertEquals(Arrays.asList(7), LocalFileInputPlugin.packRanges(fileSizes, fileIndexes, starts, ends, 1000));
+    }
+
+    @Test
+    public void testPackFilesWithoutRanges() {
+        final List<Long> fileSizes = Arrays.asList(10L, 20L, 5L, 100L, 1L, 1L);
+        final List<Integer> noIndexes = Collections.emptyList();
+        final List<Long> noRanges = Collections.emptyList();
+
+        // 10 + 20 | 5 + 100 | 1 + 1
+        assertEquals(Arrays.asList(2, 2, 2), LocalFileInputPlugin.packRanges(fileSizes, noIndexes, noRanges, noRanges, 30));
+
+        final LocalFileInputPlugin.PluginTask task = buildTask("foo");
+        task.setFiles(Arrays.asList("a", "b", "c", "d", "e", "f"));
+        task.setFileSizes(fileSizes);
+        task.setRangeFileIndexes(noIndexes);
+        task.setRangeStarts(noRanges);
+        task.setRangeEnds(noRanges);
+        task.setTaskRangeCounts(Arrays.asList(2, 2, 2));
+        final long[] costs = new LocalFileInputPlugin().hintOfTaskCosts(task.dump(), 3).get();
+        assertEquals(30L, costs[0]);
+        assertEquals(105L, costs[1]);
+        assertEquals(2L, costs[2]);
+    }
+
+    @Test
+    public void testHintOfTaskCosts() {
+        final LocalFileInputPlugin.PluginTask task = buildTask("foo");
+        task.setFiles(Arrays.asList("a", "b", "c"));
+        task.setFileSizes(Arrays.asList(10L, 100L, 20L));
+        task.setRangeFileIndexes(Arrays.asList(0, 1, 1, 2));
+        task.setRangeStarts(Arrays.asList(0L, 0L, 60L, 0L));
+        task.setRangeEnds(Arrays.asList(Long.MAX_VALUE, 60L, Long.MAX_VALUE, Long.MAX_VALUE));
+        task.setTaskRangeCounts(Arrays.asList(2, 2));
+        final long[] costs = new LocalFileInputPlugin().hintOfTaskCosts(task.dump(), 2).get();
+        assertEquals(70L, costs[0]);
+        assertEquals(60L, costs[1]);
+    }
+
+    @Test
+    public void testListFileSizes() throws IOException {
+        Files.write(this.workdir.newFile("sized1").toPath(), new byte[3]);
+        Files.write(this.workdir.newFile("sized2").toPath(), new byte[5]);
+        final List<Long> sizes = new ArrayList<>();
+        final List<String> files = LocalFileInputPlugin.listFilesForTesting(buildTask("sized"), sizes);
+        assertEquals(2, files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(new File(files.get(i)).length(), (long) sizes.get(i));
+        }
+    }
+
+    @Test
+    public void testSplitRemainderWhileReading() throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 12 * 1024 * 1024; i++) {
+            content.append(i).append(",some value of line ").append(i).append("\n");
+        }
+        final File file = this.workdir.newFile("remainder.csv");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (final boolean memoryMap : new boolean[] { false, true }) {
+            final ConfigSource config = Exec.newConfigSource();
+            config.set("path_prefix", file.getPath());
+            config.set("split_size", "100MB");
+            config.set("memory_map", memoryMap);
+            final LocalFileInputPlugin.PluginTask task = config.loadConfig(LocalFileInputPlugin.PluginTask.class);
+            task.setFiles(Arrays.asList(file.getPath()));
+            task.setFileSizes(Arrays.asList(file.length()));
+            task.setRangeFileIndexes(Arrays.asList(0));
+            task.setRangeStarts(Arrays.asList(0L));
+            task.setRangeEnds(Arrays.asList(Long.MAX_VALUE));
+            task.setTaskRangeCounts(Arrays.asList(1));
+
+            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+            final LocalFileInputPlugin plugin = new LocalFileInputPlugin();
+            final TaskSource remainder;
+            try (TransactionalFileInput input = plugin.open(task.dump(), 0)) {
+                assertTrue(input.nextFile());
+                readBuffer(input.poll(), read);
+                remainder = plugin.splitRemainder().get();
+                readAll(input, read);
+            }
+            assertTrue(read.size() < content.length());
+            final LocalFileInputPlugin remainderPlugin = new LocalFileInputPlugin();
+            try (TransactionalFileInput input = remainderPlugin.open(remainder, 0)) {
+                readAll(input, read);
+            }
+            assertEquals(content.toString(), new String(read.toByteArray(), StandardCharsets.UTF_8));
+            assertFalse(plugin.splitRemainder().isPresent());
+        }
+    }
+
+    @Test
+    public void testReadMappedRanges() throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(i).append(",").append(String.join("", Collections.nCopies(i % 13, "x"))).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        content.append("last line without newline");
+        final File file = this.workdir.newFile("mapped.csv");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (final long splitSize : new long[] { 1, 2, 7, 64, 1000, content.length() - 1, content.length() }) {
+            final List<Integer> fileIndexes = new ArrayList<>();
+            final List<Long> starts = new ArrayList<>();
+            final List<Long> ends = new ArrayList<>();
+            LocalFileInputPlugin.splitFiles(Arrays.asList(file.length()), splitSize, fileIndexes, starts, ends);
+
+            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+            for (int i = 0; i < fileIndexes.size(); i++) {
+                try (MappedRange range = new MappedRange(file, starts.get(i), ends.get(i))) {
+                    Buffer buffer;
+                    while ((buffer = range.next()) != null) {
+                        assertFalse(buffer.hasArray());
+                        readBuffer(buffer, read);
+                    }
+                }
+            }
+            assertEquals(content.toString(), new String(read.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void readAll(final TransactionalFileInput input, final ByteArrayOutputStream read) {
+        while (input.nextFile()) {
+            while (true) {
+                final Buffer buffer = input.poll();
+                if (buffer == null) {
+                    break;
+                }
+                readBuffer(buffer, read);
+            }
+        }
+    }
+
+    private static void readBuffer(final Buffer buffer, final ByteArrayOutputStream read) {
+        final byte[] bytes = new byte[buffer.limit()];
+        buffer.getBytes(0, bytes, 0, bytes.length);
+        buffer.release();
+        read.write(bytes, 0, bytes.length);
+    }
+
     private static List<String> listFiles(final LocalFileInputPlugin.PluginTask task) {
         return LocalFileInputPlugin.listFilesForTesting(task);
     }